@@ -0,0 +1,108 @@
+package org.inveniosoftware.inveniosemantics.benchmarks;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.inveniosoftware.inveniosemantics.HEPOntologyAccessor;
+import org.inveniosoftware.inveniosemantics.InspireDatabase;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the annotation of captions with the concepts of the HEP
+ * ontology and of the label searches, run on a synthetic thesaurus
+ *
+ * @author piotr
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnnotationBenchmark {
+
+    /**
+     * Position in the inputs, so that every invocation uses the next one
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int _next;
+
+        public int next(int size) {
+            if (_next >= size) {
+                _next = 0;
+            }
+            return _next++;
+        }
+    }
+    @Param({"2000", "20000"})
+    public int concepts;
+    @Param({"1000"})
+    public int captions;
+    private File _dir;
+    private InspireDatabase _database;
+    private HEPOntologyAccessor _hep;
+    private SyntheticCorpus _corpus;
+    private List<String> _cleanCaptions;
+    private List<String> _labels;
+    private List<Set<String>> _wordSets;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticThesaurus thesaurus = new SyntheticThesaurus(concepts, 1);
+        _corpus = new SyntheticCorpus(thesaurus, captions, 2);
+        _dir = DatabaseFiles.create(thesaurus, _corpus, 0, 3);
+        _database = new InspireDatabase(_dir.getAbsolutePath(), false);
+        _database.setDebug(false);
+        _hep = new HEPOntologyAccessor(new File(_dir, "HEPont.rdf").getAbsolutePath());
+
+        _cleanCaptions = new ArrayList<>();
+        for (String caption : _corpus.getCaptions()) {
+            _cleanCaptions.add(InspireDatabase.cleanString(caption));
+        }
+        // labels and the sets of their words, every fourth one not in the thesaurus
+        Random random = new Random(4);
+        _labels = new ArrayList<>();
+        _wordSets = new ArrayList<>();
+        String[] words = thesaurus.getWords();
+        for (int i = 0; i < 1000; ++i) {
+            String label;
+            if (i % 4 == 3) {
+                label = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + " x";
+            } else {
+                List<String> labels = thesaurus.getLabels(random.nextInt(thesaurus.size()));
+                label = labels.get(random.nextInt(labels.size()));
+            }
+            _labels.add(label);
+            _wordSets.add(HEPOntologyAccessor.tokeniseLabel(label));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        DatabaseFiles.delete(_dir);
+    }
+
+    @Benchmark
+    public Set<Resource> annotateStringWithHEPConcepts(Cursor cursor) {
+        return _database.annotateStringWithHEPConcepts(_cleanCaptions.get(cursor.next(_cleanCaptions.size())));
+    }
+
+    @Benchmark
+    public String cleanString(Cursor cursor) {
+        return InspireDatabase.cleanString(_corpus.get(cursor.next(_corpus.size())));
+    }
+
+    @Benchmark
+    public Set<Resource> searchResourcesCached(Cursor cursor) {
+        return _hep.searchResourcesCached(_wordSets.get(cursor.next(_wordSets.size())));
+    }
+
+    @Benchmark
+    public List<Resource> searchResources(Cursor cursor) {
+        return _hep.searchResources(_labels.get(cursor.next(_labels.size())));
+    }
+}
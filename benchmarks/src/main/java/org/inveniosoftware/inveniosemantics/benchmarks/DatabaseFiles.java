@@ -0,0 +1,150 @@
+package org.inveniosoftware.inveniosemantics.benchmarks;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.DC;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import org.inveniosoftware.inveniosemantics.InspireDatabase;
+import org.inveniosoftware.inveniosemantics.InvenioOntologyAccessor;
+import org.inveniosoftware.inveniosemantics.MUOOntologyAccessor;
+
+/**
+ * Writes the input directory of an InspireDatabase (the files with the default
+ * names used by InspireDatabase(String, boolean)) filled with synthetic data
+ *
+ * @author piotr
+ */
+public class DatabaseFiles {
+
+    private static final String[][] PREFIXES = {{"kilo", "k"}, {"mega", "M"}, {"giga", "G"}, {"tera", "T"},
+        {"centi", "c"}, {"milli", "m"}, {"micro", "u"}, {"nano", "n"}, {"pico", "p"}, {"femto", "f"}};
+    private static final String[][] UNITS = {{"electronvolt", "eV"}, {"meter", "m"}, {"second", "s"},
+        {"barn", "b"}, {"gram", "g"}, {"byte", "B"}, {"volt", "V"}, {"hertz", "Hz"}, {"kelvin", "K"},
+        {"tesla", "T"}, {"radian", "rad"}};
+
+    private DatabaseFiles() {
+    }
+
+    /**
+     * Creates a temporary directory containing the thesaurus, the Invenio and
+     * MUO ontologies and, if numFigures is positive, the figures annotated
+     * with random concepts of the thesaurus in output.rdf
+     *
+     * @return the directory
+     */
+    public static File create(SyntheticThesaurus thesaurus, SyntheticCorpus corpus, int numFigures, long seed) throws IOException {
+        File dir = Files.createTempDirectory("inveniosemantics-benchmark").toFile();
+        thesaurus.write(new File(dir, "HEPont.rdf"));
+        writeInvenioModel(new File(dir, "inveniomodel.owl"));
+        writeUnits(new File(dir, "muo-vocab.owl"), new File(dir, "ucum-instances.owl"));
+        if (numFigures > 0) {
+            writeFigures(new File(dir, "output.rdf"), thesaurus, corpus, numFigures, seed);
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes the directory with all its content
+     */
+    public static void delete(File dir) throws IOException {
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException ex) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void write(Model model, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            model.write(out);
+        }
+    }
+
+    /**
+     * Writes the classes and properties of the Invenio ontology used by the
+     * annotations
+     */
+    private static void writeInvenioModel(File file) throws IOException {
+        Model model = ModelFactory.createDefaultModel();
+        String[] classes = {InvenioOntologyAccessor.FIGURE, InvenioOntologyAccessor.PLOT,
+            InvenioOntologyAccessor.PUBLICATION, InvenioOntologyAccessor.TABLE};
+        for (String c : classes) {
+            model.createResource(c).addProperty(RDF.type, OWL.Class);
+        }
+        model.createResource(InvenioOntologyAccessor.PLOT).addProperty(RDFS.subClassOf, model.createResource(InvenioOntologyAccessor.FIGURE));
+        String[] properties = {InvenioOntologyAccessor.CONTAINS, InvenioOntologyAccessor.EXTRACTEDFROM,
+            InvenioOntologyAccessor.HAS_UNIT, InvenioOntologyAccessor.BASEDON};
+        for (String p : properties) {
+            model.createResource(p).addProperty(RDF.type, OWL.ObjectProperty);
+        }
+        write(model, file);
+    }
+
+    private static void writeUnits(File vocabularyFile, File instancesFile) throws IOException {
+        Model vocabulary = ModelFactory.createDefaultModel();
+        vocabulary.createResource(MUOOntologyAccessor.MUOURI + "Prefix").addProperty(RDF.type, OWL.Class);
+        vocabulary.createResource(MUOOntologyAccessor.MUOURI + "UnitOfMeasurement").addProperty(RDF.type, OWL.Class);
+        write(vocabulary, vocabularyFile);
+
+        Model instances = ModelFactory.createDefaultModel();
+        Property prefSymbol = instances.createProperty(MUOOntologyAccessor.MUOURI, "prefSymbol");
+        Resource prefix = instances.createResource(MUOOntologyAccessor.MUOURI + "Prefix");
+        Resource unit = instances.createResource(MUOOntologyAccessor.MUOURI + "UnitOfMeasurement");
+        for (String[] p : PREFIXES) {
+            instances.createResource(MUOOntologyAccessor.INSTANCESURI + "prefix/" + p[0])
+                    .addProperty(RDF.type, prefix).addProperty(prefSymbol, p[1]);
+        }
+        for (String[] u : UNITS) {
+            instances.createResource(MUOOntologyAccessor.INSTANCESURI + "unit/" + u[0])
+                    .addProperty(RDF.type, unit).addProperty(prefSymbol, u[1]);
+        }
+        write(instances, instancesFile);
+    }
+
+    /**
+     * Writes the figures in the form created by InspireDatabase.addFigure.
+     * Every publication contains a few figures, the concepts with smaller
+     * numbers (higher in the hierarchy) annotate more figures.
+     */
+    private static void writeFigures(File file, SyntheticThesaurus thesaurus, SyntheticCorpus corpus, int numFigures, long seed) throws IOException {
+        Random random = new Random(seed);
+        Model model = ModelFactory.createDefaultModel();
+        Property contains = model.createProperty(InvenioOntologyAccessor.CONTAINS);
+        Property extractedFrom = model.createProperty(InvenioOntologyAccessor.EXTRACTEDFROM);
+        Resource publication = null;
+        for (int i = 0; i < numFigures; ++i) {
+            if (publication == null || random.nextInt(5) == 0) {
+                publication = model.createResource(InvenioOntologyAccessor.NSURI + "publication" + i);
+                publication.addProperty(RDF.type, model.createResource(InvenioOntologyAccessor.PUBLICATION));
+            }
+            Resource figure = model.createResource(publication.getURI() + "/figure" + i);
+            figure.addProperty(RDF.type, model.createResource(random.nextInt(3) == 0 ? InvenioOntologyAccessor.PLOT : InvenioOntologyAccessor.FIGURE));
+            figure.addProperty(DC.title, InspireDatabase.cleanString(corpus.get(i % corpus.size())));
+            figure.addProperty(RDFS.label, "figure " + i);
+            figure.addProperty(extractedFrom, publication);
+            publication.addProperty(contains, figure);
+            int numConcepts = random.nextInt(5);
+            for (int c = 0; c < numConcepts; ++c) {
+                int concept = Math.min(random.nextInt(thesaurus.size()), random.nextInt(thesaurus.size()));
+                figure.addProperty(DC.subject, model.createResource(thesaurus.getURI(concept)));
+            }
+        }
+        write(model, file);
+    }
+}
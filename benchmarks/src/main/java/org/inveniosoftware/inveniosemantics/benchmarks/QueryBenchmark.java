@@ -0,0 +1,113 @@
+package org.inveniosoftware.inveniosemantics.benchmarks;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import invenio.common.Pair;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.inveniosoftware.inveniosemantics.InspireDatabase;
+import org.inveniosoftware.inveniosemantics.InvenioOntologyAccessor;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the search methods of InspireDatabase, run on figures
+ * annotated with the concepts of a synthetic thesaurus. Larger databases can
+ * be benchmarked with -p figures=10000. The searches repeat the same concepts,
+ * so with the result cache enabled they mostly measure its hits; without it
+ * every invocation runs the query.
+ *
+ * @author piotr
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    @Param({"2000"})
+    public int concepts;
+    @Param({"1000"})
+    public int figures;
+    @Param({"false", "true"})
+    public boolean resultCache;
+    private File _dir;
+    private InspireDatabase _database;
+    private List<String> _conceptURIs; // concepts to search, the ones higher in the hierarchy more often
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticThesaurus thesaurus = new SyntheticThesaurus(concepts, 1);
+        SyntheticCorpus corpus = new SyntheticCorpus(thesaurus, 1000, 2);
+        _dir = DatabaseFiles.create(thesaurus, corpus, figures, 3);
+        _database = new InspireDatabase(_dir.getAbsolutePath(), true);
+        _database.setDebug(false);
+        if (!resultCache) {
+            _database.setResultCache(0, 0);
+        }
+        Random random = new Random(5);
+        _conceptURIs = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            _conceptURIs.add(thesaurus.getURI(Math.min(random.nextInt(concepts), random.nextInt(concepts))));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        DatabaseFiles.delete(_dir);
+    }
+
+    private String nextConcept(AnnotationBenchmark.Cursor cursor) {
+        return _conceptURIs.get(cursor.next(_conceptURIs.size()));
+    }
+
+    @Benchmark
+    public List<Resource> search(AnnotationBenchmark.Cursor cursor) {
+        return _database.search(nextConcept(cursor), InvenioOntologyAccessor.FIGURE);
+    }
+
+    @Benchmark
+    public List<Resource> searchFigures(AnnotationBenchmark.Cursor cursor) {
+        return _database.searchFigures(null, Arrays.asList(nextConcept(cursor), nextConcept(cursor)),
+                Collections.singletonList(nextConcept(cursor)), InvenioOntologyAccessor.PLOT);
+    }
+
+    @Benchmark
+    public Set<Resource> searchForHEPNotion(AnnotationBenchmark.Cursor cursor) {
+        return _database.searchForHEPNotion(nextConcept(cursor));
+    }
+
+    @Benchmark
+    public Map<Resource, Resource> searchForHEPNotionHierarchy(AnnotationBenchmark.Cursor cursor) {
+        return _database.searchForHEPNotionHierarchy(nextConcept(cursor));
+    }
+
+    @Benchmark
+    public Set<Resource> getAllAnnotationNotions() {
+        return _database.getAllAnnotationNotions();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Set<Resource> getAllGeneralAnnotationNotions() {
+        return _database.getAllGeneralAnnotationNotions();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Set<Resource> getAllHEPNotions() {
+        return _database.getAllHEPNotions();
+    }
+
+    /**
+     * Walks the narrower closure below every used notion, an invocation takes
+     * milliseconds
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Set<Pair<Resource, Resource>> getPairsOfRelatedTerms() {
+        return _database.getPairsOfRelatedTerms();
+    }
+}
@@ -0,0 +1,98 @@
+package org.inveniosoftware.inveniosemantics.benchmarks;
+
+import java.util.*;
+
+/**
+ * Randomly generated figure captions, mixing the labels of a synthetic
+ * thesaurus, measured values with units and filler words in proportions
+ * similar to the captions extracted from the HEP publications. Some captions
+ * contain control characters, which are removed by
+ * InspireDatabase.cleanString.
+ *
+ * @author piotr
+ */
+public class SyntheticCorpus {
+
+    private static final String[] FILLER = {"the", "of", "measured", "distribution", "as", "a", "function",
+        "in", "for", "events", "with", "and", "is", "compared", "to", "prediction", "from", "data", "(a)",
+        "(b)", "shown", "region", "selected", "after", "cuts", "background", "signal", "expected", "observed",
+        "uncertainty", "systematic", "statistical", "fit", "ratio", "spectrum", "cross", "section", "at"};
+    /**
+     * Symbols of units, with and without prefixes, known to the units
+     * ontology written by DatabaseFiles
+     */
+    public static final String[] UNITS = {"eV", "keV", "MeV", "GeV", "TeV", "m", "mm", "cm", "nm", "s", "ns",
+        "ps", "b", "pb", "fb", "g", "kg", "B", "kB", "MB", "GB", "V", "kV", "Hz", "MHz", "K", "T", "rad", "mrad"};
+    private final List<String> _captions = new ArrayList<>();
+
+    /**
+     * Generates the captions
+     *
+     * @param thesaurus source of the labels mentioned in the captions
+     * @param numCaptions number of captions
+     * @param seed seed of the random generator
+     */
+    public SyntheticCorpus(SyntheticThesaurus thesaurus, int numCaptions, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < numCaptions; ++i) {
+            StringBuilder caption = new StringBuilder();
+            int numTokens = 8 + random.nextInt(30);
+            for (int t = 0; t < numTokens; ++t) {
+                if (t > 0) {
+                    caption.append(random.nextInt(10) == 0 ? "  " : " ");
+                }
+                int kind = random.nextInt(100);
+                if (kind < 20) {
+                    List<String> labels = thesaurus.getLabels(random.nextInt(thesaurus.size()));
+                    caption.append(labels.get(random.nextInt(labels.size())));
+                } else if (kind < 30) {
+                    caption.append(randomValue(random)).append(' ').append(UNITS[random.nextInt(UNITS.length)]);
+                } else if (kind < 35) {
+                    // a word of the thesaurus not forming a label
+                    String[] words = thesaurus.getWords();
+                    caption.append(words[random.nextInt(words.length)]);
+                } else {
+                    caption.append(FILLER[random.nextInt(FILLER.length)]);
+                }
+            }
+            if (random.nextInt(10) == 0) {
+                caption.insert(random.nextInt(caption.length()), '\u0007');
+            }
+            _captions.add(caption.toString());
+        }
+    }
+
+    private static String randomValue(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return Integer.toString(random.nextInt(1000));
+            case 1:
+                return String.format(Locale.ROOT, "%.2f", random.nextDouble() * 100);
+            case 2:
+                return String.format(Locale.ROOT, "%.1fe%d", random.nextDouble() * 10, random.nextInt(10) - 5);
+            default:
+                return String.format(Locale.ROOT, "%d.%d", random.nextInt(20), random.nextInt(10));
+        }
+    }
+
+    /**
+     * @return the captions
+     */
+    public List<String> getCaptions() {
+        return _captions;
+    }
+
+    /**
+     * @return the number of captions
+     */
+    public int size() {
+        return _captions.size();
+    }
+
+    /**
+     * @return the caption with the given number
+     */
+    public String get(int i) {
+        return _captions.get(i);
+    }
+}
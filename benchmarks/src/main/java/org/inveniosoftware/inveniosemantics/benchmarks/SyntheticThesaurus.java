@@ -0,0 +1,145 @@
+package org.inveniosoftware.inveniosemantics.benchmarks;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.io.*;
+import java.util.*;
+import org.inveniosoftware.inveniosemantics.HEPOntologyAccessor;
+
+/**
+ * Randomly generated SKOS thesaurus with the structure of the HEP ontology, so
+ * that the benchmarks do not need the HEPont.rdf file.
+ *
+ * The concept i is called "concept" + i. Its labels consist of one to three
+ * words built of syllables, some of the alternative labels separate the words
+ * with a colon ("quark: top"). Every concept except the first one has a
+ * broader concept with a smaller number (the inverse skos:narrower statements
+ * are also written) and a few concepts are marked as nostandalone. The same
+ * seed always gives the same thesaurus.
+ *
+ * @author piotr
+ */
+public class SyntheticThesaurus {
+
+    private static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+    private static final String[] SYLLABLES = {"qua", "rk", "lep", "ton", "ha", "dron", "bo", "son", "mu",
+        "el", "ec", "pho", "glu", "on", "ne", "tri", "no", "pi", "ka", "jet", "ma", "ss", "spin", "ch", "ar", "m"};
+    private final String[] _words;
+    private final List<List<String>> _labels = new ArrayList<>(); // concept -> labels, the preferred one first
+    private final int[] _broader; // concept -> its broader concept or -1
+    private final boolean[] _nostandalone;
+
+    /**
+     * Generates the thesaurus
+     *
+     * @param numConcepts number of concepts
+     * @param seed seed of the random generator
+     */
+    public SyntheticThesaurus(int numConcepts, long seed) {
+        Random random = new Random(seed);
+        LinkedHashSet<String> words = new LinkedHashSet<>();
+        int numWords = Math.max(10, numConcepts / 2);
+        while (words.size() < numWords) {
+            StringBuilder word = new StringBuilder();
+            int numSyllables = 1 + random.nextInt(3);
+            for (int i = 0; i < numSyllables; ++i) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            words.add(word.toString());
+        }
+        _words = words.toArray(new String[words.size()]);
+
+        HashSet<String> usedLabels = new HashSet<>();
+        _broader = new int[numConcepts];
+        _nostandalone = new boolean[numConcepts];
+        for (int concept = 0; concept < numConcepts; ++concept) {
+            List<String> labels = new ArrayList<>();
+            int numLabels = 1 + (random.nextInt(3) == 0 ? 1 + random.nextInt(2) : 0);
+            while (labels.size() < numLabels) {
+                String label = randomLabel(random, labels.isEmpty() ? " " : (random.nextBoolean() ? ": " : " "));
+                if (usedLabels.add(label)) {
+                    labels.add(label);
+                }
+            }
+            _labels.add(labels);
+            _broader[concept] = concept == 0 ? -1 : random.nextInt(concept);
+            _nostandalone[concept] = random.nextInt(20) == 0;
+        }
+    }
+
+    private String randomLabel(Random random, String separator) {
+        // the short labels are more common
+        int numWords = 1 + Math.min(random.nextInt(4), random.nextInt(4));
+        StringBuilder label = new StringBuilder();
+        for (int i = 0; i < numWords; ++i) {
+            if (i > 0) {
+                label.append(separator);
+            }
+            label.append(_words[random.nextInt(_words.length)]);
+        }
+        return label.toString();
+    }
+
+    /**
+     * @return the number of concepts
+     */
+    public int size() {
+        return _labels.size();
+    }
+
+    /**
+     * @return the URI of the concept
+     */
+    public String getURI(int concept) {
+        return HEPOntologyAccessor.NSURI + "concept" + concept;
+    }
+
+    /**
+     * @return the labels of the concept, the preferred one first
+     */
+    public List<String> getLabels(int concept) {
+        return _labels.get(concept);
+    }
+
+    /**
+     * @return the words the labels are built of
+     */
+    public String[] getWords() {
+        return _words;
+    }
+
+    /**
+     * Writes the thesaurus as RDF/XML
+     */
+    public void write(File file) throws IOException {
+        Model model = ModelFactory.createDefaultModel();
+        Property prefLabel = model.createProperty(SKOS, "prefLabel");
+        Property altLabel = model.createProperty(SKOS, "altLabel");
+        Property broader = model.createProperty(SKOS, "broader");
+        Property narrower = model.createProperty(SKOS, "narrower");
+        Property note = model.createProperty(SKOS, "note");
+        Resource conceptClass = model.createResource(SKOS + "Concept");
+        for (int i = 0; i < size(); ++i) {
+            Resource concept = model.createResource(getURI(i));
+            concept.addProperty(RDF.type, conceptClass);
+            concept.addProperty(prefLabel, _labels.get(i).get(0));
+            for (String label : _labels.get(i).subList(1, _labels.get(i).size())) {
+                concept.addProperty(altLabel, label);
+            }
+            if (_broader[i] >= 0) {
+                Resource parent = model.createResource(getURI(_broader[i]));
+                concept.addProperty(broader, parent);
+                parent.addProperty(narrower, concept);
+            }
+            if (_nostandalone[i]) {
+                concept.addProperty(note, "nostandalone");
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            model.write(out);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.inveniosoftware.inveniosemantics.benchmarks;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import invenio.common.Pair;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.inveniosoftware.inveniosemantics.InspireDatabase;
+import org.inveniosoftware.inveniosemantics.MUOOntologyAccessor;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the detection of units of measurement in captions
+ *
+ * @author piotr
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnitBenchmark {
+
+    @Param({"1000"})
+    public int captions;
+    private File _dir;
+    private MUOOntologyAccessor _muo;
+    private List<String> _cleanCaptions;
+    private List<String> _words;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticThesaurus thesaurus = new SyntheticThesaurus(2000, 1);
+        SyntheticCorpus corpus = new SyntheticCorpus(thesaurus, captions, 2);
+        _dir = DatabaseFiles.create(thesaurus, corpus, 0, 3);
+        _muo = new MUOOntologyAccessor(new File(_dir, "muo-vocab.owl").getAbsolutePath(),
+                new File(_dir, "ucum-instances.owl").getAbsolutePath());
+        _cleanCaptions = new ArrayList<>();
+        _words = new ArrayList<>();
+        for (String caption : corpus.getCaptions()) {
+            String clean = InspireDatabase.cleanString(caption);
+            _cleanCaptions.add(clean);
+            _words.addAll(InspireDatabase.tokeniseString(clean));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        DatabaseFiles.delete(_dir);
+    }
+
+    @Benchmark
+    public Set<Resource> annotateStringWithUnits(AnnotationBenchmark.Cursor cursor) {
+        return _muo.annotateStringWithUnits(_cleanCaptions.get(cursor.next(_cleanCaptions.size())));
+    }
+
+    @Benchmark
+    public List<Pair<Resource, Resource>> annotateWordWithUnits(AnnotationBenchmark.Cursor cursor) {
+        return _muo.annotateWordWithUnits(_words.get(cursor.next(_words.size())));
+    }
+}
@@ -0,0 +1,393 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of the annotations of the captions, mapping the SHA-1 of a
+ * cleaned caption to the URIs of its concepts and units. It is kept in a
+ * memory-mapped file, so the captions annotated by the previous runs are
+ * found without annotating them again.
+ *
+ * The file starts with a header identifying the version of the ontologies;
+ * a file written for other ontologies or with another size is replaced by an
+ * empty one when opened. The new file is written under a temporary name and
+ * renamed, holding a lock on the file with the suffix ".lock", so a process
+ * which has the previous file mapped keeps using it safely. The rest of the file is a set-associative table of records of
+ * RECORD_SIZE bytes: a caption can only be stored in the WAYS records of the
+ * set chosen by its hash, and replaces the least recently used record of the
+ * set when they are all taken. The size of the file is therefore fixed, and
+ * the annotations which do not fit into a record are not cached.
+ *
+ * Every record is protected by a checksum, so a record partially written
+ * before a crash is ignored. The methods can be called from many threads.
+ *
+ * @author piotr
+ */
+public class AnnotationCache implements Closeable {
+
+    public static final String EXTENSION = ".annotations";
+    private static final String LOCK_SUFFIX = ".lock";
+    public static final int RECORD_SIZE = 512;
+    public static final int WAYS = 8;
+    private static final int MAGIC = 0x49414331; // "IAC1"
+    private static final int FORMAT = 1; // part of the version, changes with the layout of the records
+    private static final int HEADER_SIZE = 4096;
+    // header: magic, version of the ontologies (20 bytes), number of sets, clock
+    private static final int HEADER_CLOCK = 28;
+    // record: hash of the caption, last use, checksum, length of the payload, payload
+    private static final int RECORD_LAST_USED = 20;
+    private static final int RECORD_CRC = 28;
+    private static final int RECORD_LENGTH = 32;
+    private static final int RECORD_PAYLOAD = 34;
+    private static final int MAX_PAYLOAD = RECORD_SIZE - RECORD_PAYLOAD;
+    private static final String[] NAMESPACES = {"", HEPOntologyAccessor.NSURI, MUOOntologyAccessor.INSTANCESURI};
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final AtomicLong HITS = Metrics.counter("annotationCache.hits");
+    private static final AtomicLong MISSES = Metrics.counter("annotationCache.misses");
+    private static final AtomicLong EVICTIONS = Metrics.counter("annotationCache.evictions");
+    private static final AtomicLong TOO_LARGE = Metrics.counter("annotationCache.tooLarge");
+    private final File _file;
+    private final MappedByteBuffer _buffer;
+    private final int _numSets;
+    private final AtomicLong _clock; // increasing time of the last uses
+    private final Object[] _locks = new Object[64]; // locks of the sets, striped
+
+    /**
+     * Annotations of a caption
+     */
+    public static class Entry {
+
+        public final List<String> concepts;
+        public final List<String[]> units; // pairs of the URIs of the prefix (null if none) and the unit
+
+        public Entry(List<String> concepts, List<String[]> units) {
+            this.concepts = concepts;
+            this.units = units;
+        }
+    }
+
+    /**
+     * Opens the cache, creating or emptying the file if necessary
+     *
+     * @param file the file of the cache
+     * @param version hash identifying the ontologies used for annotating
+     * @param maxBytes maximal size of the file
+     */
+    public AnnotationCache(File file, byte[] version, long maxBytes) throws IOException {
+        if (version.length != 20) {
+            throw new IllegalArgumentException("The version has to be a SHA-1 hash");
+        }
+        _file = file;
+        // a single mapping is limited to 2GB
+        _numSets = (int) Math.max(1, (Math.min(maxBytes, Integer.MAX_VALUE) - HEADER_SIZE) / (RECORD_SIZE * WAYS));
+        for (int i = 0; i < _locks.length; ++i) {
+            _locks[i] = new Object();
+        }
+        long size = HEADER_SIZE + (long) _numSets * WAYS * RECORD_SIZE;
+        // the threads of this process do not see the locks of each other
+        synchronized (AnnotationCache.class) {
+            try (FileChannel lock = FileChannel.open(new File(file.getPath() + LOCK_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                lock.lock();
+                if (!isValid(file, version, size)) {
+                    create(file, version, size);
+                }
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    _buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                }
+            }
+        }
+        _clock = new AtomicLong(_buffer.getLong(HEADER_CLOCK));
+    }
+
+    /**
+     * @return true if the file is a cache of the given version and size
+     */
+    private boolean isValid(File file, byte[] version, long size) throws IOException {
+        if (!file.isFile() || file.length() != size) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return false;
+            }
+            byte[] fileVersion = new byte[20];
+            in.readFully(fileVersion);
+            return Arrays.equals(fileVersion, version) && in.readInt() == _numSets;
+        }
+    }
+
+    /**
+     * Replaces the file by an empty cache, never modifying the previous file
+     */
+    private void create(File file, byte[] version, long size) throws IOException {
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+                raf.setLength(size);
+                raf.writeInt(MAGIC);
+                raf.write(version);
+                raf.writeInt(_numSets);
+                raf.writeLong(0); // clock
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * @return the file of the cache written next to the given ontology file
+     */
+    public static File getCacheFile(File ontologyFile) {
+        return new File(ontologyFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * @return the number of captions which can be cached
+     */
+    public int capacity() {
+        return _numSets * WAYS;
+    }
+
+    /**
+     * @return the version of the annotations made with the given ontology
+     * files, which is the hash of their contents and of the format of the cache
+     */
+    public static byte[] version(File... ontologyFiles) throws IOException {
+        MessageDigest digest = sha1();
+        digest.update((byte) FORMAT);
+        for (File file : ontologyFiles) {
+            digest.update(HEPLabelIndex.hashFile(file));
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 is not supported", ex);
+        }
+    }
+
+    private static byte[] hash(String caption) {
+        return sha1().digest(caption.getBytes(UTF8));
+    }
+
+    private int getSet(byte[] key) {
+        int h = ((key[0] & 0xff) << 24) | ((key[1] & 0xff) << 16) | ((key[2] & 0xff) << 8) | (key[3] & 0xff);
+        return (h & 0x7fffffff) % _numSets;
+    }
+
+    private static int recordPosition(int set, int way) {
+        return HEADER_SIZE + (set * WAYS + way) * RECORD_SIZE;
+    }
+
+    private boolean hasKey(int position, byte[] key) {
+        for (int i = 0; i < key.length; ++i) {
+            if (_buffer.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long checksum(int position, int length) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < RECORD_LAST_USED; ++i) {
+            crc.update(_buffer.get(position + i));
+        }
+        crc.update(length >>> 8);
+        crc.update(length);
+        for (int i = 0; i < length; ++i) {
+            crc.update(_buffer.get(position + RECORD_PAYLOAD + i));
+        }
+        return crc.getValue() & 0xffffffffL;
+    }
+
+    /**
+     * @return the cached annotations of the caption or null
+     */
+    public Entry lookup(String caption) {
+        byte[] key = hash(caption);
+        int set = getSet(key);
+        synchronized (_locks[set % _locks.length]) {
+            for (int way = 0; way < WAYS; ++way) {
+                int position = recordPosition(set, way);
+                if (_buffer.getLong(position + RECORD_LAST_USED) == 0 || !hasKey(position, key)) {
+                    continue;
+                }
+                int length = _buffer.getShort(position + RECORD_LENGTH) & 0xffff;
+                if (length > MAX_PAYLOAD || checksum(position, length) != (_buffer.getInt(position + RECORD_CRC) & 0xffffffffL)) {
+                    break; // damaged
+                }
+                _buffer.putLong(position + RECORD_LAST_USED, _clock.incrementAndGet());
+                HITS.incrementAndGet();
+                return decode(position + RECORD_PAYLOAD);
+            }
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the annotations of the caption
+     *
+     * @param concepts URIs of the concepts
+     * @param units pairs of the URIs of the prefix (null if none) and the unit
+     */
+    public void store(String caption, Collection<String> concepts, Collection<String[]> units) {
+        ByteBuffer payload = encode(concepts, units);
+        if (payload == null) {
+            TOO_LARGE.incrementAndGet();
+            return;
+        }
+        byte[] key = hash(caption);
+        int set = getSet(key);
+        synchronized (_locks[set % _locks.length]) {
+            int victim = -1;
+            long oldest = Long.MAX_VALUE;
+            for (int way = 0; way < WAYS; ++way) {
+                int position = recordPosition(set, way);
+                long lastUsed = _buffer.getLong(position + RECORD_LAST_USED);
+                if (lastUsed != 0 && hasKey(position, key)) {
+                    victim = position;
+                    oldest = 0;
+                    break;
+                }
+                if (lastUsed < oldest) {
+                    victim = position;
+                    oldest = lastUsed;
+                }
+            }
+            if (oldest != 0) {
+                EVICTIONS.incrementAndGet();
+            }
+            int length = payload.remaining();
+            for (int i = 0; i < key.length; ++i) {
+                _buffer.put(victim + i, key[i]);
+            }
+            for (int i = 0; i < length; ++i) {
+                _buffer.put(victim + RECORD_PAYLOAD + i, payload.get(i));
+            }
+            _buffer.putShort(victim + RECORD_LENGTH, (short) length);
+            _buffer.putInt(victim + RECORD_CRC, (int) checksum(victim, length));
+            _buffer.putLong(victim + RECORD_LAST_USED, _clock.incrementAndGet());
+        }
+    }
+
+    /**
+     * @return the payload of a record or null if it does not fit
+     */
+    private static ByteBuffer encode(Collection<String> concepts, Collection<String[]> units) {
+        ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD);
+        if (concepts.size() > 255 || units.size() > 255) {
+            return null;
+        }
+        payload.put((byte) concepts.size());
+        for (String concept : concepts) {
+            if (!putURI(payload, concept)) {
+                return null;
+            }
+        }
+        payload.put((byte) units.size());
+        for (String[] unit : units) {
+            if (!putURI(payload, unit[0] == null ? "" : unit[0]) || !putURI(payload, unit[1])) {
+                return null;
+            }
+        }
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * Writes the index of the namespace of the URI, followed by the length
+     * and the rest of the URI
+     *
+     * @return false if there is not enough space
+     */
+    private static boolean putURI(ByteBuffer payload, String uri) {
+        int namespace = 0;
+        for (int i = NAMESPACES.length - 1; i > 0; --i) {
+            if (uri.startsWith(NAMESPACES[i])) {
+                namespace = i;
+                break;
+            }
+        }
+        byte[] bytes = uri.substring(NAMESPACES[namespace].length()).getBytes(UTF8);
+        if (bytes.length > 255 || payload.remaining() < 2 + bytes.length) {
+            return false;
+        }
+        payload.put((byte) namespace);
+        payload.put((byte) bytes.length);
+        payload.put(bytes);
+        return true;
+    }
+
+    private String getURI(int[] position) {
+        int namespace = _buffer.get(position[0]);
+        int length = _buffer.get(position[0] + 1) & 0xff;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = _buffer.get(position[0] + 2 + i);
+        }
+        position[0] += 2 + length;
+        return NAMESPACES[namespace] + new String(bytes, UTF8);
+    }
+
+    private Entry decode(int start) {
+        int[] position = {start};
+        int numConcepts = _buffer.get(position[0]++) & 0xff;
+        List<String> concepts = new ArrayList<>(numConcepts);
+        for (int i = 0; i < numConcepts; ++i) {
+            concepts.add(getURI(position));
+        }
+        int numUnits = _buffer.get(position[0]++) & 0xff;
+        List<String[]> units = new ArrayList<>(numUnits);
+        for (int i = 0; i < numUnits; ++i) {
+            String prefix = getURI(position);
+            units.add(new String[]{prefix.isEmpty() ? null : prefix, getURI(position)});
+        }
+        return new Entry(concepts, units);
+    }
+
+    /**
+     * Writes the modified records to the disk
+     */
+    public void flush() {
+        _buffer.putLong(HEADER_CLOCK, _clock.get());
+        _buffer.force();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    @Override
+    public String toString() {
+        return _file.getPath() + " (" + capacity() + " captions)";
+    }
+}
@@ -0,0 +1,33 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Merges the triple logs written by UploadExtractedFigures --log into the RDF/XML
+ * output files. Must not be executed while an upload into the same output file
+ * is running.
+ *
+ * @author piotr
+ */
+public class CompactTripleLogs {
+
+    public static void usage() {
+        System.out.println("The tool merging the triple logs into the output file of the semantic repository");
+        System.out.println("Usage: ");
+        System.out.println("   CompactTripleLogs output1.rdf [output2.rdf ... ]");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            usage();
+            return;
+        }
+        for (String fname : args) {
+            File outputFile = new File(fname);
+            long start = System.currentTimeMillis();
+            int merged = TripleLog.compact(outputFile);
+            System.out.println("Merged " + merged + " segments into " + outputFile.getPath() + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+}
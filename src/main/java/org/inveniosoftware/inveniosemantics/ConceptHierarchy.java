@@ -0,0 +1,379 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import java.util.*;
+
+/**
+ * Reflexive and transitive closure of a hierarchy of concepts (for example
+ * skos:broader), computed once and answering the descendant queries without
+ * traversing the graph.
+ *
+ * Concepts lying on a cycle are collapsed into one node. The nodes of the
+ * resulting acyclic graph are numbered in the post-order of a depth-first
+ * traversal, so that the descendants of a node in the traversal tree form one
+ * interval of numbers. Descendants reachable through other parents add further
+ * intervals, which are merged. In a tree every concept has exactly one
+ * interval, so the ancestry test is one comparison.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author piotr
+ */
+public class ConceptHierarchy {
+
+    private final String[] _concepts; // concept URIs ordered by the number of their node
+    private final int[] _nodeStart; // node -> index of its first concept in _concepts
+    private final IdDictionary _conceptIds; // concept URI -> identifier
+    private final int[] _conceptNodes; // concept identifier -> node
+    private final int[] _intervalStart; // node -> index of its first interval in _intervals
+    private final int[] _intervals; // pairs of the first and the last node of every interval
+    private final int[] _childStart; // node -> index of its first child in _childNodes
+    private final int[] _childNodes; // children of the nodes in the acyclic graph
+    private final boolean[] _cyclic; // node -> true if its concepts lie below themselves
+
+    /**
+     * Builds the closure from the edges of the hierarchy
+     *
+     * @param concepts URIs of the concepts
+     * @param edges pairs (child, parent) of indexes into concepts, stored one
+     * after another
+     */
+    public ConceptHierarchy(String[] concepts, int[] edges) {
+        this(new IdDictionary(concepts), edges);
+    }
+
+    /**
+     * Builds the closure from the edges of the hierarchy
+     *
+     * @param conceptIds dictionary of the URIs of the concepts, which is shared
+     * and can not be modified later
+     * @param edges pairs (child, parent) of concept identifiers, stored one
+     * after another
+     */
+    public ConceptHierarchy(IdDictionary conceptIds, int[] edges) {
+        int n = conceptIds.size();
+        int[][] children = toAdjacency(n, edges, 1, 0);
+
+        int[] component = stronglyConnectedComponents(n, children);
+        int numComponents = 0;
+        for (int c : component) {
+            numComponents = Math.max(numComponents, c + 1);
+        }
+        // the acyclic graph of the components
+        int[] componentEdges = new int[edges.length];
+        int numComponentEdges = 0;
+        boolean[] cyclicComponents = new boolean[numComponents];
+        for (int i = 0; i < edges.length; i += 2) {
+            int child = component[edges[i]];
+            int parent = component[edges[i + 1]];
+            if (child == parent) {
+                cyclicComponents[child] = true;
+            } else {
+                componentEdges[numComponentEdges++] = child;
+                componentEdges[numComponentEdges++] = parent;
+            }
+        }
+        int[][] componentChildren = toAdjacency(numComponents, Arrays.copyOf(componentEdges, numComponentEdges), 1, 0);
+        boolean[] hasParent = new boolean[numComponents];
+        for (int i = 0; i < numComponentEdges; i += 2) {
+            hasParent[componentEdges[i]] = true;
+        }
+
+        // post-order numbering, the roots first
+        int[] post = new int[numComponents];
+        int[] low = new int[numComponents]; // the smallest number in the traversal subtree
+        Arrays.fill(post, -1);
+        int[] order = new int[numComponents]; // components in post-order
+        int counter = 0;
+        int[] stack = new int[numComponents];
+        int[] next = new int[numComponents]; // next child to visit
+        boolean[] visited = new boolean[numComponents];
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int root = 0; root < numComponents; ++root) {
+                if (visited[root] || (pass == 0 && hasParent[root])) {
+                    continue;
+                }
+                int top = 0;
+                stack[top++] = root;
+                visited[root] = true;
+                low[root] = counter;
+                while (top > 0) {
+                    int node = stack[top - 1];
+                    if (next[node] < componentChildren[node].length) {
+                        int child = componentChildren[node][next[node]++];
+                        if (!visited[child]) {
+                            visited[child] = true;
+                            low[child] = counter;
+                            stack[top++] = child;
+                        }
+                    } else {
+                        post[node] = counter;
+                        order[counter++] = node;
+                        top--;
+                    }
+                }
+            }
+        }
+
+        // intervals, computed from the children which are numbered before
+        List<int[]> nodeIntervals = new ArrayList<>(numComponents);
+        int totalIntervals = 0;
+        List<int[]> candidates = new ArrayList<>();
+        for (int p = 0; p < numComponents; ++p) {
+            int node = order[p];
+            candidates.clear();
+            candidates.add(new int[]{low[node], p});
+            for (int child : componentChildren[node]) {
+                int[] childIntervals = nodeIntervals.get(post[child]);
+                for (int i = 0; i < childIntervals.length; i += 2) {
+                    candidates.add(new int[]{childIntervals[i], childIntervals[i + 1]});
+                }
+            }
+            int[] merged = merge(candidates);
+            nodeIntervals.add(merged);
+            totalIntervals += merged.length;
+        }
+        _intervalStart = new int[numComponents + 1];
+        _intervals = new int[totalIntervals];
+        for (int p = 0, offset = 0; p < numComponents; ++p) {
+            int[] merged = nodeIntervals.get(p);
+            _intervalStart[p] = offset;
+            System.arraycopy(merged, 0, _intervals, offset, merged.length);
+            offset += merged.length;
+            _intervalStart[p + 1] = offset;
+        }
+
+        // children of the numbered nodes
+        _cyclic = new boolean[numComponents];
+        _childStart = new int[numComponents + 1];
+        for (int p = 0; p < numComponents; ++p) {
+            _childStart[p + 1] = _childStart[p] + componentChildren[order[p]].length;
+            _cyclic[p] = cyclicComponents[order[p]];
+        }
+        _childNodes = new int[_childStart[numComponents]];
+        for (int p = 0; p < numComponents; ++p) {
+            int[] nodeChildren = componentChildren[order[p]];
+            for (int i = 0; i < nodeChildren.length; ++i) {
+                _childNodes[_childStart[p] + i] = post[nodeChildren[i]];
+            }
+        }
+
+        // concepts grouped by the numbers of their nodes
+        _nodeStart = new int[numComponents + 1];
+        for (int i = 0; i < n; ++i) {
+            _nodeStart[post[component[i]] + 1]++;
+        }
+        for (int p = 0; p < numComponents; ++p) {
+            _nodeStart[p + 1] += _nodeStart[p];
+        }
+        _concepts = new String[n];
+        _conceptIds = conceptIds;
+        _conceptNodes = new int[n];
+        int[] fill = Arrays.copyOf(_nodeStart, numComponents);
+        for (int i = 0; i < n; ++i) {
+            int p = post[component[i]];
+            _concepts[fill[p]++] = conceptIds.get(i);
+            _conceptNodes[i] = p;
+        }
+    }
+
+    /**
+     * @return for every node, the list of its neighbours
+     */
+    private static int[][] toAdjacency(int n, int[] edges, int from, int to) {
+        int[] degree = new int[n];
+        for (int i = 0; i < edges.length; i += 2) {
+            degree[edges[i + from]]++;
+        }
+        int[][] result = new int[n][];
+        for (int i = 0; i < n; ++i) {
+            result[i] = new int[degree[i]];
+            degree[i] = 0;
+        }
+        for (int i = 0; i < edges.length; i += 2) {
+            int node = edges[i + from];
+            result[node][degree[node]++] = edges[i + to];
+        }
+        return result;
+    }
+
+    /**
+     * Iterative Tarjan algorithm
+     *
+     * @return the component of every node
+     */
+    private static int[] stronglyConnectedComponents(int n, int[][] successors) {
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        int[] component = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int[] sccStack = new int[n];
+        int sccTop = 0;
+        int[] callStack = new int[n];
+        int[] next = new int[n];
+        int counter = 0;
+        int numComponents = 0;
+        for (int start = 0; start < n; ++start) {
+            if (index[start] != -1) {
+                continue;
+            }
+            int top = 0;
+            callStack[top++] = start;
+            index[start] = lowLink[start] = counter++;
+            sccStack[sccTop++] = start;
+            onStack[start] = true;
+            while (top > 0) {
+                int node = callStack[top - 1];
+                if (next[node] < successors[node].length) {
+                    int succ = successors[node][next[node]++];
+                    if (index[succ] == -1) {
+                        index[succ] = lowLink[succ] = counter++;
+                        sccStack[sccTop++] = succ;
+                        onStack[succ] = true;
+                        callStack[top++] = succ;
+                    } else if (onStack[succ]) {
+                        lowLink[node] = Math.min(lowLink[node], index[succ]);
+                    }
+                } else {
+                    top--;
+                    if (top > 0) {
+                        int parent = callStack[top - 1];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                    }
+                    if (lowLink[node] == index[node]) {
+                        int member;
+                        do {
+                            member = sccStack[--sccTop];
+                            onStack[member] = false;
+                            component[member] = numComponents;
+                        } while (member != node);
+                        numComponents++;
+                    }
+                }
+            }
+        }
+        return component;
+    }
+
+    /**
+     * Merges overlapping and adjacent intervals
+     */
+    private static int[] merge(List<int[]> intervals) {
+        Collections.sort(intervals, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a[0], b[0]);
+            }
+        });
+        int[] result = new int[2 * intervals.size()];
+        int size = 0;
+        for (int[] interval : intervals) {
+            if (size > 0 && interval[0] <= result[size - 1] + 1) {
+                result[size - 1] = Math.max(result[size - 1], interval[1]);
+            } else {
+                result[size++] = interval[0];
+                result[size++] = interval[1];
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return the node of the concept or -1 if it is not in the hierarchy. The
+     * concepts lying on a cycle share one node.
+     */
+    int getNode(String concept) {
+        int id = _conceptIds.getId(concept);
+        return id == -1 ? -1 : _conceptNodes[id];
+    }
+
+    /**
+     * @return the number of nodes of the acyclic graph. The children of a node
+     * have smaller numbers than the node.
+     */
+    int getNodeCount() {
+        return _childStart.length - 1;
+    }
+
+    /**
+     * @return the nodes directly below the given node, possibly repeated
+     */
+    int[] getChildNodes(int node) {
+        return Arrays.copyOfRange(_childNodes, _childStart[node], _childStart[node + 1]);
+    }
+
+    /**
+     * @return the number of concepts of the hierarchy
+     */
+    public int size() {
+        return _concepts.length;
+    }
+
+    /**
+     * Tests if descendant is equal to ancestor or lies below it
+     */
+    public boolean isDescendant(String descendant, String ancestor) {
+        if (descendant.equals(ancestor)) {
+            return true;
+        }
+        int d = getNode(descendant);
+        int a = getNode(ancestor);
+        if (d == -1 || a == -1) {
+            return false;
+        }
+        // binary search among the sorted disjoint intervals of the ancestor
+        int first = _intervalStart[a] / 2;
+        int last = _intervalStart[a + 1] / 2 - 1;
+        while (first <= last) {
+            int mid = (first + last) >>> 1;
+            if (_intervals[2 * mid] > d) {
+                last = mid - 1;
+            } else if (_intervals[2 * mid + 1] < d) {
+                first = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests if the concept lies strictly below itself, that is on a cycle of
+     * the hierarchy (or has an edge to itself)
+     */
+    public boolean isOnCycle(String concept) {
+        int node = getNode(concept);
+        return node != -1 && _cyclic[node];
+    }
+
+    /**
+     * @return URIs of the concept and all the concepts below it
+     */
+    public List<String> getDescendants(String concept) {
+        int node = getNode(concept);
+        if (node == -1) {
+            return Collections.singletonList(concept);
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = _intervalStart[node]; i < _intervalStart[node + 1]; i += 2) {
+            for (int c = _nodeStart[_intervals[i]]; c < _nodeStart[_intervals[i + 1] + 1]; ++c) {
+                result.add(_concepts[c]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return resources of the concept and all the concepts below it
+     */
+    public List<Resource> getDescendantResources(String concept) {
+        List<String> descendants = getDescendants(concept);
+        List<Resource> result = new ArrayList<>(descendants.size());
+        for (String uri : descendants) {
+            result.add(ResourceFactory.createResource(uri));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.util.Set;
+
+/**
+ * The annotations of a single figure, calculated from its caption before
+ * anything is written into the model. Instances are created by
+ * InspireDatabase.annotateFigure and written by InspireDatabase.addFigure.
+ *
+ * @author piotr
+ */
+public class FigureAnnotation {
+
+    public final String figureURI;
+    public final String publicationURI;
+    public final String caption; // the cleaned caption
+    public final Set<Resource> concepts; // concepts of the HEP ontology
+    public final Set<Resource> units; // units of measurement
+
+    public FigureAnnotation(String figureURI, String publicationURI, String caption, Set<Resource> concepts, Set<Resource> units) {
+        this.figureURI = figureURI;
+        this.publicationURI = publicationURI;
+        this.caption = caption;
+        this.concepts = concepts;
+        this.units = units;
+    }
+}
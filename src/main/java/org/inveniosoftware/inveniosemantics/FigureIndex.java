@@ -0,0 +1,355 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.vocabulary.DC;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.util.*;
+
+/**
+ * Inverted index of the annotated resources (figures) of a model: for every
+ * concept (object of dc:subject) and every type (object of rdf:type) it keeps
+ * the sorted array of identifiers of the resources having it.
+ *
+ * The index is built from the statements present in the model and then kept
+ * up to date by listening to the added and removed statements. It is guarded by
+ * the lock of the model: the searches must be done while holding the read lock.
+ *
+ * Identifiers are assigned in the order in which the resources appear, so a
+ * newly created figure is appended at the end of the postings.
+ *
+ * The index is not persisted. It is kept on the heap, about 120 bytes per
+ * figure annotated with three concepts, and is built again by scanning all
+ * the dc:subject and rdf:type statements of the model at every start, also
+ * when the model is kept in the TDB store. With that store the index
+ * additionally holds the resource and the URI of every figure, so the number
+ * of figures remains limited by the heap (-Xmx) even though the model is not.
+ *
+ * @author piotr
+ */
+public class FigureIndex extends StatementListener {
+
+    /**
+     * Sorted set of identifiers
+     */
+    private static class Postings {
+
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                int position = Arrays.binarySearch(ids, 0, size, id);
+                if (position >= 0) {
+                    return;
+                }
+                insert(-position - 1, id);
+            } else {
+                insert(size, id);
+            }
+        }
+
+        private void insert(int position, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+                size--;
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+    private static final int[] EMPTY = new int[0];
+    private final HashMap<Resource, Integer> _ids = new HashMap<>();
+    private final List<Resource> _resources = new ArrayList<>(); // identifier -> resource
+    private final HashMap<Resource, Postings> _concepts = new HashMap<>();
+    private final HashMap<Resource, Postings> _types = new HashMap<>();
+
+    /**
+     * Indexes the model and registers the index as its listener
+     */
+    public FigureIndex(Model model) {
+        StmtIterator iter = model.listStatements(null, DC.subject, (RDFNode) null);
+        while (iter.hasNext()) {
+            addedStatement(iter.nextStatement());
+        }
+        iter = model.listStatements(null, RDF.type, (RDFNode) null);
+        while (iter.hasNext()) {
+            addedStatement(iter.nextStatement());
+        }
+        model.register(this);
+    }
+
+    private HashMap<Resource, Postings> getPostings(Property predicate) {
+        if (predicate.equals(DC.subject)) {
+            return _concepts;
+        }
+        if (predicate.equals(RDF.type)) {
+            return _types;
+        }
+        return null;
+    }
+
+    @Override
+    public void addedStatement(Statement s) {
+        HashMap<Resource, Postings> postings = getPostings(s.getPredicate());
+        if (postings == null || !s.getObject().isResource()) {
+            return;
+        }
+        Integer id = _ids.get(s.getSubject());
+        if (id == null) {
+            id = _resources.size();
+            _ids.put(s.getSubject(), id);
+            _resources.add(s.getSubject());
+        }
+        Postings ids = postings.get(s.getResource());
+        if (ids == null) {
+            ids = new Postings();
+            postings.put(s.getResource(), ids);
+        }
+        ids.add(id);
+    }
+
+    @Override
+    public void removedStatement(Statement s) {
+        HashMap<Resource, Postings> postings = getPostings(s.getPredicate());
+        if (postings == null || !s.getObject().isResource()) {
+            return;
+        }
+        Integer id = _ids.get(s.getSubject());
+        Postings ids = postings.get(s.getResource());
+        if (id != null && ids != null) {
+            ids.remove(id);
+            if (ids.size == 0) {
+                postings.remove(s.getResource());
+            }
+        }
+    }
+
+    /**
+     * @return the sorted identifiers of the resources annotated with the
+     * concept
+     */
+    public int[] getConceptIds(String concept) {
+        Postings ids = _concepts.get(toResource(concept));
+        return ids == null ? EMPTY : ids.toArray();
+    }
+
+    /**
+     * @return the sorted identifiers of the resources of the given type
+     */
+    public int[] getTypeIds(String type) {
+        Postings ids = _types.get(toResource(type));
+        return ids == null ? EMPTY : ids.toArray();
+    }
+
+    private static Resource toResource(String uri) {
+        return ResourceFactory.createResource(uri);
+    }
+
+    /**
+     * @return the number of indexed resources, whose identifiers are the
+     * numbers from 0 to size() - 1
+     */
+    public int size() {
+        return _resources.size();
+    }
+
+    /**
+     * @return the identifier of the resource or -1 if it is not indexed
+     */
+    public int getId(Resource resource) {
+        Integer id = _ids.get(resource);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the resource with the given identifier
+     */
+    public Resource getResource(int id) {
+        return _resources.get(id);
+    }
+
+    /**
+     * @return the resources with the given identifiers
+     */
+    public List<Resource> getResources(int[] ids) {
+        List<Resource> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(_resources.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * @return all the concepts annotating at least one resource
+     */
+    public Set<Resource> getConcepts() {
+        return new HashSet<>(_concepts.keySet());
+    }
+
+    /**
+     * Finds the resources annotated with all the concepts of allOf, at least
+     * one of anyOf and none of noneOf, having the given type
+     *
+     * @param allOf required concepts, ignored if null or empty
+     * @param anyOf alternative concepts, ignored if null or empty
+     * @param noneOf excluded concepts, ignored if null
+     * @param type URI of the required rdf:type or null
+     * @return sorted identifiers of the matching resources
+     */
+    public int[] search(Collection<String> allOf, Collection<String> anyOf, Collection<String> noneOf, String type) {
+        List<int[]> required = new ArrayList<>();
+        if (allOf != null) {
+            for (String concept : allOf) {
+                required.add(getConceptIds(concept));
+            }
+        }
+        if (anyOf != null && !anyOf.isEmpty()) {
+            int[] union = EMPTY;
+            for (String concept : anyOf) {
+                union = or(union, getConceptIds(concept));
+            }
+            required.add(union);
+        }
+        if (type != null) {
+            required.add(getTypeIds(type));
+        }
+        if (required.isEmpty()) {
+            throw new IllegalArgumentException("At least one concept or the type has to be given");
+        }
+        // the smallest sets first, so that the intermediate results stay small
+        Collections.sort(required, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a.length, b.length);
+            }
+        });
+        int[] result = required.get(0);
+        for (int i = 1; i < required.size() && result.length > 0; ++i) {
+            result = and(result, required.get(i));
+        }
+        if (noneOf != null) {
+            for (String concept : noneOf) {
+                result = andNot(result, getConceptIds(concept));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Intersection of two sorted sets. If one of them is much smaller, its
+     * elements are searched in the other one by galloping.
+     */
+    public static int[] and(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] tmp = a;
+            a = b;
+            b = tmp;
+        }
+        int[] result = new int[a.length];
+        int size = 0;
+        if (a.length * 32 < b.length) {
+            int from = 0;
+            for (int id : a) {
+                from = gallop(b, from, id);
+                if (from == b.length) {
+                    break;
+                }
+                if (b[from] == id) {
+                    result[size++] = id;
+                }
+            }
+        } else {
+            int i = 0, j = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[size++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return the first position at or after from holding a value not smaller
+     * than id
+     */
+    private static int gallop(int[] a, int from, int id) {
+        int step = 1;
+        int hi = from;
+        while (hi < a.length && a[hi] < id) {
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        int position = Arrays.binarySearch(a, from, Math.min(hi + 1, a.length), id);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**
+     * Union of two sorted sets
+     */
+    public static int[] or(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[size++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[size++] = b[j++];
+            } else {
+                result[size++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[size++] = a[i++];
+        }
+        while (j < b.length) {
+            result[size++] = b[j++];
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Difference of two sorted sets
+     */
+    public static int[] andNot(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length) {
+            while (j < b.length && b[j] < a[i]) {
+                j++;
+            }
+            if (j == b.length || b[j] != a[i]) {
+                result[size++] = a[i];
+            }
+            i++;
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
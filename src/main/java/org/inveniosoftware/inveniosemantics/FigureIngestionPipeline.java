@@ -0,0 +1,409 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.shared.Lock;
+import invenio.pdf.features.FigureCandidate;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads files with extracted figures using three stages connected by bounded
+ * queues:
+ *
+ * 1) a pool of parser workers reading the XML files,
+ *
+ * 2) a pool of annotation workers detecting the HEP concepts and units in the
+ * captions,
+ *
+ * 3) a single writer adding the annotated figures to the model in batches.
+ *
+ * Only the writer modifies the model. It holds the write lock of the database
+ * for a whole batch, so the searches running at the same time see complete
+ * documents.
+ *
+ * With an upload manifest, the parsers skip the files recorded as unchanged
+ * and the writer records every written file. Every checkpointInterval
+ * documents, the writer makes the statements durable and only then writes the
+ * recorded files to the manifest, so an interrupted upload can be resumed
+ * from the last checkpoint.
+ *
+ * @author piotr
+ */
+public class FigureIngestionPipeline {
+
+    /**
+     * Reads the figures of a file
+     */
+    interface FigureReader {
+
+        /**
+         * @return pairs of the identifiers and the captions of the figures,
+         * null if the file could not be read
+         */
+        List<String[]> read(File file);
+    }
+
+    /**
+     * Reads the XML files written by the figure extractor
+     */
+    private static final FigureReader XML_READER = new FigureReader() {
+        @Override
+        public List<String[]> read(File file) {
+            List<FigureCandidate> figures = UploadExtractedFigures.readFigures(file);
+            if (figures == null) {
+                return null;
+            }
+            List<String[]> result = new ArrayList<>(figures.size());
+            for (FigureCandidate figure : figures) {
+                result.add(new String[]{figure.getId(), figure.getCaption().text});
+            }
+            return result;
+        }
+    };
+
+    /**
+     * Figures read from a single file
+     */
+    private static class ParsedDocument {
+
+        final File file;
+        final UploadManifest.Entry entry; // null without a manifest
+        final List<String[]> figures; // identifiers and captions
+
+        ParsedDocument(File file, UploadManifest.Entry entry, List<String[]> figures) {
+            this.file = file;
+            this.entry = entry;
+            this.figures = figures;
+        }
+    }
+
+    /**
+     * Annotations of all the figures of a single file
+     */
+    private static class AnnotatedDocument {
+
+        final String publicationURI;
+        final UploadManifest.Entry entry;
+        final List<FigureAnnotation> figures;
+
+        AnnotatedDocument(String publicationURI, UploadManifest.Entry entry, List<FigureAnnotation> figures) {
+            this.publicationURI = publicationURI;
+            this.entry = entry;
+            this.figures = figures;
+        }
+    }
+    // markers of the end of the input, one is sent to every worker of the next stage
+    private static final File END_OF_FILES = new File("");
+    private static final ParsedDocument END_OF_PARSED = new ParsedDocument(null, null, null);
+    private static final AnnotatedDocument END_OF_ANNOTATED = new AnnotatedDocument(null, null, null);
+    private final InspireDatabase _db;
+    private final FigureReader _reader;
+    private final int _parserThreads;
+    private final int _annotatorThreads;
+    private final int _batchSize;
+    private final BlockingQueue<File> _files;
+    private final BlockingQueue<ParsedDocument> _parsed;
+    private final BlockingQueue<AnnotatedDocument> _annotated;
+    private final AtomicInteger _runningParsers;
+    private final AtomicInteger _runningAnnotators;
+    private final ExecutorService _executor;
+    private final UploadManifest _manifest;
+    private final int _checkpointInterval;
+    private static final AtomicLong SKIPPED_FILES = Metrics.counter("upload.skippedFiles");
+    private final AtomicInteger _skippedFiles = new AtomicInteger();
+    private int _uploadedFigures; // modified only by the writer
+    private int _uncheckpointedDocuments; // modified only by the writer
+    private Exception _checkpointFailure; // failure of the last checkpoint, null if it succeeded
+    private Throwable _writerFailure; // error which stopped the writer
+
+    /**
+     * Creates the pipeline and starts its workers
+     *
+     * @param db database into which the figures are uploaded
+     * @param parserThreads number of threads reading the XML files
+     * @param annotatorThreads number of threads annotating the captions
+     * @param queueCapacity maximal number of documents waiting between two
+     * stages
+     * @param batchSize maximal number of documents written at once
+     */
+    public FigureIngestionPipeline(InspireDatabase db, int parserThreads, int annotatorThreads, int queueCapacity, int batchSize) {
+        this(db, parserThreads, annotatorThreads, queueCapacity, batchSize, null, 0);
+    }
+
+    /**
+     * Creates the pipeline recording the uploaded files in a manifest and
+     * starts its workers
+     *
+     * @param manifest manifest of the uploaded files or null
+     * @param checkpointInterval number of documents written between two
+     * checkpoints, 0 to make a checkpoint only when finishing
+     */
+    public FigureIngestionPipeline(InspireDatabase db, int parserThreads, int annotatorThreads, int queueCapacity, int batchSize,
+            UploadManifest manifest, int checkpointInterval) {
+        this(db, parserThreads, annotatorThreads, queueCapacity, batchSize, manifest, checkpointInterval, XML_READER);
+    }
+
+    /**
+     * Creates the pipeline reading the files with the given reader
+     */
+    FigureIngestionPipeline(InspireDatabase db, int parserThreads, int annotatorThreads, int queueCapacity, int batchSize,
+            UploadManifest manifest, int checkpointInterval, FigureReader reader) {
+        _db = db;
+        _reader = reader;
+        _manifest = manifest;
+        _checkpointInterval = checkpointInterval;
+        _parserThreads = parserThreads;
+        _annotatorThreads = annotatorThreads;
+        _batchSize = batchSize;
+        _files = new ArrayBlockingQueue<>(queueCapacity);
+        _parsed = new ArrayBlockingQueue<>(queueCapacity);
+        _annotated = new ArrayBlockingQueue<>(queueCapacity);
+        _runningParsers = new AtomicInteger(parserThreads);
+        _runningAnnotators = new AtomicInteger(annotatorThreads);
+        _executor = Executors.newFixedThreadPool(parserThreads + annotatorThreads + 1);
+
+        for (int i = 0; i < parserThreads; ++i) {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    parse();
+                }
+            });
+        }
+        for (int i = 0; i < annotatorThreads; ++i) {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    annotate();
+                }
+            });
+        }
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    /**
+     * Creates a pipeline sized for the given number of threads
+     */
+    public static FigureIngestionPipeline create(InspireDatabase db, int threads) {
+        return create(db, threads, null, 0);
+    }
+
+    /**
+     * Creates a pipeline sized for the given number of threads, recording the
+     * uploaded files in the given manifest
+     */
+    public static FigureIngestionPipeline create(InspireDatabase db, int threads, UploadManifest manifest, int checkpointInterval) {
+        int parsers = Math.max(1, threads / 4);
+        int annotators = Math.max(1, threads - parsers);
+        return new FigureIngestionPipeline(db, parsers, annotators, 4 * threads, 64, manifest, checkpointInterval);
+    }
+
+    /**
+     * Adds a file to the processing queue. Blocks if the parsers are too much
+     * behind.
+     */
+    public void submit(File file) throws InterruptedException {
+        _files.put(file);
+    }
+
+    /**
+     * Waits until all the submitted files are uploaded and stops the workers.
+     * No file can be submitted afterwards. With a manifest, the remaining
+     * files are checkpointed.
+     *
+     * @return the number of uploaded figures
+     * @throws IOException if the writer failed or the last checkpoint could
+     * not be made
+     */
+    public int finish() throws InterruptedException, IOException {
+        for (int i = 0; i < _parserThreads; ++i) {
+            _files.put(END_OF_FILES);
+        }
+        _executor.shutdown();
+        while (!_executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        }
+        if (_writerFailure != null) {
+            throw new IOException("Writing the uploaded figures failed", _writerFailure);
+        }
+        if (_manifest != null && !checkpoint()) {
+            throw new IOException("Could not make the last checkpoint of the uploaded files", _checkpointFailure);
+        }
+        return _uploadedFigures;
+    }
+
+    /**
+     * @return the number of files skipped because the manifest records them
+     * as unchanged
+     */
+    public int getSkippedFiles() {
+        return _skippedFiles.get();
+    }
+
+    private void parse() {
+        try {
+            for (File file = _files.take(); file != END_OF_FILES; file = _files.take()) {
+                UploadManifest.Entry entry = null;
+                if (_manifest != null) {
+                    try {
+                        if (_manifest.isUnchanged(file)) {
+                            _skippedFiles.incrementAndGet();
+                            SKIPPED_FILES.incrementAndGet();
+                            continue;
+                        }
+                        entry = UploadManifest.hash(file);
+                    } catch (IOException ex) {
+                        System.err.println("Problem with accessing the file (I/O error) when processing " + file.getAbsolutePath());
+                        continue;
+                    }
+                }
+                List<String[]> figures = _reader.read(file);
+                if (figures != null) {
+                    _parsed.put(new ParsedDocument(file, entry, figures));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (_runningParsers.decrementAndGet() == 0) {
+                for (int i = 0; i < _annotatorThreads; ++i) {
+                    putUninterruptibly(_parsed, END_OF_PARSED);
+                }
+            }
+        }
+    }
+
+    private void annotate() {
+        try {
+            for (ParsedDocument doc = _parsed.take(); doc != END_OF_PARSED; doc = _parsed.take()) {
+                try {
+                    String pubURI = UploadExtractedFigures.getPublicationURI(doc.file);
+                    List<FigureAnnotation> annotations = new ArrayList<>(doc.figures.size());
+                    for (String[] figure : doc.figures) {
+                        annotations.add(_db.annotateCaption(pubURI, figure[0], figure[1]));
+                    }
+                    _annotated.put(new AnnotatedDocument(pubURI, doc.entry, annotations));
+                } catch (RuntimeException ex) {
+                    System.err.println("Unknown error when annotating " + doc.file.getAbsolutePath());
+                    Logger.getLogger(FigureIngestionPipeline.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (_runningAnnotators.decrementAndGet() == 0) {
+                putUninterruptibly(_annotated, END_OF_ANNOTATED);
+            }
+        }
+    }
+
+    private void write() {
+        List<AnnotatedDocument> batch = new ArrayList<>(_batchSize);
+        boolean finished = false;
+        try {
+            while (!finished) {
+                batch.add(_annotated.take());
+                _annotated.drainTo(batch, _batchSize - 1);
+                // the readers see the whole batch at once
+                _db.enterCriticalSection(Lock.WRITE);
+                try {
+                    for (AnnotatedDocument doc : batch) {
+                        if (doc == END_OF_ANNOTATED) {
+                            finished = true;
+                        } else {
+                            try {
+                                _uploadedFigures += _db.addFigures(doc.publicationURI, doc.figures).size();
+                                if (doc.entry != null) {
+                                    _manifest.add(doc.entry);
+                                    _uncheckpointedDocuments++;
+                                }
+                            } catch (RuntimeException ex) {
+                                System.err.println("Unknown error when writing the figures of " + doc.publicationURI);
+                                Logger.getLogger(FigureIngestionPipeline.class.getName()).log(Level.SEVERE, null, ex);
+                            }
+                        }
+                    }
+                } finally {
+                    _db.leaveCriticalSection();
+                }
+                batch.clear();
+                if (_checkpointInterval > 0 && _uncheckpointedDocuments >= _checkpointInterval) {
+                    checkpoint();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+            // also an Error, reported by finish, the annotators must not wait for the writer
+            _writerFailure = ex;
+            System.err.println("Unknown error when writing the figures, the remaining figures are dropped");
+            Logger.getLogger(FigureIngestionPipeline.class.getName()).log(Level.SEVERE, null, ex);
+            if (!finished && !batch.contains(END_OF_ANNOTATED)) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Takes the annotated documents until the end of the input
+     */
+    private void drain() {
+        try {
+            while (_annotated.take() != END_OF_ANNOTATED) {
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Makes the written statements durable, then the files from which they
+     * come. If it fails, the files stay pending and are written by the next
+     * checkpoint.
+     *
+     * @return true if the checkpoint has been made
+     */
+    private boolean checkpoint() {
+        try {
+            _db.checkpoint();
+            _manifest.checkpoint();
+            _uncheckpointedDocuments = 0;
+            _checkpointFailure = null;
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            _checkpointFailure = ex;
+            System.err.println("Could not make a checkpoint of the uploaded files");
+            Logger.getLogger(FigureIngestionPipeline.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
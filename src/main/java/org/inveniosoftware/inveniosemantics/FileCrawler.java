@@ -0,0 +1,148 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursively searches directories for the files to upload and passes every
+ * file to a handler as soon as it is found, so the processing can start
+ * before the whole tree is listed and the memory does not depend on the size
+ * of the directories.
+ *
+ * The files are selected by glob patterns (see FileSystem.getPathMatcher). A
+ * pattern containing a separator is matched against the path relative to the
+ * crawled directory (for example "2013/**"), other patterns against the name
+ * alone (for example "*.xml"). A file is handled if it matches one of the
+ * include patterns and none of the exclude patterns; the directories matching
+ * an exclude pattern are not entered. The symbolic links are not followed.
+ *
+ * @author piotr
+ */
+public class FileCrawler {
+
+    public static final String DEFAULT_INCLUDE = "*.{xml,XML}";
+    private final List<PathMatcher> _includeNames = new ArrayList<>();
+    private final List<PathMatcher> _includePaths = new ArrayList<>();
+    private final List<PathMatcher> _excludeNames = new ArrayList<>();
+    private final List<PathMatcher> _excludePaths = new ArrayList<>();
+
+    /**
+     * Receives the found files
+     */
+    public interface Handler {
+
+        void handle(File file) throws InterruptedException;
+    }
+
+    /**
+     * @param includes patterns of the handled files, DEFAULT_INCLUDE if empty
+     * @param excludes patterns of the skipped files and directories
+     */
+    public FileCrawler(List<String> includes, List<String> excludes) {
+        if (includes.isEmpty()) {
+            addMatcher(DEFAULT_INCLUDE, _includeNames, _includePaths);
+        }
+        for (String pattern : includes) {
+            addMatcher(pattern, _includeNames, _includePaths);
+        }
+        for (String pattern : excludes) {
+            addMatcher(pattern, _excludeNames, _excludePaths);
+        }
+    }
+
+    private static void addMatcher(String pattern, List<PathMatcher> names, List<PathMatcher> paths) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        if (pattern.indexOf('/') >= 0 || pattern.indexOf(File.separatorChar) >= 0) {
+            paths.add(matcher);
+        } else {
+            names.add(matcher);
+        }
+    }
+
+    private static boolean matches(Path relative, List<PathMatcher> names, List<PathMatcher> paths) {
+        Path name = relative.getFileName();
+        for (PathMatcher matcher : names) {
+            if (name != null && matcher.matches(name)) {
+                return true;
+            }
+        }
+        for (PathMatcher matcher : paths) {
+            if (matcher.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a file found under the crawled directory should be handled
+     *
+     * @param relative path relative to the crawled directory
+     */
+    public boolean accepts(Path relative) {
+        return matches(relative, _includeNames, _includePaths) && !matches(relative, _excludeNames, _excludePaths);
+    }
+
+    /**
+     * Passes the selected files under the given directory to the handler. A
+     * file given instead of a directory is always handled. The directories
+     * which cannot be read are reported and skipped.
+     *
+     * @return the number of handled files
+     */
+    public int crawl(File root, final Handler handler) throws IOException, InterruptedException {
+        if (!root.isDirectory()) {
+            handler.handle(root);
+            return 1;
+        }
+        final Path start = root.toPath();
+        final int[] handled = {0};
+        final InterruptedException[] interrupted = {null};
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(start) && matches(start.relativize(dir), _excludeNames, _excludePaths)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile() || !accepts(start.relativize(file))) {
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    handler.handle(file.toFile());
+                } catch (InterruptedException ex) {
+                    interrupted[0] = ex;
+                    return FileVisitResult.TERMINATE;
+                }
+                handled[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                System.err.println("Problem with accessing " + file + " (I/O error): " + ex.getMessage() + "   Check the permissions");
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+                if (ex != null) {
+                    System.err.println("Could not list the whole directory " + dir + ": " + ex.getMessage());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (interrupted[0] != null) {
+            throw interrupted[0];
+        }
+        return handled[0];
+    }
+}
@@ -0,0 +1,284 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.util.*;
+
+/**
+ * A matcher compiled once from the labels of the HEP ontology, which finds all
+ * the concepts mentioned in a sequence of words.
+ *
+ * The labels are matched in the same way as HEPOntologyAccessor
+ * .searchResourcesCached does it: a span of words matches a label if the set
+ * of words of the span is equal to the set of words of the label (after
+ * tokeniseLabel). This allows composite labels like "quark: mass" to match
+ * "mass quark" as well as "quark mass". The order-sensitive Aho-Corasick
+ * automaton can not express this, so every label is compiled into a hash of
+ * its word set (XOR of random keys of the words) and a span is extended word by
+ * word while updating the hash, without building any intermediate sets.
+ *
+ * From each position only the longest matching span is taken and spans which
+ * are completely contained in an already matched span are skipped, exactly as
+ * the window search used before.
+ *
+ * The words and the concepts are identified by their numbers in the
+ * HEPLabelIndex and the label sets are stored in flat arrays, so the matching
+ * runs on integers only. The concepts are turned into resources at the end of
+ * match.
+ *
+ * Instances are immutable after construction and can be shared between
+ * threads.
+ */
+public class HEPConceptMatcher {
+
+    private final HEPLabelIndex _index; // identifiers of the words and the concepts
+    private final long[] _wordKeys; // random key of every word, indexed by the word identifier
+    private int _maxLabelWords; // the largest number of distinct words in a label
+    // open addressing hash table: set hash -> index of the first label set with this hash
+    private final long[] _tableHashes;
+    private final int[] _tableEntries;
+    // label sets, chained when the hashes collide
+    private int _numSets;
+    private int[] _setOffsets; // label set -> position of its first word in _setWords
+    private int[] _setWords; // sorted word identifiers of the label sets, one set after another
+    private int[] _setNext; // next label set with the same hash or -1
+    private final HEPLabelIndex.Postings _setConcepts; // label set -> sorted concepts matched by it
+
+    /**
+     * Compiles the matcher from the mapping between labels and resources
+     *
+     * @param labelToResource mapping from (lower case) labels to the concepts
+     */
+    public HEPConceptMatcher(Map<String, List<Resource>> labelToResource) {
+        this(new HEPLabelIndex(labelToResource, Collections.<String, List<Resource>>emptyMap(),
+                Collections.<String[]>emptyList(), Collections.<String[]>emptyList()));
+    }
+
+    /**
+     * Compiles the matcher from the labels of the index
+     */
+    public HEPConceptMatcher(HEPLabelIndex index) {
+        _index = index;
+        int numLabels = index.numLabels();
+        int numWords = index.numWords();
+
+        // the words of every label, sorted because the words are visited in order
+        int[] labelOffsets = new int[numLabels + 1];
+        int[][] wordLabels = new int[numWords][];
+        for (int word = 0; word < numWords; ++word) {
+            wordLabels[word] = index.getWordLabels(word);
+            for (int label : wordLabels[word]) {
+                labelOffsets[label + 1]++;
+            }
+        }
+        for (int label = 0; label < numLabels; ++label) {
+            labelOffsets[label + 1] += labelOffsets[label];
+        }
+        int[] labelWords = new int[labelOffsets[numLabels]];
+        int[] fill = Arrays.copyOf(labelOffsets, numLabels);
+        for (int word = 0; word < numWords; ++word) {
+            for (int label : wordLabels[word]) {
+                labelWords[fill[label]++] = word;
+            }
+        }
+
+        _wordKeys = new long[numWords];
+        for (int i = 0; i < _wordKeys.length; ++i) {
+            _wordKeys[i] = mix(i + 1);
+        }
+        int capacity = 16;
+        while (capacity < numLabels * 2) {
+            capacity <<= 1;
+        }
+        _tableHashes = new long[capacity];
+        _tableEntries = new int[capacity];
+        Arrays.fill(_tableEntries, -1);
+        _setOffsets = new int[numLabels + 1];
+        _setWords = new int[labelWords.length];
+        _setNext = new int[numLabels];
+        List<int[]> setConcepts = new ArrayList<>();
+
+        for (int label = 0; label < numLabels; ++label) {
+            int from = labelOffsets[label];
+            int numLabelWords = labelOffsets[label + 1] - from;
+            if (numLabelWords == 0) {
+                continue;
+            }
+            int[] words = Arrays.copyOfRange(labelWords, from, from + numLabelWords);
+            long hash = 0;
+            for (int id : words) {
+                hash ^= _wordKeys[id];
+            }
+            // labels like "top quark" and "quark: top" share the same set
+            int setId = findSet(hash, words, numLabelWords);
+            if (setId == -1) {
+                setId = _numSets++;
+                System.arraycopy(words, 0, _setWords, _setOffsets[setId], numLabelWords);
+                _setOffsets[setId + 1] = _setOffsets[setId] + numLabelWords;
+                int slot = findSlot(hash);
+                _tableHashes[slot] = hash;
+                _setNext[setId] = _tableEntries[slot];
+                _tableEntries[slot] = setId;
+                setConcepts.add(new int[0]);
+            }
+            int[] concepts = index.getLabelConcepts(label);
+            Arrays.sort(concepts);
+            setConcepts.set(setId, FigureIndex.or(setConcepts.get(setId), concepts));
+            _maxLabelWords = Math.max(_maxLabelWords, numLabelWords);
+        }
+        _setOffsets = Arrays.copyOf(_setOffsets, _numSets + 1);
+        _setWords = Arrays.copyOf(_setWords, _setOffsets[_numSets]);
+        _setNext = Arrays.copyOf(_setNext, _numSets);
+        _setConcepts = HEPLabelIndex.Postings.of(setConcepts);
+    }
+
+    /**
+     * SplitMix64 finaliser, used to derive the random keys of the words
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the slot holding the given hash or the empty slot where it
+     * should be inserted
+     */
+    private int findSlot(long hash) {
+        int mask = _tableHashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (_tableEntries[slot] != -1 && _tableHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Finds the label set consisting of exactly the given words
+     *
+     * @return identifier of the label set or -1 if there is none
+     */
+    private int findSet(long hash, int[] words, int numWords) {
+        for (int setId = _tableEntries[findSlot(hash)]; setId != -1; setId = _setNext[setId]) {
+            int from = _setOffsets[setId];
+            int to = _setOffsets[setId + 1];
+            if (to - from != numWords) {
+                continue;
+            }
+            boolean equal = true;
+            for (int i = 0; i < numWords && equal; ++i) {
+                equal = Arrays.binarySearch(_setWords, from, to, words[i]) >= 0;
+            }
+            if (equal) {
+                return setId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the identifier of the word or -1 if it does not appear in any
+     * label
+     */
+    public int getWordId(String word) {
+        return _index.getWordId(word);
+    }
+
+    /**
+     * Finds all the concepts whose labels appear in the sequence of words
+     *
+     * @param words words of the text, as returned by
+     * InspireDatabase.tokeniseString
+     * @return the set of matched concepts
+     */
+    public Set<Resource> match(List<String> words) {
+        int[] ids = new int[words.size()];
+        int i = 0;
+        for (String word : words) {
+            ids[i++] = getWordId(word);
+        }
+        return match(ids);
+    }
+
+    /**
+     * Finds all the concepts whose labels appear in the words of a tokenised
+     * text, without creating strings for the words
+     */
+    public Set<Resource> match(Tokeniser tokens) {
+        int[] ids = new int[tokens.size()];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = _index.getWordId(tokens.getText(), tokens.start(i), tokens.end(i));
+        }
+        return match(ids);
+    }
+
+    /**
+     * Finds all the concepts whose labels appear in the sequence of word
+     * identifiers (as returned by getWordId)
+     */
+    public Set<Resource> match(int[] ids) {
+        int[] concepts = matchConcepts(ids);
+        HashSet<Resource> result = new HashSet<>(2 * concepts.length);
+        for (int concept : concepts) {
+            result.add(_index.getConceptResource(concept));
+        }
+        return result;
+    }
+
+    /**
+     * Finds all the concepts whose labels appear in the sequence of word
+     * identifiers
+     *
+     * @return sorted identifiers of the concepts in the HEPLabelIndex
+     */
+    public int[] matchConcepts(int[] ids) {
+        int[] result = new int[8];
+        int size = 0;
+        int[] distinct = new int[Math.max(_maxLabelWords, 1)];
+        int covered = 0; // end of the furthest span matched so far
+
+        for (int start = 0; start < ids.length; ++start) {
+            int numDistinct = 0;
+            long hash = 0;
+            int bestEnd = -1;
+            int bestSet = -1;
+            for (int end = start; end < ids.length && ids[end] >= 0; ++end) {
+                int id = ids[end];
+                boolean seen = false;
+                for (int j = 0; j < numDistinct && !seen; ++j) {
+                    seen = distinct[j] == id;
+                }
+                if (!seen) {
+                    if (numDistinct == _maxLabelWords) {
+                        break; // no label has so many different words
+                    }
+                    distinct[numDistinct++] = id;
+                    hash ^= _wordKeys[id];
+                }
+                int setId = findSet(hash, distinct, numDistinct);
+                if (setId != -1) {
+                    bestEnd = end + 1;
+                    bestSet = setId;
+                }
+            }
+            if (bestSet != -1 && bestEnd > covered) {
+                for (int i = _setConcepts.offsets[bestSet]; i < _setConcepts.offsets[bestSet + 1]; ++i) {
+                    if (size == result.length) {
+                        result = Arrays.copyOf(result, 2 * size);
+                    }
+                    result[size++] = _setConcepts.ids[i];
+                }
+                covered = bestEnd;
+            }
+        }
+        // sorted and without duplicates
+        Arrays.sort(result, 0, size);
+        int distinctSize = 0;
+        for (int i = 0; i < size; ++i) {
+            if (distinctSize == 0 || result[distinctSize - 1] != result[i]) {
+                result[distinctSize++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, distinctSize);
+    }
+}
@@ -0,0 +1,536 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import invenio.common.PrefixTree;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Labels index of the HEP ontology, with all the strings encoded as dense
+ * integer identifiers, and the binary file caching it, so that the ontology
+ * does not have to be parsed at every start.
+ *
+ * The file is written next to the ontology and contains the hash of the
+ * ontology file it was computed from. It holds the interned labels, the
+ * word -> label postings (used by HEPOntologyAccessor.searchResourcesCached
+ * and the concept matcher) and the label -> concept URI postings, the labels
+ * of all the concepts including the nostandalone ones (used to build
+ * HEPOntologyAccessor.labelLookup) and the (child, parent) edges of the
+ * skos:broader and skos:narrower hierarchies. All the integers are big-endian,
+ * the strings are stored as their length followed by UTF-8 bytes.
+ *
+ * In memory, the postings of every table are stored in one array (see
+ * Postings) and the words and concepts in IdDictionary instances, so the size
+ * of the index does not depend on the number of objects per label.
+ *
+ * @author piotr
+ */
+public class HEPLabelIndex {
+
+    /**
+     * Rows of identifiers stored one after another in a single array
+     */
+    static final class Postings {
+
+        final int[] offsets; // row -> position of its first identifier, offsets[rows] is the total size
+        final int[] ids;
+
+        Postings(int[] offsets, int[] ids) {
+            this.offsets = offsets;
+            this.ids = ids;
+        }
+
+        static Postings of(List<int[]> rows) {
+            int[] offsets = new int[rows.size() + 1];
+            for (int row = 0; row < rows.size(); ++row) {
+                offsets[row + 1] = offsets[row] + rows.get(row).length;
+            }
+            int[] ids = new int[offsets[rows.size()]];
+            for (int row = 0; row < rows.size(); ++row) {
+                System.arraycopy(rows.get(row), 0, ids, offsets[row], rows.get(row).length);
+            }
+            return new Postings(offsets, ids);
+        }
+
+        int rows() {
+            return offsets.length - 1;
+        }
+
+        int size(int row) {
+            return offsets[row + 1] - offsets[row];
+        }
+
+        int[] get(int row) {
+            return Arrays.copyOfRange(ids, offsets[row], offsets[row + 1]);
+        }
+    }
+    public static final String EXTENSION = ".labels";
+    private static final int MAGIC = 0x48455049; // "HEPI"
+    private static final int VERSION = 3;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int[] EMPTY = new int[0];
+    private String[] _labels;
+    private IdDictionary _words;
+    private IdDictionary _concepts;
+    private Postings _wordLabels; // word -> sorted labels containing it
+    private Postings _labelConcepts; // label -> concepts having it
+    private String[] _searchLabels; // labels of all the concepts
+    private Postings _searchLabelConcepts; // search label -> concepts having it
+    private int[] _broader; // pairs (child, parent) of concepts related by skos:broader
+    private int[] _narrower; // pairs (child, parent) of concepts related by skos:narrower
+    private int[] _labelNumWords; // label -> number of its distinct words, not stored
+
+    private HEPLabelIndex() {
+    }
+
+    /**
+     * Creates the index from the data structures calculated from the ontology
+     *
+     * @param labelToResource mapping from labels to the concepts
+     * @param searchLabels mapping from the labels of all the concepts
+     * (including the nostandalone ones) to the concepts
+     * @param broader pairs of URIs (child, parent) of the skos:broader
+     * hierarchy
+     * @param narrower pairs of URIs (child, parent) of the skos:narrower
+     * hierarchy
+     */
+    public HEPLabelIndex(Map<String, List<Resource>> labelToResource, Map<String, List<Resource>> searchLabels,
+            List<String[]> broader, List<String[]> narrower) {
+        _words = new IdDictionary();
+        _concepts = new IdDictionary();
+        List<int[]> wordLabels = new ArrayList<>();
+        int[] wordLabelsSize = new int[16];
+
+        _labels = labelToResource.keySet().toArray(new String[labelToResource.size()]);
+        Arrays.sort(_labels);
+        List<int[]> labelConcepts = new ArrayList<>(_labels.length);
+        for (int label = 0; label < _labels.length; ++label) {
+            for (String word : HEPOntologyAccessor.tokeniseLabel(_labels[label])) {
+                int id = _words.add(word);
+                if (id == wordLabels.size()) {
+                    wordLabels.add(new int[2]);
+                    if (id == wordLabelsSize.length) {
+                        wordLabelsSize = Arrays.copyOf(wordLabelsSize, 2 * id);
+                    }
+                }
+                int[] postings = wordLabels.get(id);
+                if (wordLabelsSize[id] == postings.length) {
+                    postings = Arrays.copyOf(postings, 2 * postings.length);
+                    wordLabels.set(id, postings);
+                }
+                postings[wordLabelsSize[id]++] = label;
+            }
+            labelConcepts.add(internConcepts(labelToResource.get(_labels[label])));
+        }
+        for (int word = 0; word < wordLabels.size(); ++word) {
+            wordLabels.set(word, Arrays.copyOf(wordLabels.get(word), wordLabelsSize[word]));
+        }
+        _wordLabels = Postings.of(wordLabels);
+        _labelConcepts = Postings.of(labelConcepts);
+
+        _searchLabels = searchLabels.keySet().toArray(new String[searchLabels.size()]);
+        Arrays.sort(_searchLabels);
+        List<int[]> searchLabelConcepts = new ArrayList<>(_searchLabels.length);
+        for (String label : _searchLabels) {
+            searchLabelConcepts.add(internConcepts(searchLabels.get(label)));
+        }
+        _searchLabelConcepts = Postings.of(searchLabelConcepts);
+        _broader = internEdges(broader);
+        _narrower = internEdges(narrower);
+        countLabelWords();
+    }
+
+    private int[] internConcepts(List<Resource> resources) {
+        int[] result = new int[resources.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = _concepts.add(resources.get(i).getURI());
+        }
+        return result;
+    }
+
+    private int[] internEdges(List<String[]> edges) {
+        int[] result = new int[2 * edges.size()];
+        int i = 0;
+        for (String[] edge : edges) {
+            for (String uri : edge) {
+                result[i++] = _concepts.add(uri);
+            }
+        }
+        return result;
+    }
+
+    private void countLabelWords() {
+        _labelNumWords = new int[_labels.length];
+        for (int id : _wordLabels.ids) {
+            _labelNumWords[id]++;
+        }
+    }
+
+    /**
+     * @return the file in which the index of the given ontology is stored
+     */
+    public static File getIndexFile(File ontologyFile) {
+        return new File(ontologyFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * Calculates the SHA-1 hash of the content of a file
+     */
+    public static byte[] hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 is not supported", ex);
+        }
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+            byte[] buffer = new byte[65536];
+            while (in.read(buffer) != -1) {
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Loads the index through a memory mapping of the file.
+     *
+     * @param indexFile file written by the write method
+     * @param ontologyHash hash of the current ontology file
+     * @return the index or null if the file does not exist, was calculated
+     * for a different version of the ontology or is damaged
+     */
+    public static HEPLabelIndex load(File indexFile, byte[] ontologyHash) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(indexFile)) {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (readInt(buffer) != MAGIC || readInt(buffer) != VERSION) {
+                return null;
+            }
+            byte[] hash = new byte[readLength(buffer, 1)];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, ontologyHash)) {
+                return null;
+            }
+            HEPLabelIndex index = new HEPLabelIndex();
+            index._labels = readStrings(buffer);
+            index._words = new IdDictionary(readStrings(buffer));
+            index._concepts = new IdDictionary(readStrings(buffer));
+            index._wordLabels = readPostings(buffer, index._words.size(), index._labels.length);
+            index._labelConcepts = readPostings(buffer, index._labels.length, index._concepts.size());
+            index._searchLabels = readStrings(buffer);
+            index._searchLabelConcepts = readPostings(buffer, index._searchLabels.length, index._concepts.size());
+            index._broader = readEdges(buffer, index._concepts.size());
+            index._narrower = readEdges(buffer, index._concepts.size());
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            index.countLabelWords();
+            return index;
+        } catch (DamagedIndexException | IllegalArgumentException ex) {
+            // a truncated file or duplicate strings
+            System.err.println("The labels index " + indexFile.getPath() + " is damaged: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Thrown when the content of the file does not fit its lengths
+     */
+    private static class DamagedIndexException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        DamagedIndexException(String message) {
+            super(message);
+        }
+    }
+
+    private static int readInt(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            throw new DamagedIndexException("unexpected end of the file at " + buffer.position());
+        }
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads a length or a number of elements, checking that the elements fit
+     * into the rest of the file
+     *
+     * @param elementSize minimal number of bytes of an element
+     */
+    private static int readLength(ByteBuffer buffer, int elementSize) {
+        int length = readInt(buffer);
+        if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+            throw new DamagedIndexException("invalid length " + length + " at " + (buffer.position() - 4));
+        }
+        return length;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        // every string takes at least its length
+        String[] result = new String[readLength(buffer, 4)];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < result.length; ++i) {
+            int length = readLength(buffer, 1);
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+            buffer.get(bytes, 0, length);
+            result[i] = new String(bytes, 0, length, UTF8);
+        }
+        return result;
+    }
+
+    /**
+     * @param bound every identifier has to be lower
+     */
+    private static Postings readPostings(ByteBuffer buffer, int rows, int bound) {
+        if ((long) rows * 4 > buffer.remaining()) {
+            throw new DamagedIndexException(rows + " rows do not fit at " + buffer.position());
+        }
+        int[] offsets = new int[rows + 1];
+        int[] ids = new int[Math.max(16, rows)];
+        for (int row = 0; row < rows; ++row) {
+            int length = readLength(buffer, 4);
+            offsets[row + 1] = offsets[row] + length;
+            if (offsets[row + 1] > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(2 * ids.length, offsets[row + 1]));
+            }
+            buffer.asIntBuffer().get(ids, offsets[row], length);
+            buffer.position(buffer.position() + 4 * length);
+            for (int i = offsets[row]; i < offsets[row + 1]; ++i) {
+                if (ids[i] < 0 || ids[i] >= bound) {
+                    throw new DamagedIndexException("invalid identifier " + ids[i]);
+                }
+            }
+        }
+        return new Postings(offsets, Arrays.copyOf(ids, offsets[rows]));
+    }
+
+    /**
+     * @return the pairs of the identifiers of the concepts of an edge
+     */
+    private static int[] readEdges(ByteBuffer buffer, int numConcepts) {
+        int[] edges = readPostings(buffer, 1, numConcepts).ids;
+        if (edges.length % 2 != 0) {
+            throw new DamagedIndexException("odd number of identifiers of the edges");
+        }
+        return edges;
+    }
+
+    /**
+     * Writes the index to a file. The file is replaced atomically, so that a
+     * concurrently starting process never sees an incomplete index. Every
+     * process writes its own temporary file, the last one renamed wins.
+     *
+     * @param indexFile
+     * @param ontologyHash hash of the ontology file the index was calculated
+     * from
+     */
+    public void write(File indexFile, byte[] ontologyHash) throws IOException {
+        indexFile = indexFile.getAbsoluteFile();
+        File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        try {
+            writeTo(tmpFile, ontologyHash);
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    private void writeTo(File tmpFile, byte[] ontologyHash) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ontologyHash.length);
+            out.write(ontologyHash);
+            writeStrings(out, _labels);
+            writeStrings(out, _words.toArray());
+            writeStrings(out, _concepts.toArray());
+            writePostings(out, _wordLabels);
+            writePostings(out, _labelConcepts);
+            writeStrings(out, _searchLabels);
+            writePostings(out, _searchLabelConcepts);
+            writePostings(out, new Postings(new int[]{0, _broader.length}, _broader));
+            writePostings(out, new Postings(new int[]{0, _narrower.length}, _narrower));
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writePostings(DataOutputStream out, Postings postings) throws IOException {
+        for (int row = 0; row < postings.rows(); ++row) {
+            out.writeInt(postings.size(row));
+            for (int i = postings.offsets[row]; i < postings.offsets[row + 1]; ++i) {
+                out.writeInt(postings.ids[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the identifier of the word or -1 if it does not appear in any
+     * label
+     */
+    public int getWordId(String word) {
+        return _words.getId(word);
+    }
+
+    /**
+     * @return the identifier of the word start..end of the text or -1 if it
+     * does not appear in any label
+     */
+    public int getWordId(CharSequence text, int start, int end) {
+        return _words.getId(text, start, end);
+    }
+
+    /**
+     * @return the number of distinct words of all the labels
+     */
+    public int numWords() {
+        return _words.size();
+    }
+
+    /**
+     * @return the number of labels
+     */
+    public int numLabels() {
+        return _labels.length;
+    }
+
+    /**
+     * @return the label with the given identifier
+     */
+    public String getLabel(int label) {
+        return _labels[label];
+    }
+
+    /**
+     * @return the sorted identifiers of the labels containing the word
+     */
+    public int[] getWordLabels(int word) {
+        return _wordLabels.get(word);
+    }
+
+    /**
+     * @return the identifiers of the concepts having the label
+     */
+    public int[] getLabelConcepts(int label) {
+        return _labelConcepts.get(label);
+    }
+
+    /**
+     * @return the dictionary of the concept URIs
+     */
+    public IdDictionary getConcepts() {
+        return _concepts;
+    }
+
+    /**
+     * @return the resource of the concept with the given identifier
+     */
+    public Resource getConceptResource(int concept) {
+        return ResourceFactory.createResource(_concepts.get(concept));
+    }
+
+    /**
+     * Finds the labels consisting of exactly the given words, in any order
+     *
+     * @return sorted identifiers of the concepts having these labels
+     */
+    public int[] findConcepts(Set<String> words) {
+        if (words.isEmpty()) {
+            return EMPTY;
+        }
+        int[] labels = null;
+        for (String word : words) {
+            int id = _words.getId(word);
+            if (id == -1) {
+                return EMPTY;
+            }
+            int[] wordLabels = _wordLabels.get(id);
+            labels = labels == null ? wordLabels : FigureIndex.and(labels, wordLabels);
+        }
+        int[] result = EMPTY;
+        for (int label : labels) {
+            if (_labelNumWords[label] == words.size()) {
+                int[] concepts = _labelConcepts.get(label);
+                Arrays.sort(concepts);
+                result = FigureIndex.or(result, concepts);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the mapping word -> complete label, in the form used by the
+     * HEPOntologyAccessor before the labels were encoded
+     */
+    public PrefixTree<String> createTerms() {
+        PrefixTree<String> terms = new PrefixTree<>();
+        for (int word = 0; word < _words.size(); ++word) {
+            for (int i = _wordLabels.offsets[word]; i < _wordLabels.offsets[word + 1]; ++i) {
+                terms.addString(_words.get(word), _labels[_wordLabels.ids[i]]);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @return the mapping from labels to the concepts
+     */
+    public HashMap<String, List<Resource>> createLabelToResource() {
+        HashMap<String, List<Resource>> result = new HashMap<>();
+        for (int label = 0; label < _labels.length; ++label) {
+            List<Resource> concepts = new LinkedList<>();
+            for (int i = _labelConcepts.offsets[label]; i < _labelConcepts.offsets[label + 1]; ++i) {
+                concepts.add(getConceptResource(_labelConcepts.ids[i]));
+            }
+            result.put(_labels[label], concepts);
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the labels of all the concepts, used by the label
+     * searches
+     */
+    public HEPLabelLookup createLabelLookup() {
+        return new HEPLabelLookup(_searchLabels, _searchLabelConcepts, _concepts);
+    }
+
+    /**
+     * @return the matcher of the labels in texts
+     */
+    public HEPConceptMatcher createMatcher() {
+        return new HEPConceptMatcher(this);
+    }
+
+    /**
+     * @param narrower true for the skos:narrower hierarchy, false for the
+     * skos:broader one
+     * @return the closure of the hierarchy
+     */
+    public ConceptHierarchy createHierarchy(boolean narrower) {
+        return new ConceptHierarchy(_concepts, narrower ? _narrower : _broader);
+    }
+}
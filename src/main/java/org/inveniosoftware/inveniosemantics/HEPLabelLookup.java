@@ -0,0 +1,239 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import java.util.*;
+
+/**
+ * Index answering the label searches of HEPOntologyAccessor.searchResources
+ * without scanning all the labels of the ontology.
+ *
+ * A single label is looked up in a hash map of the case-folded labels. A
+ * sequence of words has to match a label in which the words are separated by
+ * any number of spaces and colons, which is the semantics of the regular
+ * expression ^w1( |:)*w2( |:)*...wn$. Such a label, stripped of spaces and
+ * colons, is equal to the concatenation of the stripped words, so the
+ * candidate labels are found in a second map keyed by the stripped labels and
+ * then verified against the words.
+ *
+ * Only literal words are supported, the words containing regular expression
+ * metacharacters have to be searched with SPARQL (see isLiteral).
+ *
+ * The labels and the concepts are encoded as integer identifiers, the
+ * concepts are turned into resources only for the results.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author piotr
+ */
+public class HEPLabelLookup {
+
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+    private IdDictionary _concepts;
+    private IdDictionary _labels; // folded labels
+    private HEPLabelIndex.Postings _labelConcepts; // folded label -> concepts sorted by URI
+    private IdDictionary _stripped; // labels without separators
+    private HEPLabelIndex.Postings _strippedLabels; // label without separators -> folded labels
+
+    /**
+     * Builds the index
+     *
+     * @param labelToResource mapping from all the labels of the ontology
+     * (including the nostandalone concepts) to their concepts
+     */
+    public HEPLabelLookup(Map<String, List<Resource>> labelToResource) {
+        IdDictionary concepts = new IdDictionary();
+        String[] labels = new String[labelToResource.size()];
+        List<int[]> labelConcepts = new ArrayList<>(labels.length);
+        for (Map.Entry<String, List<Resource>> entry : labelToResource.entrySet()) {
+            labels[labelConcepts.size()] = entry.getKey();
+            int[] ids = new int[entry.getValue().size()];
+            for (int i = 0; i < ids.length; ++i) {
+                ids[i] = concepts.add(entry.getValue().get(i).getURI());
+            }
+            labelConcepts.add(ids);
+        }
+        build(labels, HEPLabelIndex.Postings.of(labelConcepts), concepts);
+    }
+
+    /**
+     * Builds the index from the labels stored in the HEPLabelIndex
+     *
+     * @param labels labels of all the concepts
+     * @param labelConcepts label -> identifiers of its concepts
+     * @param concepts dictionary of the concept URIs
+     */
+    HEPLabelLookup(String[] labels, HEPLabelIndex.Postings labelConcepts, IdDictionary concepts) {
+        build(labels, labelConcepts, concepts);
+    }
+
+    private void build(String[] labels, HEPLabelIndex.Postings labelConcepts, IdDictionary concepts) {
+        _concepts = concepts;
+        // labels differing only in the case are merged
+        _labels = new IdDictionary();
+        List<int[]> folded = new ArrayList<>();
+        for (int label = 0; label < labels.length; ++label) {
+            int id = _labels.add(fold(labels[label]));
+            if (id == folded.size()) {
+                folded.add(new int[0]);
+            }
+            folded.set(id, FigureIndex.or(folded.get(id), sortIds(labelConcepts.get(label))));
+        }
+        for (int id = 0; id < folded.size(); ++id) {
+            folded.set(id, sortByURI(folded.get(id)));
+        }
+        _labelConcepts = HEPLabelIndex.Postings.of(folded);
+
+        _stripped = new IdDictionary();
+        List<int[]> strippedLabels = new ArrayList<>();
+        for (int label = 0; label < _labels.size(); ++label) {
+            int id = _stripped.add(strip(_labels.get(label)));
+            if (id == strippedLabels.size()) {
+                strippedLabels.add(new int[0]);
+            }
+            int[] candidates = strippedLabels.get(id);
+            candidates = Arrays.copyOf(candidates, candidates.length + 1);
+            candidates[candidates.length - 1] = label;
+            strippedLabels.set(id, candidates);
+        }
+        _strippedLabels = HEPLabelIndex.Postings.of(strippedLabels);
+    }
+
+    /**
+     * @return the distinct concept identifiers ordered by the URIs of the
+     * concepts
+     */
+    private int[] sortByURI(int[] ids) {
+        TreeMap<String, Integer> sorted = new TreeMap<>();
+        for (int id : ids) {
+            sorted.put(_concepts.get(id), id);
+        }
+        int[] result = new int[sorted.size()];
+        int i = 0;
+        for (int id : sorted.values()) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    /**
+     * @return the label in the form in which it is indexed
+     */
+    public static String fold(String label) {
+        return label.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the label without the separators (spaces and colons)
+     */
+    private static String strip(String label) {
+        StringBuilder result = new StringBuilder(label.length());
+        for (int i = 0; i < label.length(); ++i) {
+            char c = label.charAt(i);
+            if (!isSeparator(c)) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == ':';
+    }
+
+    /**
+     * @return true if the word matches only itself when used in a regular
+     * expression, so that it can be looked up in the index
+     */
+    public static boolean isLiteral(String word) {
+        for (int i = 0; i < word.length(); ++i) {
+            if (METACHARACTERS.indexOf(word.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the concepts having the label (ignoring the case), sorted by URI
+     */
+    public List<Resource> lookup(String label) {
+        List<Resource> result = new LinkedList<>();
+        int id = _labels.getId(fold(label));
+        if (id != -1) {
+            addConcepts(result, _labelConcepts.offsets[id], _labelConcepts.offsets[id + 1], _labelConcepts.ids);
+        }
+        return result;
+    }
+
+    private void addConcepts(List<Resource> result, int from, int to, int[] ids) {
+        for (int i = from; i < to; ++i) {
+            result.add(ResourceFactory.createResource(_concepts.get(ids[i])));
+        }
+    }
+
+    /**
+     * @return the concepts having a label consisting of the words separated by
+     * spaces and colons (ignoring the case), sorted by URI
+     */
+    public List<Resource> lookup(List<String> words) {
+        if (words.isEmpty()) {
+            return lookup("");
+        }
+        String[] folded = new String[words.size()];
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < folded.length; ++i) {
+            folded[i] = fold(words.get(i));
+            key.append(strip(folded[i]));
+        }
+        List<Resource> result = new LinkedList<>();
+        int id = _stripped.getId(key.toString());
+        if (id == -1) {
+            return result;
+        }
+        int[] concepts = null;
+        for (int i = _strippedLabels.offsets[id]; i < _strippedLabels.offsets[id + 1]; ++i) {
+            int label = _strippedLabels.ids[i];
+            if (matches(_labels.get(label), 0, folded, 0)) {
+                int[] labelConcepts = _labelConcepts.get(label);
+                concepts = concepts == null ? labelConcepts : sortByURI(FigureIndex.or(sortIds(concepts), sortIds(labelConcepts)));
+            }
+        }
+        if (concepts != null) {
+            addConcepts(result, 0, concepts.length, concepts);
+        }
+        return result;
+    }
+
+    private static int[] sortIds(int[] ids) {
+        int[] result = ids.clone();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Tests if the label, starting at the given position, consists of the
+     * words starting at the given one, separated by any number of separators.
+     * All the positions at which the next word may start are tried, because
+     * the words themselves can begin with a separator.
+     */
+    static boolean matches(String label, int position, String[] words, int word) {
+        String w = words[word];
+        if (!label.startsWith(w, position)) {
+            return false;
+        }
+        position += w.length();
+        if (word == words.length - 1) {
+            return position == label.length();
+        }
+        while (true) {
+            if (matches(label, position, words, word + 1)) {
+                return true;
+            }
+            if (position == label.length() || !isSeparator(label.charAt(position))) {
+                return false;
+            }
+            position++;
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package org.inveniosoftware.inveniosemantics;
 
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.QuerySolutionMap;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.rdf.model.InfModel;
 import com.hp.hpl.jena.rdf.model.Literal;
@@ -11,11 +10,11 @@ import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
 import com.hp.hpl.jena.rdf.model.SimpleSelector;
 import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.rdf.model.StmtIterator;
 import com.hp.hpl.jena.reasoner.ValidityReport;
-import com.hp.hpl.jena.util.FileManager;
 import invenio.common.Pair;
 import invenio.common.PrefixTree;
 import java.io.*;
@@ -27,35 +26,84 @@ import java.util.*;
 public class HEPOntologyAccessor {
 
     private String _inputFileName;
-    public Model _model;
+    private TripleStore _store;
+    private Model _model; // loaded only when needed, see getModel
+    private byte[] _ontologyHash; // hash of the ontology file, identifies the labels index
+    private HEPLabelIndex _labelIndex; // labels, words and concepts encoded as integers
+    private PrefixTree<String> _terms; // created by getTerms
+    private HashMap<String, List<Resource>> _labelToResource; // created by getLabelToResource
     private static final String NARROWER = "narrower";
+    private static final String SKOSURI = "http://www.w3.org/2004/02/skos/core#";
     private static final String PREFLABEL = "prefLabel";
     public static final String NSPREFIX = "hep";
     public static final String NSURI = "http://cern.ch/thesauri/HEPontology.rdf#";
+    // the query is upper or lower case independent, the prefLabel or altLabel has to match ?regex
+    private static final PreparedQuery LABEL_SEARCH = QueryRegistry.register("hepLabelSearch",
+            "SELECT DISTINCT ?subject "
+            + "WHERE { "
+            + "{ ?subject skos:prefLabel ?object . "
+            + "FILTER regex(str(?object), ?regex, 'i') }"
+            + "UNION "
+            + "{?subject skos:altLabel ?object . "
+            + "FILTER regex(str(?object), ?regex, 'i') }"
+            + "} ORDER BY ASC(?subject) ");
+    private static final PreparedQuery NOTES = QueryRegistry.register("hepNotes",
+            "SELECT DISTINCT ?subject ?note WHERE {  ?subject skos:note ?note}");
+    private static final PreparedQuery LABELS = QueryRegistry.register("hepLabels",
+            "SELECT DISTINCT ?subject ?label "
+            + "WHERE { {?subject skos:prefLabel ?label} UNION {?subject skos:altLabel ?label}} ");
+    private static final PreparedQuery COMPOSITES = QueryRegistry.register("hepComposites",
+            "SELECT ?notion1 ?notion2 "
+            + "WHERE { ?notion1 rdf:type skos:Concept. ?notion2 rdf:type skos:Concept. ?notion1 skos:composite ?notion2. } ");
 
     /**
      * Constructor that receives the path of the file containing the HEP
      * ontology
      */
     public HEPOntologyAccessor(String inputFileName) {
+        this(inputFileName, new InMemoryTripleStore());
+    }
+
+    /**
+     * Constructor that receives the path of the file containing the HEP
+     * ontology and the store in which its model is kept
+     */
+    public HEPOntologyAccessor(String inputFileName, TripleStore store) {
         _inputFileName = inputFileName;
-        uploadModel();
-        precalculateLabelsIndex();
+        _store = store;
+        long start = System.nanoTime();
+        HEPLabelIndex index = loadLabelsIndex();
+        if (index == null) {
+            index = precalculateLabelsIndex();
+            Metrics.timer("hep.buildLabelIndex").recordSince(start);
+            saveLabelsIndex(index);
+        } else {
+            Metrics.timer("hep.loadLabelIndex").recordSince(start);
+        }
+        _labelIndex = index;
+        this.labelLookup = index.createLabelLookup();
+        this.conceptMatcher = index.createMatcher();
+        this.broaderHierarchy = index.createHierarchy(false);
+        this.narrowerHierarchy = index.createHierarchy(true);
     }
 
     /**
-     * It uploads the model in memory. This is not efficient but it works for a
-     * test. For production, a TDB or a database storage should be used instead
+     * Returns the model of the ontology. The model is parsed at the first
+     * invocation, because the labels index can be loaded without it.
      */
-    private void uploadModel() {
-        InputStream in = FileManager.get().open(_inputFileName);
-        if (in == null) {
-            throw new IllegalArgumentException("File: " + _inputFileName + " not found");
+    public synchronized Model getModel() {
+        if (_model == null) {
+            uploadModel();
         }
-        _model = ModelFactory.createDefaultModel();
-        // read the RDF/XML file
-        _model.read(in, "");
+        return _model;
+    }
 
+    /**
+     * It uploads the model into the store. The in-memory store parses the file
+     * every time, a persistent store (TDBTripleStore) only when it has changed
+     */
+    private void uploadModel() {
+        _model = _store.loadModel("hep", _inputFileName);
     }
 
     /**
@@ -66,7 +114,7 @@ public class HEPOntologyAccessor {
      * to display all the statements
      */
     public void showStatements(int limit) {
-        StmtIterator iter = _model.listStatements();
+        StmtIterator iter = getModel().listStatements();
         int i = 0;
         while (iter.hasNext() && ((i < limit) || (limit == -1))) {
             Statement st = iter.next();
@@ -84,7 +132,7 @@ public class HEPOntologyAccessor {
      */
     public void showStatementsRefined(int limit) {
         // list the statements in the graph
-        StmtIterator iter = _model.listStatements();
+        StmtIterator iter = getModel().listStatements();
 
         // print out the predicate, subject and object of each statement
         int i = 0;
@@ -150,7 +198,7 @@ public class HEPOntologyAccessor {
      */
     public void extractTaxonomy(final String concept) {
         // list the statements in the graph
-        StmtIterator iter = _model.listStatements(
+        StmtIterator iter = getModel().listStatements(
                 new SimpleSelector(null, null, (RDFNode) null) {
             @Override
             public boolean selects(Statement s) {
@@ -193,11 +241,20 @@ public class HEPOntologyAccessor {
 
     /**
      * This method search all resources containing concept as preferred label or
-     * alternate label
+     * alternate label. The words are separated by any number of spaces and
+     * colons. Literal words are looked up in the labelLookup, the words
+     * containing regular expression metacharacters are matched by SPARQL.
      *
      * @param concept literal of the concept to be searched
      */
     public List<Resource> searchResources(List<String> concepts) {
+        boolean literal = true;
+        for (String concept : concepts) {
+            literal &= HEPLabelLookup.isLiteral(concept);
+        }
+        if (literal) {
+            return this.labelLookup.lookup(concepts);
+        }
         try {
             String separator = "( |:)*";
             String regex = "^" + joinString(separator, concepts) + "$";
@@ -205,24 +262,9 @@ public class HEPOntologyAccessor {
             // the query is upper or lower case independent
             // the prefLabel or altLabel should be the same as concept
             // the query could be modified according to user needs for more flexibility
-            String query =
-                    "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                    + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>"
-                    + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                    + "SELECT DISTINCT ?subject "
-                    + "WHERE { "
-                    + "{ ?subject skos:prefLabel ?object . "
-                    + "FILTER regex(str(?object),'" + regex + "','i') }"
-                    + "UNION "
-                    + "{?subject skos:altLabel ?object . "
-                    + "FILTER regex(str(?object),'" + regex + "','i') }"
-                    + "} ORDER BY ASC(?subject) ";
-
-
-            // System.out.println(query);
-
-            QueryExecution qexec = QueryExecutionFactory.create(query, _model);
-            ResultSet results = qexec.execSelect();
+            QuerySolutionMap bindings = new QuerySolutionMap();
+            bindings.add("regex", ResourceFactory.createPlainLiteral(regex));
+            ResultSet results = LABEL_SEARCH.execSelect(getModel(), bindings);
 
             //ResultSetFormatter.out(System.out, results);
             List<Resource> resources = new LinkedList<Resource>();
@@ -244,34 +286,23 @@ public class HEPOntologyAccessor {
 
     /**
      * This method search all resources containing concept as preferred label or
-     * alternate label
+     * alternate label. A literal concept is looked up in the labelLookup, a
+     * regular expression is matched by SPARQL.
      *
      * @param concept literal of the concept to be searched
      */
     public List<Resource> searchResources(String concept) {
+        if (HEPLabelLookup.isLiteral(concept)) {
+            return this.labelLookup.lookup(concept);
+        }
         try {
 
             // the query is upper or lower case independent
             // the prefLabel or altLabel should be the same as concept
             // the query could be modified according to user needs for more flexibility
-            String query =
-                    "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                    + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>"
-                    + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                    + "SELECT DISTINCT ?subject "
-                    + "WHERE { "
-                    + "{ ?subject skos:prefLabel ?object . "
-                    + "FILTER regex(str(?object),'" + "^" + concept + "$','i') }"
-                    + "UNION "
-                    + "{?subject skos:altLabel ?object . "
-                    + "FILTER regex(str(?object),'" + "^" + concept + "$','i') }"
-                    + "} ORDER BY ASC(?subject) ";
-
-
-            // System.out.println(query);
-
-            QueryExecution qexec = QueryExecutionFactory.create(query, _model);
-            ResultSet results = qexec.execSelect();
+            QuerySolutionMap bindings = new QuerySolutionMap();
+            bindings.add("regex", ResourceFactory.createPlainLiteral("^" + concept + "$"));
+            ResultSet results = LABEL_SEARCH.execSelect(getModel(), bindings);
 
             //ResultSetFormatter.out(System.out, results);
             List<Resource> resources = new LinkedList<Resource>();
@@ -305,20 +336,15 @@ public class HEPOntologyAccessor {
         return true;
     }
     /**
-     * This method precalculates data structures used to match
+     * Data structures used to match, calculated from the labels index
      */
-    public PrefixTree<String> terms; // the mapping term -> the complete label
-    public HashMap<String, List<Resource>> labelToResource; // the mapping from labels to resources
+    public HEPLabelLookup labelLookup; // the index of the labels of all the concepts used by searchResources
+    public HEPConceptMatcher conceptMatcher; // the compiled matcher of labels in texts
+    public ConceptHierarchy broaderHierarchy; // closure of skos:broader, the descendants are the narrower concepts
+    public ConceptHierarchy narrowerHierarchy; // closure of skos:narrower, the descendants are the narrower concepts
 
     public Set<Resource> getNostandaloneResources() {
-        String query =
-                "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "SELECT DISTINCT ?subject ?note "
-                + "WHERE {  ?subject skos:note ?note}";
-        QueryExecution qexec = QueryExecutionFactory.create(query, this._model);
-        ResultSet qResults = qexec.execSelect();
+        ResultSet qResults = NOTES.execSelect(getModel());
 
         //working with text
         HashSet<Resource> results = new HashSet<>();
@@ -338,19 +364,7 @@ public class HEPOntologyAccessor {
      */
     public HashMap<Resource, List<String>> getAllLabels() {
         HashMap<Resource, List<String>> results = new HashMap<>();
-        String query =
-                "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "SELECT DISTINCT ?subject ?label "
-                + "WHERE { {?subject skos:prefLabel ?label} UNION {?subject skos:altLabel ?label}} ";
-//                + "{ ?subject skos:prefLabel ?object}"
-//                + "UNION "
-//                + "{?subject skos:altLabel ?object}"
-//                + "}";
-
-        QueryExecution qexec = QueryExecutionFactory.create(query, _model);
-        ResultSet qResults = qexec.execSelect();
+        ResultSet qResults = LABELS.execSelect(getModel());
 
         //working with text
         while (qResults.hasNext()) {
@@ -365,75 +379,138 @@ public class HEPOntologyAccessor {
         return results;
     }
 
-    private void precalculateLabelsIndex() {
+    /**
+     * Returns the mapping term -> the complete labels containing it. The
+     * mapping is created from the labels index at the first call and shared
+     * by the callers, which must not modify it.
+     */
+    public synchronized PrefixTree<String> getTerms() {
+        if (_terms == null) {
+            _terms = _labelIndex.createTerms();
+        }
+        return _terms;
+    }
+
+    /**
+     * Returns the mapping from the labels of the standalone concepts to the
+     * concepts. The mapping is created from the labels index at the first
+     * call and shared by the callers, which must not modify it.
+     */
+    public synchronized HashMap<String, List<Resource>> getLabelToResource() {
+        if (_labelToResource == null) {
+            _labelToResource = _labelIndex.createLabelToResource();
+        }
+        return _labelToResource;
+    }
+
+    /**
+     * Calculates the labels index from the model of the ontology
+     */
+    private HEPLabelIndex precalculateLabelsIndex() {
         /// we retrieve all the notions from the ontology, tokenize them by removing non-alphanum characters from the ends and beginnings of strings and add all single words to the tree;
-        this.terms = new PrefixTree<>();
-        this.labelToResource = new HashMap<>();
+        HashMap<String, List<Resource>> labelToResource = new HashMap<>();
         // iterate all the terms in the HEPOntology
         HashMap<Resource, List<String>> resLabels = this.getAllLabels();
         Set<Resource> nostandalone = this.getNostandaloneResources();
+        HashMap<String, List<Resource>> searchLabels = new HashMap<>();
         for (Resource res : resLabels.keySet()) {
+            for (String label : resLabels.get(res)) {
+                if (!searchLabels.containsKey(label)) {
+                    searchLabels.put(label, new LinkedList<Resource>());
+                }
+                searchLabels.get(label).add(res);
+            }
             if (!nostandalone.contains(res)) {
                 for (String label : resLabels.get(res)) {
-                    if (!this.labelToResource.containsKey(label)) {
-                        this.labelToResource.put(label, new LinkedList<Resource>());
-                    }
-                    this.labelToResource.get(label).add(res);
-                    Set<String> words = tokeniseLabel(label);
-                    for (String w : words) {
-                        this.terms.addString(w, label);
+                    if (!labelToResource.containsKey(label)) {
+                        labelToResource.put(label, new LinkedList<Resource>());
                     }
+                    labelToResource.get(label).add(res);
                 }
             }
         }
-        System.out.println("finished");
+        return new HEPLabelIndex(labelToResource, searchLabels,
+                getHierarchyEdges("broader", false), getHierarchyEdges(NARROWER, true));
     }
 
     /**
-     * split label to become a set of words
+     * Returns the edges of a SKOS hierarchy
+     *
+     * @param property local name of the SKOS property
+     * @param inverse false if the subject of the property is the child, true
+     * if it is the parent
+     * @return pairs of URIs (child, parent)
      */
-    public static Set<String> tokeniseLabel(String label) {
-        HashSet<String> result = new HashSet<>();
-        String[] split = label.split("(\\s|:)+");
-        for (int i = 0; i < split.length; ++i) {
-            if (split[i] != null && !split[i].equals("")) {
-                result.add(split[i]);
+    private List<String[]> getHierarchyEdges(String property, boolean inverse) {
+        List<String[]> edges = new ArrayList<>();
+        StmtIterator iter = getModel().listStatements(null, getModel().createProperty(SKOSURI, property), (RDFNode) null);
+        while (iter.hasNext()) {
+            Statement st = iter.nextStatement();
+            if (st.getSubject().isURIResource() && st.getObject().isURIResource()) {
+                String subject = st.getSubject().getURI();
+                String object = st.getResource().getURI();
+                edges.add(inverse ? new String[]{object, subject} : new String[]{subject, object});
             }
         }
-        return result;
+        return edges;
     }
 
     /**
-     * Searches by a set of words
+     * Loads the labels index from the file written next to the ontology, if it
+     * was calculated from the current version of the ontology
+     *
+     * @return the loaded index or null
+     */
+    private HEPLabelIndex loadLabelsIndex() {
+        File ontologyFile = new File(_inputFileName);
+        if (!ontologyFile.isFile()) {
+            return null;
+        }
+        try {
+            _ontologyHash = HEPLabelIndex.hashFile(ontologyFile);
+            return HEPLabelIndex.load(HEPLabelIndex.getIndexFile(ontologyFile), _ontologyHash);
+        } catch (IOException | RuntimeException ex) {
+            // the index is calculated again and replaces the unreadable file
+            System.err.println("Could not read the labels index of " + _inputFileName + ": " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the labels index next to the ontology file, so that the next
+     * start does not need to parse the ontology
+     */
+    private void saveLabelsIndex(HEPLabelIndex index) {
+        if (_ontologyHash == null) {
+            return;
+        }
+        File indexFile = HEPLabelIndex.getIndexFile(new File(_inputFileName));
+        try {
+            index.write(indexFile, _ontologyHash);
+        } catch (IOException ex) {
+            System.err.println("Could not write the labels index " + indexFile.getPath() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * split label to become a set of words
+     */
+    public static Set<String> tokeniseLabel(String label) {
+        return new HashSet<>(new Tokeniser().tokenise(label, true).getTokens());
+    }
+
+    /**
+     * Searches by a set of words: finds the concepts having a label which
+     * consists of exactly these words
      *
      * @param words
      * @return
      */
     public Set<Resource> searchResourcesCached(Set<String> words) {
-        Set<String> successfulLabels = null;
-        for (String word : words) {
-            List<String> stringObjects = this.terms.getStringObjects(word);
-            Set<String> labels = new HashSet<>();
-            for (String label : stringObjects) {
-                labels.add(label);
-            }
-            if (successfulLabels == null) {
-                successfulLabels = labels;
-            } else {
-                successfulLabels.retainAll(labels);
-            }
-        }
-
-        // we have a list of matching labels ... now we have to check if the matching is complete
         HashSet<Resource> result = new HashSet<>();
-        for (String label : successfulLabels) {
-            Set<String> labelWords = HEPOntologyAccessor.tokeniseLabel(label);
-            if (labelWords.size() == words.size()) {
-                // we have an exact match
-                result.addAll(this.labelToResource.get(label));
-            }
+        for (int concept : _labelIndex.findConcepts(words)) {
+            result.add(_labelIndex.getConceptResource(concept));
         }
-
         return result;
     }
 
@@ -446,15 +523,7 @@ public class HEPOntologyAccessor {
     public Set<Pair<Resource, Resource>> getStandaloneDescendants() {
         HashSet<Pair<Resource, Resource>> resultSet = new HashSet<>();
 
-        String query = "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                + "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "PREFIX hep: <http://cern.ch/thesauri/HEPontology.rdf#> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "SELECT ?notion1 ?notion2 "
-                + "WHERE { ?notion1 rdf:type skos:Concept. ?notion2 rdf:type skos:Concept. ?notion1 skos:composite ?notion2. } ";
-
-        QueryExecution qexec = QueryExecutionFactory.create(query, _model);
-        ResultSet results = qexec.execSelect();
+        ResultSet results = COMPOSITES.execSelect(getModel());
 
         //working with text
         while (results.hasNext()) {
@@ -0,0 +1,164 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense integer identifiers (0, 1, 2...) to strings, so that the
+ * annotation structures can store arrays of identifiers instead of strings,
+ * resources and boxed integers.
+ *
+ * The strings are kept in an array indexed by the identifier and the reverse
+ * mapping is an open addressing hash table of identifiers, so no object is
+ * allocated per entry besides the string itself.
+ *
+ * Lookups can be done from many threads once the dictionary is not modified
+ * any more.
+ *
+ * @author piotr
+ */
+public class IdDictionary {
+
+    private String[] _strings; // identifier -> string
+    private int _size;
+    private int[] _table; // slot -> identifier + 1, 0 if the slot is empty
+
+    /**
+     * Creates an empty dictionary
+     */
+    public IdDictionary() {
+        _strings = new String[16];
+        _table = new int[32];
+    }
+
+    /**
+     * Creates a dictionary in which the identifier of every string is its
+     * position in the array
+     *
+     * @param strings distinct strings
+     */
+    public IdDictionary(String[] strings) {
+        int capacity = 32;
+        while (capacity < 2 * strings.length) {
+            capacity <<= 1;
+        }
+        _strings = Arrays.copyOf(strings, Math.max(16, strings.length));
+        _table = new int[capacity];
+        for (int id = 0; id < strings.length; ++id) {
+            int slot = findSlot(strings[id]);
+            if (_table[slot] != 0) {
+                throw new IllegalArgumentException("The string " + strings[id] + " appears twice");
+            }
+            _table[slot] = id + 1;
+            _size++;
+        }
+    }
+
+    private int firstSlot(int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & (_table.length - 1);
+    }
+
+    private int findSlot(String s) {
+        int mask = _table.length - 1;
+        int slot = firstSlot(s.hashCode());
+        while (_table[slot] != 0 && !_strings[_table[slot] - 1].equals(s)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean regionEquals(String s, CharSequence text, int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; ++i) {
+            if (s.charAt(i - start) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the identifier of the string or -1 if it is not in the
+     * dictionary
+     */
+    public int getId(String s) {
+        return _table[findSlot(s)] - 1;
+    }
+
+    /**
+     * Looks up a fragment of a text without creating a string
+     *
+     * @param text the text
+     * @param start offset of the first character of the fragment
+     * @param end offset following the last character of the fragment
+     * @return the identifier of the fragment or -1 if it is not in the
+     * dictionary
+     */
+    public int getId(CharSequence text, int start, int end) {
+        int hashCode = 0; // the same as String.hashCode
+        for (int i = start; i < end; ++i) {
+            hashCode = 31 * hashCode + text.charAt(i);
+        }
+        int mask = _table.length - 1;
+        for (int slot = firstSlot(hashCode); _table[slot] != 0; slot = (slot + 1) & mask) {
+            if (regionEquals(_strings[_table[slot] - 1], text, start, end)) {
+                return _table[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the string if it is not in the dictionary yet
+     *
+     * @return the identifier of the string
+     */
+    public int add(String s) {
+        int slot = findSlot(s);
+        if (_table[slot] != 0) {
+            return _table[slot] - 1;
+        }
+        if (_size == _strings.length) {
+            _strings = Arrays.copyOf(_strings, 2 * _size);
+        }
+        _strings[_size] = s;
+        _table[slot] = ++_size;
+        if (2 * _size > _table.length) {
+            rehash();
+        }
+        return _size - 1;
+    }
+
+    private void rehash() {
+        _table = new int[2 * _table.length];
+        for (int id = 0; id < _size; ++id) {
+            _table[findSlot(_strings[id])] = id + 1;
+        }
+    }
+
+    /**
+     * @return the string with the given identifier
+     */
+    public String get(int id) {
+        if (id >= _size) {
+            throw new IndexOutOfBoundsException("No string with the identifier " + id);
+        }
+        return _strings[id];
+    }
+
+    /**
+     * @return the number of strings
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return the strings ordered by their identifiers
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(_strings, _size);
+    }
+}
@@ -0,0 +1,65 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * Store keeping all the models in memory. The files are parsed at every start
+ * and the size of the models is limited by the heap.
+ *
+ * @author piotr
+ */
+public class InMemoryTripleStore implements TripleStore {
+
+    private final HashMap<String, Model> _models = new HashMap<>();
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @Override
+    public synchronized Model getModel(String name) {
+        Model model = _models.get(name);
+        if (model == null) {
+            model = ModelFactory.createDefaultModel();
+            _models.put(name, model);
+        }
+        return model;
+    }
+
+    @Override
+    public Model loadModel(String name, String... fileNames) {
+        // parsed outside the lock, so that several models can be loaded at the same time
+        Model model = ModelFactory.createDefaultModel();
+        for (String fileName : fileNames) {
+            readFile(model, fileName);
+        }
+        synchronized (this) {
+            _models.put(name, model);
+        }
+        return model;
+    }
+
+    /**
+     * Reads an RDF/XML file into the model
+     */
+    static void readFile(Model model, String fileName) {
+        InputStream in = FileManager.get().open(fileName);
+        if (in == null) {
+            throw new IllegalArgumentException("File: " + fileName + " not found");
+        }
+        model.read(in, "");
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
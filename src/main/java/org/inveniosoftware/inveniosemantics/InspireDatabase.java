@@ -1,20 +1,33 @@
 package org.inveniosoftware.inveniosemantics;
 
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.rdf.model.*;
 import com.hp.hpl.jena.shared.CannotEncodeCharacterException;
+import com.hp.hpl.jena.shared.Lock;
 import com.hp.hpl.jena.util.FileManager;
 import invenio.common.Pair;
 import invenio.pdf.features.FigureCandidate;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class with methods to annotate resources (publications, figures, data) and
  * search them
+ *
+ * The instances can be used from many threads: the search methods can run in
+ * parallel and see the model either before or after a modification, while the
+ * modifications are serialised with the lock of the model (see
+ * enterCriticalSection).
  */
 public class InspireDatabase {
 
@@ -22,9 +35,54 @@ public class InspireDatabase {
     private InvenioOntologyAccessor _invenio;
     private MUOOntologyAccessor _muo;
     private String _outputFileName;
+    private TripleStore _store;
     private Model _model;
-    private boolean _debug;
-    private Model _unionModel; // a complete model containing all the statements
+    private volatile boolean _debug;
+    private RoutedDataset _dataset; // the ontologies and the instances, with their union
+    private TripleLog _tripleLog; // log of the created statements, null if the whole model is written
+    private FigureIndex _figureIndex; // concepts and types of the annotated resources of _model
+    private ResultCache _cache; // results of the searches, invalidated by every modification of _model
+    private File[] _ontologyFiles; // files of the ontologies used for annotating
+    private volatile AnnotationCache _annotationCache; // annotations of the captions from the previous runs, null if disabled
+    private final AtomicInteger _figCount = new AtomicInteger();
+    private static final Metrics.Timer HEP_ANNOTATION = Metrics.timer("annotation.hep");
+    private static final Metrics.Timer UNIT_ANNOTATION = Metrics.timer("annotation.units");
+    private static final Metrics.Timer INSERTION = Metrics.timer("database.insert");
+    private static final Metrics.Timer CHECKPOINT = Metrics.timer("database.checkpoint");
+    private static final Metrics.Timer SERIALISATION = Metrics.timer("database.write");
+    private static final Metrics.Timer RELATED_TERMS = Metrics.timer("search.relatedTerms");
+    private static final Metrics.Timer[] STARTUP_TIMERS = {Metrics.timer("startup.hep"), Metrics.timer("startup.invenio"),
+        Metrics.timer("startup.muo"), Metrics.timer("startup.instances")};
+    private static final Metrics.Timer STARTUP = Metrics.timer("startup.total");
+    /**
+     * Orders the resources by their URIs, the blank nodes after them by their
+     * identifiers
+     */
+    private static final Comparator<Resource> BY_URI = new Comparator<Resource>() {
+        @Override
+        public int compare(Resource a, Resource b) {
+            if (a.isAnon() != b.isAnon()) {
+                return a.isAnon() ? 1 : -1;
+            }
+            return a.isAnon() ? a.getId().toString().compareTo(b.getId().toString()) : a.getURI().compareTo(b.getURI());
+        }
+    };
+    private static final int DEFAULT_CACHE_ENTRIES = 1024;
+    private static final long DEFAULT_CACHE_WEIGHT = 1 << 20;
+    private static final AtomicLong FIGURES = Metrics.counter("database.figures");
+    private static final AtomicLong STATEMENTS = Metrics.counter("database.statements");
+    private static final AtomicLong CONCEPTS = Metrics.counter("database.concepts");
+    private static final AtomicLong UNITS = Metrics.counter("database.units");
+    private final ThreadLocal<Tokeniser> _tokeniser = new ThreadLocal<Tokeniser>() {
+        @Override
+        protected Tokeniser initialValue() {
+            return new Tokeniser();
+        }
+    };
+    private static final PreparedQuery GENERAL_ANNOTATION_NOTIONS = QueryRegistry.register("generalAnnotationNotions",
+            "SELECT ?notion WHERE { ?subject dc:subject ?notion. ?notion1 skos:broader ?notion} ");
+    private static final PreparedQuery HEP_NOTIONS = QueryRegistry.register("hepNotions",
+            "SELECT ?notion WHERE { ?notion rdf:type skos:Concept.} ");
 
     public static String cleanString(String s) {
 //        StringBuilder o = new StringBuilder();
@@ -42,8 +100,50 @@ public class InspireDatabase {
 //        return o.toString();
     }
 
+    /**
+     * The union model follows the modifications of the instances by itself,
+     * this method only has to be called after statements have been added
+     * directly to the models of the ontologies
+     */
     public void updateUnionModel() {
-        this._unionModel = _hep._model.union(_invenio._model.union(_muo._model.union(this._model)));
+        _dataset.refresh();
+    }
+
+    /**
+     * Returns the union of the ontologies and the instances. It evaluates the
+     * patterns of the queries only against the models containing their
+     * predicates and reflects the later modifications of the instances. The
+     * HEP ontology is parsed by the first pattern routed to it.
+     */
+    Model getUnionModel() {
+        return _dataset.getUnionModel();
+    }
+
+    /**
+     * Enables or disables printing the executed queries and the results of
+     * the searches (disabled by default, see Metrics for the measurements)
+     */
+    public void setDebug(boolean debug) {
+        _debug = debug;
+    }
+
+    /**
+     * Locks the instances for a sequence of operations. With the write lock,
+     * the readers see either none or all of the modifications done until
+     * leaveCriticalSection is called. The locks can be nested, but a thread
+     * holding the read lock can not request the write lock.
+     *
+     * @param readLockRequested Lock.READ or Lock.WRITE
+     */
+    public void enterCriticalSection(boolean readLockRequested) {
+        _model.enterCriticalSection(readLockRequested);
+    }
+
+    /**
+     * Releases the lock acquired by the last call to enterCriticalSection
+     */
+    public void leaveCriticalSection() {
+        _model.leaveCriticalSection();
     }
 
     /**
@@ -52,6 +152,16 @@ public class InspireDatabase {
      * @param inputDir
      */
     public InspireDatabase(String inputDir, boolean loadInstances) throws IOException {
+        this(inputDir, loadInstances, new InMemoryTripleStore());
+    }
+
+    /**
+     * A constructor using the default file names in the provided directory and
+     * keeping the models in the given store
+     *
+     * @param inputDir
+     */
+    public InspireDatabase(String inputDir, boolean loadInstances, TripleStore store) throws IOException {
         File inDir = new File(inputDir);
 
         if (!inDir.exists()) {
@@ -67,7 +177,7 @@ public class InspireDatabase {
                 invenioModelFile.getAbsolutePath(),
                 outputFile.getAbsolutePath(),
                 muovocFile.getAbsolutePath(),
-                muoinstFile.getAbsolutePath(), loadInstances);
+                muoinstFile.getAbsolutePath(), loadInstances, store);
     }
 
     /**
@@ -80,30 +190,154 @@ public class InspireDatabase {
      * loaded into the model
      */
     public InspireDatabase(String hepFile, String invenioFile, String outputFileName, String muoVocName, String muoInstName, boolean loadInstances) {
-        this.initialise(hepFile, invenioFile, outputFileName, muoVocName, muoInstName, loadInstances);
+        this.initialise(hepFile, invenioFile, outputFileName, muoVocName, muoInstName, loadInstances, new InMemoryTripleStore());
     }
 
-    private void initialise(String hepFile, String invenioFile, String outputFileName, String muoVocName, String muoInstName, boolean loadInstances) {
-        _hep = new HEPOntologyAccessor(hepFile);
-        _invenio = new InvenioOntologyAccessor(invenioFile);
-        _muo = new MUOOntologyAccessor(muoVocName, muoInstName);
+    /**
+     * Constructor
+     *
+     * @param store store keeping the ontologies and the instances. The
+     * instances kept by a persistent store are always available; the output
+     * file and its triple log are imported into it only when it is empty, as
+     * after it has been deleted because of a crash (see TDBTripleStore). The
+     * triple log has to be opened before writing to a persistent store.
+     */
+    public InspireDatabase(String hepFile, String invenioFile, String outputFileName, String muoVocName, String muoInstName, boolean loadInstances, TripleStore store) {
+        this.initialise(hepFile, invenioFile, outputFileName, muoVocName, muoInstName, loadInstances, store);
+    }
 
+    /**
+     * Loads the ontologies and the instances. The components are loaded at
+     * the same time by a small pool of threads, every one parsing its files
+     * and building its indexes; the time taken by each is recorded as the
+     * metric "startup.<component>". A persistent store is loaded by a single
+     * thread, because its models can not be written concurrently. The model
+     * of the HEP ontology of an in-memory store is not parsed at all, its
+     * labels index is enough for the annotation.
+     */
+    private void initialise(final String hepFile, final String invenioFile, final String outputFileName, final String muoVocName, final String muoInstName,
+            final boolean loadInstances, final TripleStore store) {
+        long start = System.nanoTime();
+        _store = store;
         _outputFileName = outputFileName;
+        _ontologyFiles = new File[]{new File(hepFile), new File(muoVocName), new File(muoInstName)};
+        int threads = store.isPersistent() ? 1 : Math.min(STARTUP_TIMERS.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future<HEPOntologyAccessor> hep = executor.submit(new Callable<HEPOntologyAccessor>() {
+                @Override
+                public HEPOntologyAccessor call() {
+                    long start = System.nanoTime();
+                    HEPOntologyAccessor result = new HEPOntologyAccessor(hepFile, store);
+                    if (store.isPersistent()) {
+                        // cheap unless the file has changed, and the store is not written while the queries run
+                        result.getModel();
+                    }
+                    STARTUP_TIMERS[0].recordSince(start);
+                    return result;
+                }
+            });
+            Future<InvenioOntologyAccessor> invenio = executor.submit(new Callable<InvenioOntologyAccessor>() {
+                @Override
+                public InvenioOntologyAccessor call() {
+                    long start = System.nanoTime();
+                    InvenioOntologyAccessor result = new InvenioOntologyAccessor(invenioFile, store);
+                    STARTUP_TIMERS[1].recordSince(start);
+                    return result;
+                }
+            });
+            Future<MUOOntologyAccessor> muo = executor.submit(new Callable<MUOOntologyAccessor>() {
+                @Override
+                public MUOOntologyAccessor call() {
+                    long start = System.nanoTime();
+                    MUOOntologyAccessor result = new MUOOntologyAccessor(muoVocName, muoInstName, store);
+                    STARTUP_TIMERS[2].recordSince(start);
+                    return result;
+                }
+            });
+            Future<FigureIndex> figureIndex = executor.submit(new Callable<FigureIndex>() {
+                @Override
+                public FigureIndex call() {
+                    long start = System.nanoTime();
+                    loadInstances(outputFileName, loadInstances, store);
+                    FigureIndex result = new FigureIndex(_model);
+                    STARTUP_TIMERS[3].recordSince(start);
+                    return result;
+                }
+            });
+            _hep = getLoaded(hep);
+            _invenio = getLoaded(invenio);
+            _muo = getLoaded(muo);
+            _figureIndex = getLoaded(figureIndex);
+        } finally {
+            executor.shutdownNow();
+        }
+        _cache = new ResultCache(DEFAULT_CACHE_ENTRIES, DEFAULT_CACHE_WEIGHT);
+        _model.register(_cache);
+        _dataset = new RoutedDataset();
+        // the annotation only needs the labels index, the model is parsed by the first query using it
+        _dataset.addLazyModel("hep", new RoutedDataset.ModelLoader() {
+            @Override
+            public Model load() {
+                return _hep.getModel();
+            }
+        });
+        _dataset.addModel("invenio", _invenio._model, false);
+        _dataset.addModel("muo", _muo._model, false);
+        _dataset.addModel("instances", _model, true);
 
+        STARTUP.recordSince(start);
+    }
 
-        // create an empty model
-        _model = ModelFactory.createDefaultModel();
+    /**
+     * Reads the instances of the output file and its triple log into the
+     * model, unless the store already contains them. A persistent store always
+     * contains them, it is only a copy of the files.
+     */
+    private void loadInstances(String outputFileName, boolean loadInstances, TripleStore store) {
+        // an empty model unless the store is persistent
+        _model = store.getModel("instances");
 
         // reading the exising statements
-        if (loadInstances) {
-            InputStream in = FileManager.get().open(outputFileName);
+        if ((loadInstances || store.isPersistent()) && _model.isEmpty()) {
+            // an empty file has not been written yet, the statements may be in the log
+            InputStream in = new File(outputFileName).length() == 0 ? null : FileManager.get().open(outputFileName);
             if (in != null) {
                 // read the RDF/XML file
                 _model.read(in, "");
 
             }
+            // statements appended since the last compaction
+            for (File segment : TripleLog.listSegments(new File(outputFileName))) {
+                try {
+                    TripleLog.readSegment(_model, segment);
+                } catch (IOException ex) {
+                    System.err.println("Could not read the segment " + segment.getPath() + " of the triple log of " + outputFileName);
+                    ex.printStackTrace();
+                }
+            }
+            store.commit();
+        }
+    }
+
+    /**
+     * @return the result of a loading task, rethrowing its exception
+     */
+    private static <T> T getLoaded(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the ontologies", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
         }
-        _debug = true;
     }
 
     /**
@@ -125,12 +359,31 @@ public class InspireDatabase {
 
         // create the resource
         //   and add the properties cascading style
-        Resource publication = _model.createResource(uri);
-//        publication.addProperty(com.hp.hpl.jena.vocabulary.DC.description, publicationDescription);
-//        publication.addProperty(com.hp.hpl.jena.vocabulary.DC.title, publicationTitle);
-//        publication.addProperty(com.hp.hpl.jena.vocabulary.DC.identifier, publicationIdentifierURI);
-        publication.addProperty(com.hp.hpl.jena.vocabulary.RDF.type, _model.createResource(InvenioOntologyAccessor.PUBLICATION));
-        return publication;
+        _model.enterCriticalSection(Lock.WRITE);
+        try {
+            Resource publication = _model.createResource(uri);
+//            publication.addProperty(com.hp.hpl.jena.vocabulary.DC.description, publicationDescription);
+//            publication.addProperty(com.hp.hpl.jena.vocabulary.DC.title, publicationTitle);
+//            publication.addProperty(com.hp.hpl.jena.vocabulary.DC.identifier, publicationIdentifierURI);
+            List<Statement> statements = new ArrayList<>(1);
+            addPublicationStatements(uri, statements);
+            _model.add(statements);
+            return publication;
+        } finally {
+            _model.leaveCriticalSection();
+        }
+    }
+
+    /**
+     * Adds the statements describing the publication to the list, unless the
+     * model already contains them. The caller has to hold a lock of the model.
+     */
+    private void addPublicationStatements(String uri, List<Statement> statements) {
+        Resource publication = ResourceFactory.createResource(uri);
+        Resource type = ResourceFactory.createResource(InvenioOntologyAccessor.PUBLICATION);
+        if (!_model.contains(publication, com.hp.hpl.jena.vocabulary.RDF.type, type)) {
+            statements.add(ResourceFactory.createStatement(publication, com.hp.hpl.jena.vocabulary.RDF.type, type));
+        }
     }
 
     /**
@@ -138,6 +391,15 @@ public class InspireDatabase {
      * related resources: publication, figure and data
      */
     public void annotateExample() {
+        _model.enterCriticalSection(Lock.WRITE);
+        try {
+            createExampleAnnotation();
+        } finally {
+            _model.leaveCriticalSection();
+        }
+    }
+
+    private void createExampleAnnotation() {
 
 
         /**
@@ -275,9 +537,128 @@ public class InspireDatabase {
     }
 
     /**
-     * This method writes the model in XML form to a file
+     * Replaces the cache of the results of the searches (by default 1024
+     * results of at most 2^20 elements in total). Has to be called before the
+     * searches start.
+     *
+     * @param maxEntries maximal number of cached results, 0 disables the
+     * cache
+     * @param maxWeight maximal total number of elements of the cached results
+     */
+    public void setResultCache(int maxEntries, long maxWeight) {
+        _model.enterCriticalSection(Lock.WRITE);
+        try {
+            _model.unregister(_cache);
+            _cache = new ResultCache(maxEntries, maxWeight);
+            _model.register(_cache);
+        } finally {
+            _model.leaveCriticalSection();
+        }
+    }
+
+    /**
+     * @return the cache of the results of search, searchForHEPNotion and
+     * searchForHEPNotionHierarchy
+     */
+    public ResultCache getResultCache() {
+        return _cache;
+    }
+
+    /**
+     * @return the name of the file into which the instances are written
+     */
+    public String getOutputFileName() {
+        return _outputFileName;
+    }
+
+    /**
+     * Switches the output to the triple log mode: from now on, every statement
+     * added to the model is appended to a new segment of the log of the output
+     * file and writeOuput only flushes this segment instead of rewriting the
+     * whole output file. The segments are merged into the output file by
+     * CompactTripleLogs.
+     *
+     * A persistent store is written only in this mode: the log is its
+     * write-ahead log, made durable before the store is committed.
+     */
+    public void openTripleLog() throws IOException {
+        _model.enterCriticalSection(Lock.WRITE);
+        try {
+            if (_tripleLog == null) {
+                _tripleLog = new TripleLog(TripleLog.createSegment(new File(_outputFileName)));
+                _model.register(_tripleLog);
+            }
+        } finally {
+            _model.leaveCriticalSection();
+        }
+    }
+
+    /**
+     * Opens the persistent cache of the annotations of the captions, written
+     * next to the HEP ontology. annotateFigure then annotates only the
+     * captions which have not been annotated by the previous runs. The cache
+     * is emptied when one of the ontologies used for annotating changes.
+     *
+     * @param maxBytes maximal size of the cache file
+     */
+    public void openAnnotationCache(long maxBytes) throws IOException {
+        if (_annotationCache == null) {
+            _annotationCache = new AnnotationCache(AnnotationCache.getCacheFile(_ontologyFiles[0]), AnnotationCache.version(_ontologyFiles), maxBytes);
+        }
+    }
+
+    /**
+     * @return the cache of the annotations of the captions, null if it has not
+     * been opened
+     */
+    public AnnotationCache getAnnotationCache() {
+        return _annotationCache;
+    }
+
+    /**
+     * Writes the cached annotations to the disk and stops using the cache
+     */
+    public void closeAnnotationCache() {
+        AnnotationCache cache = _annotationCache;
+        if (cache != null) {
+            _annotationCache = null;
+            cache.close();
+        }
+    }
+
+    /**
+     * This method writes the model in XML form to a file. In the triple log
+     * mode, only the statements created since the last call are written. A
+     * persistent store is committed after its triple log, as by checkpoint.
      */
     public void writeOuput() {
+        long start = System.nanoTime();
+        try {
+            writeModel();
+        } finally {
+            SERIALISATION.recordSince(start);
+        }
+    }
+
+    private void writeModel() {
+        if (_store.isPersistent()) {
+            try {
+                writeCheckpoint();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+        if (_tripleLog != null) {
+            try {
+                _tripleLog.flush(true);
+                System.out.println("Written " + _tripleLog.getNumStatements() + " statements to " + _tripleLog.getFile().getPath());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+        _model.enterCriticalSection(Lock.READ);
         try {
             // debugging
             if (_debug) {
@@ -291,10 +672,71 @@ public class InspireDatabase {
             System.err.println("cannot encode " + e.getEncodingContext() + "   " + e.getMessage());
         } catch (Exception ex) {
             ex.printStackTrace();
+        } finally {
+            _model.leaveCriticalSection();
         }
 
     }
 
+    /**
+     * Makes all the statements added so far durable: flushes the triple log to
+     * the disk, then commits a persistent store. Without them, the output
+     * file is replaced by a new version written next to it, so that a crash
+     * keeps the previous version.
+     *
+     * @throws IOException if the statements could not be written, or if a
+     * persistent store is written without the triple log
+     */
+    public void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        try {
+            writeCheckpoint();
+        } finally {
+            CHECKPOINT.recordSince(start);
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        AnnotationCache annotationCache = _annotationCache;
+        if (annotationCache != null) {
+            annotationCache.flush();
+        }
+        if (_tripleLog != null) {
+            // first, a crash while committing the store leaves it to be loaded again from the log
+            _tripleLog.flush(true);
+        }
+        if (_store.isPersistent()) {
+            if (_tripleLog == null) {
+                throw new IOException("The statements of a persistent store can not be made durable without the triple log, see openTripleLog");
+            }
+            _model.enterCriticalSection(Lock.WRITE);
+            try {
+                _store.commit();
+            } finally {
+                _model.leaveCriticalSection();
+            }
+            return;
+        }
+        if (_tripleLog != null) {
+            return;
+        }
+        File output = new File(_outputFileName).getAbsoluteFile();
+        // unique, another upload may checkpoint the same output file
+        File temporary = File.createTempFile(output.getName(), ".tmp", output.getParentFile());
+        try {
+            _model.enterCriticalSection(Lock.READ);
+            try (FileOutputStream out = new FileOutputStream(temporary)) {
+                _model.write(out);
+                out.getFD().sync();
+            } finally {
+                _model.leaveCriticalSection();
+            }
+            Files.move(temporary.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporary.delete();
+        }
+    }
+
     /**
      * This method searches figures in the repository of type 'figureType' and
      * about the concept 'concept'
@@ -306,124 +748,244 @@ public class InspireDatabase {
      * type)
      */
     public List<Resource> search(String concept, String figureType) {
-        try {
-            List<Resource> resources = new LinkedList<Resource>();
-
-            String query =
-                    "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                    + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-                    + "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                    + "PREFIX inveniomodel: <http://www.semanticweb.org/ontologies/invenio/inveniomodel.owl#> "
-                    + "SELECT DISTINCT ?subject "
-                    + "WHERE { "
-                    + "?subject dc:subject <" + concept + "> . "
-                    + "?subject rdf:type <" + figureType + "> "
-                    + //"?subject rdf:type ?value "+
-                    "} ORDER BY ASC(?subject) ";
-
-            if (_debug) {
-                System.out.println("\n" + query);
+        String key = ResultCache.key("search", concept, figureType);
+        List<Resource> cached = _cache.get(key);
+        if (cached != null) {
+            return new ArrayList<>(cached);
+        }
+        long epoch = _cache.getEpoch();
+        List<Resource> resources = searchFigures(Collections.singletonList(concept), null, null, figureType);
+        Collections.sort(resources, BY_URI);
+        if (_debug) {
+            for (Resource r : resources) {
+                System.out.println(r);
             }
+        }
+        _cache.put(key, epoch, new ArrayList<>(resources), ResultCache.weight(resources));
+        return resources;
+    }
 
-            QueryExecution qexec = QueryExecutionFactory.create(query, _model);
-            ResultSet results = qexec.execSelect();
+    /**
+     * Searches the annotated resources using the inverted index of concepts
+     *
+     * @param allOf URIs of concepts which have to annotate the resource
+     * @param anyOf URIs of concepts out of which at least one has to annotate
+     * the resource, ignored if null or empty
+     * @param noneOf URIs of concepts which can not annotate the resource,
+     * ignored if null
+     * @param figureType URI of the type of the resource (for example
+     * InvenioOntologyAccessor.FIGURE) or null
+     * @return the matching resources in the order of their creation
+     */
+    public List<Resource> searchFigures(Collection<String> allOf, Collection<String> anyOf, Collection<String> noneOf, String figureType) {
+        _model.enterCriticalSection(Lock.READ);
+        try {
+            return _figureIndex.getResources(_figureIndex.search(allOf, anyOf, noneOf, figureType));
+        } finally {
+            _model.leaveCriticalSection();
+        }
+    }
 
-            //working with text
-            while (results.hasNext()) {
-                QuerySolution soln = results.nextSolution();
-                Resource r = soln.getResource("subject");
-                resources.add(r);
+    public static List<String> tokeniseString(String s) {
+        return new Tokeniser().tokenise(s).getTokens();
+    }
 
-                if (_debug) {
-                    System.out.println(r);
-                }
-            }
+    /**
+     * Finds the concepts of the HEP ontology mentioned in the given string
+     *
+     * @param s
+     * @return
+     */
+    public Set<Resource> annotateStringWithHEPConcepts(String s) {
+        return _hep.conceptMatcher.match(_tokeniser.get().tokenise(s));
+    }
 
-            return resources;
+    Resource createFigure(InspireDatabase db, Resource pub, FigureCandidate figure) {
+        return this.addFigure(this.annotateFigure(pub.getURI(), figure));
+    }
 
-        } catch (Exception e) {
-            System.out.println("Failed: " + e);
-            return null;
+    /**
+     * Annotates all the figures extracted from a publication and writes them
+     * together with the publication, which is created only if it does not
+     * exist yet
+     *
+     * @param pubURI URI of the publication
+     * @param figures figures extracted from the publication
+     * @return the resources of the figures
+     */
+    public List<Resource> createFigures(String pubURI, List<FigureCandidate> figures) {
+        List<FigureAnnotation> annotations = new ArrayList<>(figures.size());
+        for (FigureCandidate figure : figures) {
+            annotations.add(annotateFigure(pubURI, figure));
         }
+        return addFigures(pubURI, annotations);
     }
-    private static int figCount = 0;
-    private static int totalMatch = 0;
 
-    public static List<String> tokeniseString(String s) {
-        String[] wordsA = s.split("\\s+");
-        List<String> words = new ArrayList<String>();
-        for (int i = 0; i < wordsA.length; ++i) {
-            if (!wordsA[i].equals("")) {
-                words.add(wordsA[i]);
+    /**
+     * Calculates the annotations of a figure without modifying the model. This
+     * method can be called from many threads at the same time. The
+     * annotations of a caption found in the annotation cache are not
+     * calculated again.
+     *
+     * @param pubURI URI of the publication the figure was extracted from
+     * @param figure
+     * @return
+     */
+    public FigureAnnotation annotateFigure(String pubURI, FigureCandidate figure) {
+        return annotateCaption(pubURI, figure.getId(), figure.getCaption().text);
+    }
+
+    /**
+     * Calculates the annotations of a figure given by its identifier and its
+     * caption, as annotateFigure does
+     *
+     * @param pubURI URI of the publication the figure was extracted from
+     * @param figureId identifier of the figure within the publication
+     * @param caption the caption, which is cleaned first
+     */
+    public FigureAnnotation annotateCaption(String pubURI, String figureId, String caption) {
+        String figURI = pubURI + "/" + figureId;
+        String cleanCaption = cleanString(caption);
+        AnnotationCache cache = _annotationCache;
+        if (cache != null) {
+            AnnotationCache.Entry cached = cache.lookup(cleanCaption);
+            if (cached != null) {
+                return new FigureAnnotation(figURI, pubURI, cleanCaption, getCachedConcepts(cached), getCachedUnits(cached));
             }
         }
-        return words;
-    }
 
-    public Set<Resource> annotateStringWithHEPConcepts(String s) {
-        List<String> words = InspireDatabase.tokeniseString(s);
-        Integer[] minLengths = new Integer[words.size()];
-        for (int i = 0; i < minLengths.length; ++i) {
-            minLengths[i] = 0;
+        // the caption is tokenised once for both the concepts and the units
+        long start = System.nanoTime();
+        Tokeniser tokens = _tokeniser.get().tokenise(cleanCaption);
+        Set<Resource> matchedConcepts = _hep.conceptMatcher.match(tokens);
+        long hepEnd = System.nanoTime();
+        HEP_ANNOTATION.record(hepEnd - start);
+        Set<Resource> matchedUnits = this._muo.annotateTokensWithUnits(tokens);
+        UNIT_ANNOTATION.recordSince(hepEnd);
+        if (cache != null) {
+            storeAnnotations(cache, cleanCaption, matchedConcepts, matchedUnits);
         }
 
-        HashSet<Resource> matchedConcepts = new HashSet<Resource>();
+        return new FigureAnnotation(figURI, pubURI, cleanCaption, matchedConcepts, matchedUnits);
+    }
 
-        for (int start = 0; start < words.size(); ++start) {
-            for (int end = words.size(); minLengths[start] < (end - start); --end) {
-                Set<String> wordsS = new HashSet<String>();
-                for (String w : words.subList(start, end)) {
-                    wordsS.add(w);
-                }
+    private void storeAnnotations(AnnotationCache cache, String caption, Set<Resource> concepts, Set<Resource> units) {
+        List<String> conceptURIs = new ArrayList<>(concepts.size());
+        for (Resource concept : concepts) {
+            conceptURIs.add(concept.getURI());
+        }
+        List<String[]> unitURIs = new ArrayList<>(units.size());
+        for (Resource unit : units) {
+            Resource[] parts = _muo.getPrefixedUnitParts(unit);
+            unitURIs.add(parts == null ? new String[]{null, unit.getURI()} : new String[]{parts[0].getURI(), parts[1].getURI()});
+        }
+        cache.store(caption, conceptURIs, unitURIs);
+    }
 
-                Set<Resource> foundRes = _hep.searchResourcesCached(wordsS);
-                if (foundRes != null && foundRes.size() > 0) {
-                    matchedConcepts.addAll(foundRes);
-                    // we have to update teh minLen array
-                    for (int j = start; j < end; ++j) {
-                        minLengths[j] = end - j;
-                    }
-                }
-            }
+    private static Set<Resource> getCachedConcepts(AnnotationCache.Entry cached) {
+        Set<Resource> result = new HashSet<>();
+        for (String uri : cached.concepts) {
+            result.add(ResourceFactory.createResource(uri));
         }
-        return matchedConcepts;
+        return result;
     }
 
-    Resource createFigure(InspireDatabase db, Resource pub, FigureCandidate figure) {
-        String figURI = pub.getURI() + "/" + figure.getId();
-        Resource figRes = _model.createResource(figURI);
+    /**
+     * @return the cached units, the prefixed units being created again so
+     * that describeUnit knows them
+     */
+    private Set<Resource> getCachedUnits(AnnotationCache.Entry cached) {
+        Set<Resource> result = new HashSet<>();
+        for (String[] unit : cached.units) {
+            result.add(unit[0] == null ? ResourceFactory.createResource(unit[1])
+                    : _muo.createPrefixedResource(ResourceFactory.createResource(unit[0]), ResourceFactory.createResource(unit[1])));
+        }
+        return result;
+    }
 
-        figure.getPageNumber();
-        String cleanCaption = cleanString(figure.getCaption().text);
-        figRes.addProperty(com.hp.hpl.jena.vocabulary.DC.title, cleanCaption);
+    /**
+     * Writes an annotated figure into the model. The publication has to be
+     * created before.
+     *
+     * @param annotation
+     * @return the resource of the figure
+     */
+    public Resource addFigure(FigureAnnotation annotation) {
+        _model.enterCriticalSection(Lock.WRITE);
+        try {
+            long start = System.nanoTime();
+            List<Statement> statements = new ArrayList<>();
+            Resource figRes = addFigureStatements(annotation, statements, new HashSet<Resource>());
+            _model.add(statements);
+            STATEMENTS.addAndGet(statements.size());
+            INSERTION.recordSince(start);
+            return figRes;
+        } finally {
+            _model.leaveCriticalSection();
+        }
+    }
 
-        figRes.addProperty(com.hp.hpl.jena.vocabulary.RDF.type, _model.createResource(InvenioOntologyAccessor.FIGURE));
-        figRes.addProperty(com.hp.hpl.jena.vocabulary.RDFS.label, "figure " + figCount);
-        figRes.addProperty(this._invenio.extractedFrom, pub);
+    /**
+     * Writes the annotated figures of a publication into the model, creating
+     * the publication if it does not exist yet. The statements are prepared
+     * first and added to the model at once.
+     *
+     * @param pubURI URI of the publication
+     * @param annotations annotations of the figures extracted from the
+     * publication
+     * @return the resources of the figures
+     */
+    public List<Resource> addFigures(String pubURI, List<FigureAnnotation> annotations) {
+        _model.enterCriticalSection(Lock.WRITE);
+        try {
+            long start = System.nanoTime();
+            List<Statement> statements = new ArrayList<>(16 * annotations.size() + 1);
+            addPublicationStatements(pubURI, statements);
+            List<Resource> result = new ArrayList<>(annotations.size());
+            HashSet<Resource> units = new HashSet<>();
+            for (FigureAnnotation annotation : annotations) {
+                result.add(addFigureStatements(annotation, statements, units));
+            }
+            _model.add(statements);
+            STATEMENTS.addAndGet(statements.size());
+            INSERTION.recordSince(start);
+            return result;
+        } finally {
+            _model.leaveCriticalSection();
+        }
+    }
 
+    /**
+     * Adds the statements describing an annotated figure to the list. The
+     * caller has to hold the write lock of the model.
+     *
+     * @param units units already described by the statements of the list
+     * @return the resource of the figure
+     */
+    private Resource addFigureStatements(FigureAnnotation annotation, List<Statement> statements, Set<Resource> units) {
+        Resource figRes = ResourceFactory.createResource(annotation.figureURI);
+        Resource pub = ResourceFactory.createResource(annotation.publicationURI);
 
-        Set<Resource> matchedConcepts = this.annotateStringWithHEPConcepts(cleanCaption);
+        statements.add(ResourceFactory.createStatement(figRes, com.hp.hpl.jena.vocabulary.DC.title, ResourceFactory.createPlainLiteral(annotation.caption)));
 
-        System.out.println("Figure: " + figURI);
-        System.out.println("   Caption: " + cleanCaption);
-        System.out.println("   Detected keywords: ");
-        for (Resource concept : matchedConcepts) {
-            figRes.addProperty(com.hp.hpl.jena.vocabulary.DC.subject, concept);
-            System.out.println("        " + concept.getURI());
-        }
+        statements.add(ResourceFactory.createStatement(figRes, com.hp.hpl.jena.vocabulary.RDF.type, ResourceFactory.createResource(InvenioOntologyAccessor.FIGURE)));
+        statements.add(ResourceFactory.createStatement(figRes, com.hp.hpl.jena.vocabulary.RDFS.label, ResourceFactory.createPlainLiteral("figure " + _figCount.getAndIncrement())));
+        statements.add(ResourceFactory.createStatement(figRes, this._invenio.extractedFrom, pub));
 
+        for (Resource concept : annotation.concepts) {
+            statements.add(ResourceFactory.createStatement(figRes, com.hp.hpl.jena.vocabulary.DC.subject, concept));
+        }
 
-        Set<Resource> matchedUnits = this._muo.annotateStringWithUnits(cleanCaption);
-        System.out.println("   Units:");
-        for (Resource unit : matchedUnits) {
-            figRes.addProperty(this._invenio.hasUnit, unit);
-            System.out.println("        " + unit.getURI());
+        for (Resource unit : annotation.units) {
+            statements.add(ResourceFactory.createStatement(figRes, this._invenio.hasUnit, unit));
+            if (units.add(unit)) {
+                statements.addAll(_muo.describeUnit(unit, _model));
+            }
         }
 
-        totalMatch += matchedConcepts.size();
-        System.out.println("Total matched : " + totalMatch);
-        ++figCount;
-        figure.getPageManager().getPageBoundary();
+        FIGURES.incrementAndGet();
+        CONCEPTS.addAndGet(annotation.concepts.size());
+        UNITS.addAndGet(annotation.units.size());
 
         return figRes;
     }
@@ -436,31 +998,20 @@ public class InspireDatabase {
      * @return
      */
     public Set<Resource> searchForHEPNotion(String notionURI) {
-        HashSet<Resource> resultSet = new HashSet<>();
-
-        String query = "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "PREFIX owl: <http://www.w3.org/2002/07/owl#> "
-                + "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> "
-                + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-                + "PREFIX hfo: <http://www.semanticweb.org/ontologies/invenio/inveniomodel.owl#> "
-                + "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                + "PREFIX hep: <http://cern.ch/thesauri/HEPontology.rdf#> "
-                + "SELECT ?subject "
-                + "WHERE { ?subject dc:subject <" + notionURI + "> } ";
-
-        if (_debug) {
-            System.out.println("\n" + query);
+        String key = ResultCache.key("searchForHEPNotion", notionURI);
+        Set<Resource> cached = _cache.get(key);
+        if (cached != null) {
+            return new HashSet<>(cached);
         }
-
-        QueryExecution qexec = QueryExecutionFactory.create(query, _unionModel);
-        ResultSet results = qexec.execSelect();
-
-        //working with text
-        while (results.hasNext()) {
-            QuerySolution soln = results.nextSolution();
-            Resource r = soln.getResource("subject");
-            resultSet.add(r);
+        long epoch = _cache.getEpoch();
+        HashSet<Resource> resultSet;
+        _model.enterCriticalSection(Lock.READ);
+        try {
+            resultSet = new HashSet<>(_figureIndex.getResources(_figureIndex.getConceptIds(notionURI)));
+        } finally {
+            _model.leaveCriticalSection();
         }
+        _cache.put(key, epoch, new HashSet<>(resultSet), ResultCache.weight(resultSet));
         return resultSet;
     }
 
@@ -473,78 +1024,80 @@ public class InspireDatabase {
      */
     public Map<Resource, Resource> searchForHEPNotionHierarchy(String notionURI) {
         HashMap<Resource, Resource> resultSet = new HashMap<>();
-
-        String query = "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "PREFIX owl: <http://www.w3.org/2002/07/owl#> "
-                + "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> "
-                + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-                + "PREFIX hfo: <http://www.semanticweb.org/ontologies/invenio/inveniomodel.owl#> "
-                + "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                + "PREFIX hep: <http://cern.ch/thesauri/HEPontology.rdf#> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "SELECT DISTINCT ?subject ?notion "
-                + "WHERE { ?subject hfo:contains* ?s1. ?s1 dc:subject ?notion.  ?notion skos:broader* <" + notionURI + "> } ";
+        if (notionURI == null) {
+            return resultSet;
+        }
+        String key = ResultCache.key("searchForHEPNotionHierarchy", notionURI);
+        Map<Resource, Resource> cached = _cache.get(key);
+        if (cached != null) {
+            resultSet.putAll(cached);
+            return resultSet;
+        }
+        long epoch = _cache.getEpoch();
+        // ?notion skos:broader* <notionURI>, precomputed
+        List<Resource> notions = _hep.broaderHierarchy.getDescendantResources(notionURI);
 
         if (_debug) {
-            System.out.println("\n" + query);
+            System.out.println("\nsearching for " + notions.size() + " notions below " + notionURI);
         }
 
-        QueryExecution qexec = QueryExecutionFactory.create(query, _unionModel);
-        ResultSet results = qexec.execSelect();
-
-        //working with text
-        while (results.hasNext()) {
-            QuerySolution soln = results.nextSolution();
-            Resource r = soln.getResource("subject");
-            Resource n = soln.getResource("notion");
-            resultSet.put(r, n);
+        _model.enterCriticalSection(Lock.READ);
+        try {
+            Model union = getUnionModel();
+            Property contains = union.createProperty(InvenioOntologyAccessor.CONTAINS);
+            for (Resource notion : notions) {
+                for (int annotated : _figureIndex.getConceptIds(notion.getURI())) {
+                    // ?subject hfo:contains* ?s1
+                    LinkedList<Resource> toVisit = new LinkedList<>();
+                    HashSet<Resource> visited = new HashSet<>();
+                    toVisit.add(_figureIndex.getResource(annotated));
+                    while (!toVisit.isEmpty()) {
+                        Resource r = toVisit.removeFirst();
+                        if (visited.add(r)) {
+                            resultSet.put(r, notion);
+                            ResIterator containers = union.listSubjectsWithProperty(contains, r);
+                            while (containers.hasNext()) {
+                                toVisit.add(containers.nextResource());
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            _model.leaveCriticalSection();
         }
+        _cache.put(key, epoch, new HashMap<>(resultSet), ResultCache.weight(resultSet));
         return resultSet;
     }
 
     public Set<Resource> getAllAnnotationNotions() {
-        HashSet<Resource> resultSet = new HashSet<>();
-
-        String query = "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                + "SELECT ?notion "
-                + "WHERE { ?subject dc:subject ?notion } ";
-
-        if (_debug) {
-            System.out.println("\n" + query);
-        }
-
-        QueryExecution qexec = QueryExecutionFactory.create(query, _model);
-        ResultSet results = qexec.execSelect();
-
-        //working with text
-        while (results.hasNext()) {
-            QuerySolution soln = results.nextSolution();
-            Resource r = soln.getResource("notion");
-            resultSet.add(r);
+        _model.enterCriticalSection(Lock.READ);
+        try {
+            return _figureIndex.getConcepts();
+        } finally {
+            _model.leaveCriticalSection();
         }
-        return resultSet;
     }
 
     public Set<Resource> getAllGeneralAnnotationNotions() {
         HashSet<Resource> resultSet = new HashSet<>();
 
-        String query = "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "SELECT ?notion "
-                + "WHERE { ?subject dc:subject ?notion. ?notion1 skos:broader ?notion} ";
-
         if (_debug) {
-            System.out.println("\n" + query);
+            System.out.println("\n" + GENERAL_ANNOTATION_NOTIONS);
         }
 
-        QueryExecution qexec = QueryExecutionFactory.create(query, _unionModel);
-        ResultSet results = qexec.execSelect();
+        _model.enterCriticalSection(Lock.READ);
+        try {
+            ResultSet results = GENERAL_ANNOTATION_NOTIONS.execSelect(getUnionModel());
 
-        //working with text
-        while (results.hasNext()) {
-            QuerySolution soln = results.nextSolution();
-            Resource r = soln.getResource("notion");
-            resultSet.add(r);
+            //working with text
+            while (results.hasNext()) {
+                QuerySolution soln = results.nextSolution();
+                Resource r = soln.getResource("notion");
+                resultSet.add(r);
+            }
+        } finally {
+            _model.leaveCriticalSection();
         }
         return resultSet;
     }
@@ -552,24 +1105,22 @@ public class InspireDatabase {
     public Set<Resource> getAllHEPNotions() {
         HashSet<Resource> resultSet = new HashSet<>();
 
-        String query = "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "SELECT ?notion "
-                + "WHERE { ?notion rdf:type skos:Concept.} ";
-
         if (_debug) {
-            System.out.println("\n" + query);
+            System.out.println("\n" + HEP_NOTIONS);
         }
 
-        QueryExecution qexec = QueryExecutionFactory.create(query, _unionModel);
-        ResultSet results = qexec.execSelect();
+        _model.enterCriticalSection(Lock.READ);
+        try {
+            ResultSet results = HEP_NOTIONS.execSelect(getUnionModel());
 
-        //working with text
-        while (results.hasNext()) {
-            QuerySolution soln = results.nextSolution();
-            Resource r = soln.getResource("notion");
-            resultSet.add(r);
+            //working with text
+            while (results.hasNext()) {
+                QuerySolution soln = results.nextSolution();
+                Resource r = soln.getResource("notion");
+                resultSet.add(r);
+            }
+        } finally {
+            _model.leaveCriticalSection();
         }
         return resultSet;
     }
@@ -578,51 +1129,63 @@ public class InspireDatabase {
      * Returns pairs of terms related to each other with the composite relation
      * ... out of which both describe some figure
      *
+     * The pairs (notion1, notion2) are those of the SPARQL pattern { ?subject1
+     * dc:subject ?notion1. ?subject2 dc:subject ?notion2. ?notion1
+     * skos:narrower+ ?notion2 }, but instead of joining the annotated figures
+     * with each other, only the closure of skos:narrower below every used
+     * notion is walked, in time proportional to the number of used notions
+     * times the number of their descendants.
+     *
      * @return
      */
     public Set<Pair<Resource, Resource>> getPairsOfRelatedTerms() {
-        HashSet<Pair<Resource, Resource>> resultSet = new HashSet<>();
-
-        String query = "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "PREFIX hep: <http://cern.ch/thesauri/HEPontology.rdf#> "
-                + "SELECT DISTINCT ?notion1 ?notion2 "
-                + "WHERE { ?subject1 dc:subject ?notion1. ?subject2 dc:subject ?notion2. ?notion1 skos:narrower+ ?notion2 } ";
-
-        if (_debug) {
-            System.out.println("\n" + query);
+        long start = System.nanoTime();
+        HashMap<String, Resource> used = new HashMap<>();
+        for (Resource notion : getAllAnnotationNotions()) {
+            if (notion.isURIResource()) {
+                used.put(notion.getURI(), notion);
+            }
         }
-
-        QueryExecution qexec = QueryExecutionFactory.create(query, _unionModel);
-        ResultSet results = qexec.execSelect();
-
-        //working with text
-        while (results.hasNext()) {
-            QuerySolution soln = results.nextSolution();
-            Resource n1 = soln.getResource("notion1");
-            Resource n2 = soln.getResource("notion2");
-
-            resultSet.add(new Pair<Resource, Resource>(n1, n2));
+        HashSet<Pair<Resource, Resource>> resultSet = new HashSet<>();
+        for (Resource n1 : used.values()) {
+            String uri = n1.getURI();
+            for (String descendant : _hep.narrowerHierarchy.getDescendants(uri)) {
+                // narrower+ is not reflexive, unless the notion lies on a cycle
+                if (descendant.equals(uri) && !_hep.narrowerHierarchy.isOnCycle(uri)) {
+                    continue;
+                }
+                Resource n2 = used.get(descendant);
+                if (n2 != null) {
+                    resultSet.add(new Pair<Resource, Resource>(n1, n2));
+                }
+            }
         }
+        RELATED_TERMS.recordSince(start);
         return resultSet;
     }
 
-    private double estimateRecalls(Set<Resource> notions) {
-        this._debug = false;
-        double recalls = 0;
-        int num = 0;
-        for (Resource notion : notions) {
- //           System.out.println("    " + notion.getLocalName());
-            int sizeExact = this.searchForHEPNotion(notion.getURI()).size();
-            int sizeAll = this.searchForHEPNotionHierarchy(notion.getURI()).size();
-            if (sizeAll > 0) {
-                double recall = (double) sizeExact / (double) sizeAll;
-                //    System.out.println("   Recall: " + recall);
-                recalls += recall;
-                num++;
-            }
+    /**
+     * Creates an evaluator of the recall of the annotations, working on a
+     * copy of the current annotations
+     *
+     * @param parallelism number of threads evaluating the notions
+     */
+    public RecallEvaluator createRecallEvaluator(int parallelism) {
+        _model.enterCriticalSection(Lock.READ);
+        try {
+            return new RecallEvaluator(_hep.broaderHierarchy, _figureIndex, getUnionModel(), parallelism);
+        } finally {
+            _model.leaveCriticalSection();
         }
-        return recalls / num;
+    }
+
+    /**
+     * @return the average recall of the given notions, 0 if nothing is found
+     * for any of them (see RecallEvaluator)
+     */
+    public double estimateRecalls(Set<Resource> notions) {
+        RecallEvaluator evaluator = createRecallEvaluator(Runtime.getRuntime().availableProcessors());
+        return RecallEvaluator.averageRecall(evaluator.evaluate(notions));
     }
 
     public static void main(String[] args) throws IOException {
@@ -650,15 +1213,18 @@ public class InspireDatabase {
         System.out.println("Executing sample queries: ");
         System.out.println("  All annotation notions: ");
 
-        Set<Resource> notions = db.getAllAnnotationNotions();
-        double recall = db.estimateRecalls(notions);
+        RecallEvaluator evaluator = db.createRecallEvaluator(Runtime.getRuntime().availableProcessors());
+        double recall = RecallEvaluator.averageRecall(evaluator.evaluate(db.getAllAnnotationNotions()));
         System.out.println(" Average recall for all present notions: " + recall);
-        notions = db.getAllGeneralAnnotationNotions();
-        recall = db.estimateRecalls(notions);
+        recall = RecallEvaluator.averageRecall(evaluator.evaluate(db.getAllGeneralAnnotationNotions()));
         System.out.println(" Average recall for all non-term present notions: " + recall);
-        notions = db.getAllHEPNotions();
-        recall = db.estimateRecalls(notions);
-        System.out.println(" Average recall for all HEP notions: " + recall);
+        List<RecallEvaluator.NotionRecall> recalls = evaluator.evaluate(db.getAllHEPNotions());
+        System.out.println(" Average recall for all HEP notions: " + RecallEvaluator.averageRecall(recalls));
+        File report = new File(db.getOutputFileName() + ".recall.tsv");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(report), "UTF-8")) {
+            RecallEvaluator.writeReport(recalls, out);
+        }
+        System.out.println(" Recall of every HEP notion written to " + report.getPath());
 
 
 
@@ -2,10 +2,8 @@ package org.inveniosoftware.inveniosemantics;
 
 import com.hp.hpl.jena.rdf.model.*;
 import com.hp.hpl.jena.rdf.model.impl.StatementImpl;
-import com.hp.hpl.jena.util.FileManager;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.io.OutputStream;
 
 public class InvenioOntologyAccessor {
@@ -65,8 +63,12 @@ public class InvenioOntologyAccessor {
     public Property extractedFrom;
 
     public InvenioOntologyAccessor(String inputFileName) {
+        this(inputFileName, new InMemoryTripleStore());
+    }
+
+    public InvenioOntologyAccessor(String inputFileName, TripleStore store) {
         _inputFileName = inputFileName;
-        uploadModel();
+        _model = store.loadModel("invenio", _inputFileName);
         createResources();
     }
 
@@ -98,17 +100,6 @@ public class InvenioOntologyAccessor {
 
     }
 
-    private void uploadModel() {
-        InputStream in = FileManager.get().open(_inputFileName);
-        if (in == null) {
-            throw new IllegalArgumentException("File: " + _inputFileName + " not found");
-        }
-        _model = ModelFactory.createDefaultModel();
-        // read the RDF/XML file
-        _model.read(in, "");
-
-    }
-
     public void saveModel() throws FileNotFoundException {
 //        OutputStream os = new FileOutputStream("../InvenioSemantics/files/invenio.rdf");
         _model.write(System.out);
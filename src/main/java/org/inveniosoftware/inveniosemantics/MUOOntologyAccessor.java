@@ -1,22 +1,23 @@
 package org.inveniosoftware.inveniosemantics;
 
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.vocabulary.RDF;
 import invenio.common.Pair;
-import invenio.common.PrefixTree;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The accessor class to the notions of the Measurable Units Ontology
@@ -30,43 +31,34 @@ public class MUOOntologyAccessor {
     public Model _model;
     public static final String MUOURI = "http://purl.oclc.org/NET/muo/muo#";
     public static final String INSTANCESURI = "http://purl.oclc.org/NET/muo/ucum/";
+    private static final PreparedQuery PREFIXES = QueryRegistry.register("muoPrefixes",
+            "SELECT DISTINCT ?subject ?symbol "
+            + "WHERE {  ?subject rdf:type uomvoc:Prefix. {?subject uomvoc:prefSymbol ?symbol} UNION {?subject uomvoc:altSymbol ?symbol}}");
+    private static final PreparedQuery UNITS = QueryRegistry.register("muoUnits",
+            "SELECT DISTINCT ?subject ?symbol "
+            + "WHERE {  ?subject rdf:type uomvoc:UnitOfMeasurement. {?subject uomvoc:prefSymbol ?symbol} UNION {?subject uomvoc:altSymbol ?symbol}}");
 
     /**
      * Constructor that receives the path of the file containing the HEP
      * ontology
      */
     public MUOOntologyAccessor(String defFileName, String instFileName) {
+        this(defFileName, instFileName, new InMemoryTripleStore());
+    }
+
+    /**
+     * Constructor that receives the paths of the files containing the MUO
+     * vocabulary and the units, and the store in which their model is kept
+     */
+    public MUOOntologyAccessor(String defFileName, String instFileName, TripleStore store) {
         _defFileName = defFileName;
         _instFileName = instFileName;
-        uploadModel();
+        _model = store.loadModel("muo", _defFileName, _instFileName);
         precalculateSearchIndex();
     }
 
-    private void addFileToModel(String fname) {
-        InputStream in = FileManager.get().open(fname);
-        if (in == null) {
-            throw new IllegalArgumentException("File: " + fname + " not found");
-        }
-        _model.read(in, "");
-    }
-
-    private void uploadModel() {
-        _model = ModelFactory.createDefaultModel();
-        this.addFileToModel(_defFileName);
-        this.addFileToModel(_instFileName);
-    }
-
     public Map<Resource, List<String>> getAllPrefixes() {
-        String query =
-                "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "PREFIX uomvoc: <" + this.MUOURI + "> "
-                + "SELECT DISTINCT ?subject ?symbol "
-                + "WHERE {  ?subject rdf:type uomvoc:Prefix. {?subject uomvoc:prefSymbol ?symbol} UNION {?subject uomvoc:altSymbol ?symbol}}";
-
-        QueryExecution qexec = QueryExecutionFactory.create(query, this._model);
-        ResultSet qResults = qexec.execSelect();
+        ResultSet qResults = PREFIXES.execSelect(this._model);
 
         //working with text
         HashMap<Resource, List<String>> results = new HashMap<>();
@@ -83,16 +75,7 @@ public class MUOOntologyAccessor {
     }
 
     public Map<Resource, List<String>> getAllUnits() {
-        String query =
-                "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
-                + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
-                + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
-                + "PREFIX uomvoc: <" + MUOOntologyAccessor.MUOURI + "> "
-                + "SELECT DISTINCT ?subject ?symbol "
-                + "WHERE {  ?subject rdf:type uomvoc:UnitOfMeasurement. {?subject uomvoc:prefSymbol ?symbol} UNION {?subject uomvoc:altSymbol ?symbol}}";
-
-        QueryExecution qexec = QueryExecutionFactory.create(query, this._model);
-        ResultSet qResults = qexec.execSelect();
+        ResultSet qResults = UNITS.execSelect(this._model);
 
         HashMap<Resource, List<String>> results = new HashMap<>();
         while (qResults.hasNext()) {
@@ -108,54 +91,199 @@ public class MUOOntologyAccessor {
         }
         return results;
     }
-    private PrefixTree<Resource> prefixesIndex;
-    private PrefixTree<Resource> unitsIndex;
+    // symbols and the identifiers of the prefixes or units having them
+    private final IdDictionary _resources = new IdDictionary(); // URIs of the prefixes and the units
+    private final IdDictionary _prefixSymbols = new IdDictionary();
+    private HEPLabelIndex.Postings _prefixResources;
+    private final IdDictionary _unitSymbols = new IdDictionary();
+    private HEPLabelIndex.Postings _unitResources;
+    // tries of the symbols, walked together by decodeUnit
+    private SymbolTrie _prefixTrie;
+    private SymbolTrie _unitTrie;
+    // prefixed units created so far: (prefix << 32 | unit) -> resource, URI -> prefix << 32 | unit
+    private final ConcurrentHashMap<Long, Resource> _prefixedUnits = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> _prefixedUnitParts = new ConcurrentHashMap<>();
+
+    /**
+     * A trie of symbols stored in flat arrays, each node keeps the identifier
+     * of the symbol ending in it or -1
+     */
+    private static final class SymbolTrie {
+
+        private char[] _chars = new char[64]; // node -> character of the edge leading to it
+        private int[] _firstChild = new int[64];
+        private int[] _nextSibling = new int[64];
+        private int[] _symbols = new int[64];
+        private int _size = 1; // the root is the node 0
+
+        SymbolTrie(IdDictionary symbols) {
+            Arrays.fill(_firstChild, -1);
+            Arrays.fill(_symbols, -1);
+            for (int id = 0; id < symbols.size(); ++id) {
+                String symbol = symbols.get(id);
+                int node = 0;
+                for (int i = 0; i < symbol.length(); ++i) {
+                    int next = child(node, symbol.charAt(i));
+                    node = next == -1 ? addChild(node, symbol.charAt(i)) : next;
+                }
+                _symbols[node] = id;
+            }
+        }
+
+        private int addChild(int node, char c) {
+            if (_size == _chars.length) {
+                int capacity = 2 * _size;
+                _chars = Arrays.copyOf(_chars, capacity);
+                _nextSibling = Arrays.copyOf(_nextSibling, capacity);
+                _firstChild = Arrays.copyOf(_firstChild, capacity);
+                _symbols = Arrays.copyOf(_symbols, capacity);
+                Arrays.fill(_firstChild, _size, capacity, -1);
+                Arrays.fill(_symbols, _size, capacity, -1);
+            }
+            int child = _size++;
+            _chars[child] = c;
+            _nextSibling[child] = _firstChild[node];
+            _firstChild[node] = child;
+            return child;
+        }
+
+        /**
+         * @return the child of the node reached by the character or -1
+         */
+        int child(int node, char c) {
+            int child = _firstChild[node];
+            while (child != -1 && _chars[child] != c) {
+                child = _nextSibling[child];
+            }
+            return child;
+        }
+
+        /**
+         * @return the identifier of the symbol ending in the node or -1
+         */
+        int symbol(int node) {
+            return _symbols[node];
+        }
+    }
 
-    private PrefixTree<Resource> indexSymbols(Map<Resource, List<String>> symbols) {
-        PrefixTree<Resource> result = new PrefixTree<>();
+    private HEPLabelIndex.Postings indexSymbols(Map<Resource, List<String>> symbols, IdDictionary symbolIds) {
+        List<int[]> result = new ArrayList<>();
         int numErrors = 0;
         for (Resource res : symbols.keySet()) {
+            int resource = _resources.add(res.getURI());
             for (String symbol : symbols.get(res)) {
-                List<Resource> collisions = result.getStringObjects(symbol);
-                if (collisions.size() > 0) {
-                    System.out.println("    " + res.getURI() + " collides with " + collisions.get(0).getURI());
+                int id = symbolIds.add(symbol);
+                if (id == result.size()) {
+                    result.add(new int[0]);
+                }
+                int[] collisions = result.get(id);
+                if (collisions.length > 0) {
+                    System.out.println("    " + res.getURI() + " collides with " + _resources.get(collisions[0]));
                     numErrors++;
                 }
-                result.addString(symbol, res);
-
+                collisions = Arrays.copyOf(collisions, collisions.length + 1);
+                collisions[collisions.length - 1] = resource;
+                result.set(id, collisions);
             }
         }
         if (numErrors > 0) {
             System.out.println("Encountered collisions among the symbols ! (" + numErrors + ")");
         }
 
-        return result;
+        return HEPLabelIndex.Postings.of(result);
     }
 
     private void precalculateSearchIndex() {
-        this.prefixesIndex = indexSymbols(this.getAllPrefixes());
-        this.unitsIndex = indexSymbols(this.getAllUnits());
+        _prefixResources = indexSymbols(this.getAllPrefixes(), _prefixSymbols);
+        _unitResources = indexSymbols(this.getAllUnits(), _unitSymbols);
+        _prefixTrie = new SymbolTrie(_prefixSymbols);
+        _unitTrie = new SymbolTrie(_unitSymbols);
+    }
+
+    private Resource getResource(int id) {
+        return ResourceFactory.createResource(_resources.get(id));
     }
 
+    /**
+     * Finds all the ways of reading the word as a unit symbol preceded by an
+     * optional prefix symbol
+     *
+     * @return pairs of the prefix (null if there is none) and the unit, the
+     * unit without a prefix first
+     */
     public List<Pair<Resource, Resource>> annotateWordWithUnits(String word) {
+        LinkedList<Pair<Resource, Resource>> result = new LinkedList<>();
+        int[] decoded = decodeUnit(word, 0, word.length());
+        for (int i = 0; i < decoded.length; i += 2) {
+            result.add(new Pair<>(decoded[i] == -1 ? null : getResource(decoded[i]), getResource(decoded[i + 1])));
+        }
+        return result;
+    }
 
-        for (int prefixLen = 0; prefixLen < word.length(); ++prefixLen) {
-            // trying to match a prefix of a given length and the unit at the same time
-            String prefixCandidate = word.substring(0, prefixLen);
-            String unitCandidate = word.substring(prefixLen);
-            List<Resource> prefixes = this.prefixesIndex.getStringObjects(prefixCandidate);
-            List<Resource> units = this.unitsIndex.getStringObjects(unitCandidate);
-            if ((!prefixes.isEmpty() || prefixLen == 0) && !units.isEmpty()) {
-                // we can have only one match with prefix and many with units
-                LinkedList<Pair<Resource, Resource>> result = new LinkedList<>();
-                for (Resource unit : units) {
-                    result.add(new Pair<>(prefixLen == 0 ? null : prefixes.get(0), unit));
+    /**
+     * Decodes the fragment start..end of the text as prefix and unit symbols
+     * in one left to right walk: the prefix trie is followed from the first
+     * character and every prefix ending on the way starts a walk in the unit
+     * trie, next to the walk of the unit without a prefix.
+     *
+     * @return identifiers of the resources, as pairs of the prefix (-1 if
+     * there is none) and the unit, one pair for every decomposition
+     */
+    private int[] decodeUnit(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return new int[0];
+        }
+        // walks in the unit trie: the current node and the prefix symbol read before the unit
+        int[] unitNodes = new int[length];
+        int[] walkPrefixes = new int[length];
+        int numWalks = 1;
+        unitNodes[0] = 0;
+        walkPrefixes[0] = -1;
+        int prefixNode = 0;
+        for (int i = start; i < end; ++i) {
+            char c = text.charAt(i);
+            int kept = 0;
+            for (int w = 0; w < numWalks; ++w) {
+                int node = _unitTrie.child(unitNodes[w], c);
+                if (node != -1) {
+                    unitNodes[kept] = node;
+                    walkPrefixes[kept] = walkPrefixes[w];
+                    kept++;
                 }
-                return result;
             }
-
+            numWalks = kept;
+            if (prefixNode != -1) {
+                prefixNode = _prefixTrie.child(prefixNode, c);
+                if (prefixNode != -1 && _prefixTrie.symbol(prefixNode) != -1 && i + 1 < end) {
+                    unitNodes[numWalks] = 0;
+                    walkPrefixes[numWalks] = _prefixTrie.symbol(prefixNode);
+                    numWalks++;
+                }
+            }
+            if (numWalks == 0 && prefixNode == -1) {
+                return new int[0];
+            }
         }
-        return new LinkedList<>();
+        int[] result = new int[0];
+        for (int w = 0; w < numWalks; ++w) {
+            int unit = _unitTrie.symbol(unitNodes[w]);
+            if (unit == -1) {
+                continue;
+            }
+            int prefix = walkPrefixes[w];
+            // a prefix symbol denotes one prefix, a unit symbol can denote many units
+            int prefixResource = prefix == -1 ? -1 : _prefixResources.ids[_prefixResources.offsets[prefix]];
+            int from = _unitResources.offsets[unit];
+            int to = _unitResources.offsets[unit + 1];
+            int size = result.length;
+            result = Arrays.copyOf(result, size + 2 * (to - from));
+            for (int i = from; i < to; ++i) {
+                result[size++] = prefixResource;
+                result[size++] = _unitResources.ids[i];
+            }
+        }
+        return result;
     }
 
     private static List<String> expandBrackets(List<String> strings) {
@@ -175,8 +303,100 @@ public class MUOOntologyAccessor {
         return results;
     }
 
+    /**
+     * @return true if the whole word is a number, as recognised by scanNumber
+     */
     public static boolean isNumber(String word) {
-        return word.matches("[0-9]*\\.?[0-9]*") && word.length() > 0 && !word.equals(".");
+        return isNumber(word, 0, word.length());
+    }
+
+    /**
+     * @return true if start..end of the text is a number
+     */
+    private static boolean isNumber(CharSequence text, int start, int end) {
+        return end > start && scanNumber(text, start, end) == end;
+    }
+
+    private static boolean isDigit(CharSequence text, int i, int end) {
+        return i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9';
+    }
+
+    private static boolean isSign(CharSequence text, int i, int end) {
+        return i < end && (text.charAt(i) == '+' || text.charAt(i) == '-' || text.charAt(i) == '\u2212');
+    }
+
+    /**
+     * Reads a number at the beginning of start..end of the text in a single
+     * pass. The recognised numbers are integers and decimals with an optional
+     * sign and an optional exponent: 12, -3, 234., .1, 1.3e-5, +2E3. A
+     * following "e" which does not start an exponent, as in 5eV, is left for
+     * the unit.
+     *
+     * @return the offset following the number, start if there is no number
+     */
+    public static int scanNumber(CharSequence text, int start, int end) {
+        int i = start;
+        if (isSign(text, i, end)) {
+            ++i;
+        }
+        int digits = 0;
+        while (isDigit(text, i, end)) {
+            ++i;
+            ++digits;
+        }
+        if (i < end && text.charAt(i) == '.') {
+            int j = i + 1;
+            while (isDigit(text, j, end)) {
+                ++j;
+            }
+            digits += j - i - 1;
+            if (digits > 0) {
+                i = j; // a dot alone is not a number
+            }
+        }
+        if (digits == 0) {
+            return start;
+        }
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            int j = i + 1;
+            if (isSign(text, j, end)) {
+                ++j;
+            }
+            if (isDigit(text, j, end)) {
+                while (isDigit(text, j, end)) {
+                    ++j;
+                }
+                i = j;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Selects the part of the word start..end of the text, which can denote a
+     * unit, in the same way as filterWords does
+     *
+     * @param range receives the start and the end of the selected part and,
+     * at the position 2, the start of the word to be treated as the previous
+     * word by the next call
+     * @return true if a part was selected
+     */
+    private static boolean selectUnitCandidate(CharSequence text, int start, int end, boolean afterNumber, int[] range) {
+        boolean selected = afterNumber; // we support only the standard notation, for simplicity
+        int numberEnd = scanNumber(text, start, end);
+        if (numberEnd > start && numberEnd < end) {
+            start = numberEnd; // a value written together with its unit: 10GeV
+            selected = true;
+        }
+        range[0] = start;
+        range[1] = end;
+        range[2] = start;
+        if (end - start >= 2 && text.charAt(start) == '[' && text.charAt(end - 1) == ']') {
+            range[0] = start + 1;
+            range[1] = end - 1;
+            selected = true;
+        }
+        return selected;
     }
 
     /**
@@ -187,58 +407,113 @@ public class MUOOntologyAccessor {
      * @param words
      * @return
      */
-    @SuppressWarnings("empty-statement")
     public static List<String> filterWords(List<String> words) {
         LinkedList<String> result = new LinkedList<>();
-        String previous = "";
+        int[] range = new int[3];
+        boolean afterNumber = false;
         for (String word : words) {
-            String toAdd = null;
-            if (MUOOntologyAccessor.isNumber(previous)) { // we support only the standard notation, for simplicity
-                toAdd = word;
-            }
-            int i;
-            for (i = 0; i < word.length() && MUOOntologyAccessor.isNumber(word.substring(0, i + 1)); ++i);
-
-            if (i > 0 && i < word.length()) {
-                toAdd = word.substring(i);
-                word = toAdd;
-            }
-
-            if ((word.startsWith("[") && word.endsWith("]"))) {
-                toAdd = word.substring(1, word.length() - 1);
-            }
-
-            if (toAdd != null) {
-                result.add(toAdd);
+            if (selectUnitCandidate(word, 0, word.length(), afterNumber, range)) {
+                result.add(word.substring(range[0], range[1]));
             }
-            previous = word;
+            afterNumber = isNumber(word, range[2], word.length());
         }
         return result;
     }
 
     /**
      * Creating new unit which is a result of adding a given prefix before the
-     * given unit
+     * given unit. The URI of the new unit is the URI of the unit with the name
+     * of the prefix added before its last segment (.../meter becomes
+     * .../kilometer) and the same resource is returned for the same pair.
+     * describeUnit writes its definition into a model.
      *
-     * @param prefix
-     * @param unit
+     * @param prefix a prefix of this ontology
+     * @param unit a unit of this ontology
      * @return
      */
     public Resource createPrefixedResource(Resource prefix, Resource unit) {
-        return unit; // for the moment, we only return the existing basic unit
+        int prefixId = _resources.getId(prefix.getURI());
+        int unitId = _resources.getId(unit.getURI());
+        if (prefixId == -1 || unitId == -1) {
+            throw new IllegalArgumentException("Unknown prefix " + prefix.getURI() + " or unit " + unit.getURI());
+        }
+        return createPrefixedResource(prefixId, unitId);
+    }
+
+    private Resource createPrefixedResource(int prefix, int unit) {
+        Long key = ((long) prefix << 32) | unit;
+        Resource result = _prefixedUnits.get(key);
+        if (result == null) {
+            String prefixURI = _resources.get(prefix);
+            String unitURI = _resources.get(unit);
+            int unitNameStart = Math.max(unitURI.lastIndexOf('/'), unitURI.lastIndexOf('#')) + 1;
+            String prefixName = prefixURI.substring(Math.max(prefixURI.lastIndexOf('/'), prefixURI.lastIndexOf('#')) + 1);
+            result = ResourceFactory.createResource(unitURI.substring(0, unitNameStart) + prefixName + unitURI.substring(unitNameStart));
+            _prefixedUnitParts.putIfAbsent(result.getURI(), key);
+            Resource previous = _prefixedUnits.putIfAbsent(key, result);
+            if (previous != null) {
+                result = previous;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the prefix and the unit from which a unit created by
+     * createPrefixedResource derives, or null for the units of the ontology
+     */
+    public Resource[] getPrefixedUnitParts(Resource unit) {
+        Long key = _prefixedUnitParts.get(unit.getURI());
+        if (key == null) {
+            return null;
+        }
+        return new Resource[]{getResource((int) (key >>> 32)), getResource((int) (long) key)};
+    }
+
+    /**
+     * Returns the statements defining a unit created by createPrefixedResource:
+     * its type, the unit it derives from and its prefix. Nothing is returned
+     * for the units of the ontology or if the model already defines the unit.
+     *
+     * @param unit the unit
+     * @param model the model into which the statements are going to be added,
+     * the caller has to hold its lock
+     */
+    public List<Statement> describeUnit(Resource unit, Model model) {
+        Long key = _prefixedUnitParts.get(unit.getURI());
+        if (key == null || model.contains(unit, RDF.type)) {
+            return Collections.emptyList();
+        }
+        List<Statement> result = new ArrayList<>(3);
+        result.add(ResourceFactory.createStatement(unit, RDF.type, ResourceFactory.createResource(MUOURI + "UnitOfMeasurement")));
+        result.add(ResourceFactory.createStatement(unit, ResourceFactory.createProperty(MUOURI, "derivesFrom"), getResource((int) (long) key)));
+        result.add(ResourceFactory.createStatement(unit, ResourceFactory.createProperty(MUOURI, "modifierPrefix"), getResource((int) (key >>> 32))));
+        return result;
     }
 
     public Set<Resource> annotateStringWithUnits(String toMatch) {
+        return annotateTokensWithUnits(new Tokeniser().tokenise(toMatch));
+    }
+
+    /**
+     * Finds the units mentioned in a text split into words separated by white
+     * space. Only the words selected as filterWords does are looked up and no
+     * strings are created for them.
+     */
+    public Set<Resource> annotateTokensWithUnits(Tokeniser tokens) {
         HashSet<Resource> results = new HashSet<>();
-        List<String> words = TextUtils.tokeniseString(toMatch);
-        words = filterWords(words);
-        for (String word : words) {
-            List<Pair<Resource, Resource>> res = this.annotateWordWithUnits(word);
-            for (Pair<Resource, Resource> p : res) {
-                results.add(p.first == null ? p.second : createPrefixedResource(p.first, p.second));
+        CharSequence text = tokens.getText();
+        int[] range = new int[3];
+        boolean afterNumber = false;
+        for (int i = 0; i < tokens.size(); ++i) {
+            if (selectUnitCandidate(text, tokens.start(i), tokens.end(i), afterNumber, range)) {
+                int[] decoded = decodeUnit(text, range[0], range[1]);
+                for (int j = 0; j < decoded.length; j += 2) {
+                    results.add(decoded[j] == -1 ? getResource(decoded[j + 1]) : createPrefixedResource(decoded[j], decoded[j + 1]));
+                }
             }
+            afterNumber = isNumber(text, range[2], tokens.end(i));
         }
-
         return results;
     }
 
@@ -0,0 +1,318 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the named counters and timers measuring the upload and the
+ * queries, for example "upload.parse", "annotation.hep" or
+ * "query.generalAnnotationNotions". The metrics are created on first use and
+ * can be updated from many threads without locking. The gauges, for example
+ * "cache.entries", are read from the measured objects and published together
+ * with the counters.
+ *
+ * The metrics are published through JMX (see MetricsMXBean) and can be
+ * written periodically to the log by startReporter.
+ *
+ * @author piotr
+ */
+public class Metrics {
+
+    public static final String OBJECT_NAME = "org.inveniosoftware.inveniosemantics:type=Metrics";
+    private static final ConcurrentHashMap<String, AtomicLong> _counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Timer> _timers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Gauge> _gauges = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService _reporter;
+
+    private Metrics() {
+    }
+
+    /**
+     * Current value of a measured object, read whenever the metrics are
+     */
+    public interface Gauge {
+
+        long getValue();
+    }
+
+    /**
+     * Latency histogram with buckets of powers of two nanoseconds
+     */
+    public static class Timer {
+
+        private static final int BUCKETS = 64;
+        private final AtomicLong _count = new AtomicLong();
+        private final AtomicLong _totalNanos = new AtomicLong();
+        private final AtomicLong _maxNanos = new AtomicLong();
+        private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS); // bucket i counts the durations from 2^i to 2^(i+1) ns
+
+        /**
+         * Records a duration measured with System.nanoTime
+         */
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            _count.incrementAndGet();
+            _totalNanos.addAndGet(nanos);
+            _buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos) - 1 + (nanos == 0 ? 1 : 0));
+            for (long max = _maxNanos.get(); nanos > max && !_maxNanos.compareAndSet(max, nanos); max = _maxNanos.get()) {
+            }
+        }
+
+        /**
+         * Records the time elapsed since the given value of System.nanoTime
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return _count.get();
+        }
+
+        public long getTotalNanos() {
+            return _totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return _maxNanos.get();
+        }
+
+        public double getMeanMillis() {
+            long count = _count.get();
+            return count == 0 ? 0 : _totalNanos.get() / 1e6 / count;
+        }
+
+        /**
+         * @return the upper bound of the bucket containing the given quantile,
+         * in milliseconds (at most twice the exact value)
+         */
+        public double getQuantileMillis(double quantile) {
+            long count = _count.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += _buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(Math.pow(2, i + 1), _maxNanos.get()) / 1e6;
+                }
+            }
+            return _maxNanos.get() / 1e6;
+        }
+
+        void reset() {
+            _count.set(0);
+            _totalNanos.set(0);
+            _maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; ++i) {
+                _buckets.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * @return the counter with the given name
+     */
+    public static AtomicLong counter(String name) {
+        AtomicLong counter = _counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = _counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return the timer with the given name
+     */
+    public static Timer timer(String name) {
+        Timer timer = _timers.get(name);
+        if (timer == null) {
+            Timer created = new Timer();
+            timer = _timers.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Registers the gauge under the given name, replacing the previous one
+     */
+    public static void gauge(String name, Gauge gauge) {
+        _gauges.put(name, gauge);
+    }
+
+    /**
+     * @return the values of the counters and of the gauges, sorted by name
+     */
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : _counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : _gauges.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @return the timers, sorted by name
+     */
+    public static Map<String, Timer> getTimers() {
+        return new TreeMap<>(_timers);
+    }
+
+    /**
+     * Sets all the counters and timers to zero. The gauges keep following
+     * their objects.
+     */
+    public static void reset() {
+        for (AtomicLong counter : _counters.values()) {
+            counter.set(0);
+        }
+        for (Timer timer : _timers.values()) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * @return a human readable summary of all the metrics
+     */
+    public static String summary() {
+        StringBuilder result = new StringBuilder("Metrics:");
+        for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+            Timer t = entry.getValue();
+            result.append(String.format("%n   %-40s count %9d  total %10.1f ms  mean %8.3f ms  p99 %8.3f ms  max %8.3f ms",
+                    entry.getKey(), t.getCount(), t.getTotalNanos() / 1e6, t.getMeanMillis(), t.getQuantileMillis(0.99), t.getMaxNanos() / 1e6));
+        }
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            result.append(String.format("%n   %-40s %d", entry.getKey(), entry.getValue()));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server under OBJECT_NAME.
+     * Does nothing if they are already registered.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), name);
+            }
+        } catch (JMException ex) {
+            System.err.println("Could not register the metrics in JMX: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Starts writing the summary of the metrics to the log every given number
+     * of seconds, in a daemon thread. Replaces the previous reporter.
+     */
+    public static synchronized void startReporter(long periodSeconds) {
+        stopReporter();
+        _reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                Logger.getLogger(Metrics.class.getName()).info(summary());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic summary
+     */
+    public static synchronized void stopReporter() {
+        if (_reporter != null) {
+            _reporter.shutdownNow();
+            _reporter = null;
+        }
+    }
+
+    /**
+     * The JMX view of the registry
+     */
+    private static class MetricsBean implements MetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return Metrics.getCounters();
+        }
+
+        @Override
+        public Map<String, Long> getTimerCounts() {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+                result.put(entry.getKey(), entry.getValue().getCount());
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Double> getTotalMillis() {
+            Map<String, Double> result = new TreeMap<>();
+            for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+                result.put(entry.getKey(), entry.getValue().getTotalNanos() / 1e6);
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Double> getMeanMillis() {
+            Map<String, Double> result = new TreeMap<>();
+            for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+                result.put(entry.getKey(), entry.getValue().getMeanMillis());
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Double> getP99Millis() {
+            Map<String, Double> result = new TreeMap<>();
+            for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+                result.put(entry.getKey(), entry.getValue().getQuantileMillis(0.99));
+            }
+            return result;
+        }
+
+        @Override
+        public String getSummary() {
+            return summary();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.util.Map;
+
+/**
+ * The metrics of the upload and the queries as published through JMX, keyed
+ * by the names of the metrics
+ *
+ * @author piotr
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getTimerCounts();
+
+    Map<String, Double> getTotalMillis();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getP99Millis();
+
+    String getSummary();
+
+    void reset();
+}
@@ -0,0 +1,161 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.query.ARQ;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.sparql.algebra.Algebra;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.core.DatasetGraphFactory;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ResultSetStream;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.engine.main.QueryEngineMain;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A SELECT query parsed, compiled to the SPARQL algebra and optimised once,
+ * which can be executed many times with different values of its variables.
+ *
+ * The values are passed as initial bindings instead of being spliced into the
+ * text of the query, so they do not need any escaping. Instances are immutable
+ * and can be shared between threads.
+ *
+ * Every execution is measured by the timer "query." followed by the name of
+ * the query. The results are computed lazily, so the measured time is the
+ * time spent in the result set until it is exhausted; the executions whose
+ * results are not read to the end are not recorded.
+ *
+ * @author piotr
+ */
+public class PreparedQuery {
+
+    private final String _name;
+    private final Query _query;
+    private final Op _op;
+    private final Metrics.Timer _timer;
+
+    /**
+     * @param name name of the query, used in the messages
+     * @param text complete text of the query
+     */
+    public PreparedQuery(String name, String text) {
+        _name = name;
+        _query = QueryFactory.create(text);
+        if (!_query.isSelectType()) {
+            throw new IllegalArgumentException("The query " + name + " is not a SELECT query");
+        }
+        _op = Algebra.optimize(Algebra.compile(_query));
+        _timer = Metrics.timer("query." + name);
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Executes the query without any bound variables
+     */
+    public ResultSet execSelect(Model model) {
+        return execSelect(model, null);
+    }
+
+    /**
+     * Executes the query
+     *
+     * @param model model to be queried
+     * @param bindings values of the variables of the query (for example a
+     * QuerySolutionMap) or null
+     */
+    public ResultSet execSelect(Model model, QuerySolution bindings) {
+        long start = System.nanoTime();
+        Binding binding = new BindingMap();
+        if (bindings != null) {
+            for (Iterator<String> names = bindings.varNames(); names.hasNext();) {
+                String name = names.next();
+                binding.add(Var.alloc(name), bindings.get(name).asNode());
+            }
+        }
+        QueryEngineMain engine = new QueryEngineMain(_op, DatasetGraphFactory.create(model.getGraph()), binding, ARQ.getContext().copy());
+        ResultSet results = new ResultSetStream(_query.getResultVars(), model, engine.getPlan().iterator());
+        return new TimedResultSet(results, System.nanoTime() - start);
+    }
+
+    /**
+     * Result set adding the time spent in it to the timer of the query when
+     * it is exhausted
+     */
+    private class TimedResultSet implements ResultSet {
+
+        private final ResultSet _results;
+        private long _nanos;
+        private boolean _recorded;
+
+        TimedResultSet(ResultSet results, long setupNanos) {
+            _results = results;
+            _nanos = setupNanos;
+        }
+
+        @Override
+        public boolean hasNext() {
+            long start = System.nanoTime();
+            boolean hasNext = _results.hasNext();
+            _nanos += System.nanoTime() - start;
+            if (!hasNext && !_recorded) {
+                _recorded = true;
+                _timer.record(_nanos);
+            }
+            return hasNext;
+        }
+
+        @Override
+        public QuerySolution next() {
+            return nextSolution();
+        }
+
+        @Override
+        public QuerySolution nextSolution() {
+            long start = System.nanoTime();
+            QuerySolution solution = _results.nextSolution();
+            _nanos += System.nanoTime() - start;
+            return solution;
+        }
+
+        @Override
+        public Binding nextBinding() {
+            long start = System.nanoTime();
+            Binding binding = _results.nextBinding();
+            _nanos += System.nanoTime() - start;
+            return binding;
+        }
+
+        @Override
+        public int getRowNumber() {
+            return _results.getRowNumber();
+        }
+
+        @Override
+        public List<String> getResultVars() {
+            return _results.getResultVars();
+        }
+
+        @Override
+        public Model getResourceModel() {
+            return _results.getResourceModel();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("The results of a query cannot be removed");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return _name + ": " + _query.serialize();
+    }
+}
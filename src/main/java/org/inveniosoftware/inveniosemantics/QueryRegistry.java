@@ -0,0 +1,53 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the named SPARQL queries used by the accessors. Every query is
+ * prepared once, when it is registered, with the common PREFIX declarations.
+ *
+ * @author piotr
+ */
+public class QueryRegistry {
+
+    public static final String PREFIXES =
+            "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "
+            + "PREFIX owl: <http://www.w3.org/2002/07/owl#> "
+            + "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> "
+            + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
+            + "PREFIX hfo: <http://www.semanticweb.org/ontologies/invenio/inveniomodel.owl#> "
+            + "PREFIX dc: <http://purl.org/dc/elements/1.1/> "
+            + "PREFIX hep: <" + HEPOntologyAccessor.NSURI + "> "
+            + "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "
+            + "PREFIX uomvoc: <" + MUOOntologyAccessor.MUOURI + "> ";
+    private static final ConcurrentHashMap<String, PreparedQuery> _queries = new ConcurrentHashMap<>();
+
+    private QueryRegistry() {
+    }
+
+    /**
+     * Prepares a query and registers it under the given name
+     *
+     * @param name unique name of the query
+     * @param body the query without the PREFIX declarations
+     * @return the prepared query
+     */
+    public static PreparedQuery register(String name, String body) {
+        PreparedQuery query = new PreparedQuery(name, PREFIXES + body);
+        if (_queries.putIfAbsent(name, query) != null) {
+            throw new IllegalArgumentException("The query " + name + " is already registered");
+        }
+        return query;
+    }
+
+    /**
+     * @return the query registered under the given name
+     */
+    public static PreparedQuery get(String name) {
+        PreparedQuery query = _queries.get(name);
+        if (query == null) {
+            throw new IllegalArgumentException("Unknown query " + name);
+        }
+        return query;
+    }
+}
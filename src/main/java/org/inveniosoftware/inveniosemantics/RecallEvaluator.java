@@ -0,0 +1,249 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Estimates how many of the resources found for a notion through the
+ * hierarchy of the HEP ontology are annotated with the notion itself.
+ *
+ * For every notion, the exact count is the number of resources annotated with
+ * it (as in InspireDatabase.searchForHEPNotion) and the hierarchical count is
+ * the number of resources annotated with the notion or a notion below it,
+ * together with the resources containing them (as in
+ * InspireDatabase.searchForHEPNotionHierarchy). The recall of the notion is
+ * the ratio of the two counts.
+ *
+ * The annotations are copied when the evaluator is created. The hierarchical
+ * sets are then computed bottom-up over the acyclic graph of the hierarchy,
+ * every node merging the sets of its children, so a set shared by many
+ * ancestors is computed once. The nodes are evaluated as fork/join tasks.
+ *
+ * @author piotr
+ */
+public class RecallEvaluator {
+
+    private static final int[] EMPTY = new int[0];
+    private final ConceptHierarchy _hierarchy;
+    private final HashMap<Resource, int[]> _exact = new HashMap<>(); // concept -> annotated resources
+    private final HashMap<Resource, int[]> _expanded = new HashMap<>(); // concept -> annotated resources and their containers
+    private final int[][] _nodeSets; // node -> resources annotated with its concepts and their containers
+    private final int _parallelism;
+
+    /**
+     * Counts of the resources found for a notion
+     */
+    public static class NotionRecall {
+
+        public final Resource notion;
+        public final int exact;
+        public final int hierarchical;
+
+        public NotionRecall(Resource notion, int exact, int hierarchical) {
+            this.notion = notion;
+            this.exact = exact;
+            this.hierarchical = hierarchical;
+        }
+
+        /**
+         * @return the ratio of the exact and hierarchical counts, 0 if nothing
+         * has been found
+         */
+        public double getRecall() {
+            return hierarchical == 0 ? 0 : (double) exact / hierarchical;
+        }
+    }
+
+    /**
+     * Copies the annotations of the index. The caller has to hold the read
+     * lock of the model.
+     *
+     * @param hierarchy closure of skos:broader
+     * @param index index of the annotated resources
+     * @param model model in which the containers of the resources
+     * (hfo:contains) are searched
+     * @param parallelism number of threads evaluating the notions
+     */
+    public RecallEvaluator(ConceptHierarchy hierarchy, FigureIndex index, Model model, int parallelism) {
+        _hierarchy = hierarchy;
+        _parallelism = parallelism;
+        _nodeSets = new int[hierarchy.getNodeCount()][];
+
+        Property contains = model.createProperty(InvenioOntologyAccessor.CONTAINS);
+        HashMap<Resource, Integer> containerIds = new HashMap<>(); // containers which are not indexed
+        HashMap<Integer, int[]> closures = new HashMap<>(); // resource -> resource and its containers
+        for (Resource concept : index.getConcepts()) {
+            int[] annotated = index.getConceptIds(concept.getURI());
+            int[] expanded = EMPTY;
+            for (int id : annotated) {
+                int[] closure = closures.get(id);
+                if (closure == null) {
+                    closure = containerClosure(index, model, contains, id, containerIds);
+                    closures.put(id, closure);
+                }
+                expanded = FigureIndex.or(expanded, closure);
+            }
+            _exact.put(concept, annotated);
+            _expanded.put(concept, expanded);
+            int node = hierarchy.getNode(concept.getURI());
+            if (node != -1) {
+                _nodeSets[node] = _nodeSets[node] == null ? expanded : FigureIndex.or(_nodeSets[node], expanded);
+            }
+        }
+    }
+
+    /**
+     * @return the sorted identifiers of the resource and all the resources
+     * containing it (hfo:contains*)
+     */
+    private static int[] containerClosure(FigureIndex index, Model model, Property contains, int id, HashMap<Resource, Integer> containerIds) {
+        List<Integer> result = new ArrayList<>();
+        LinkedList<Resource> toVisit = new LinkedList<>();
+        HashSet<Resource> visited = new HashSet<>();
+        toVisit.add(index.getResource(id));
+        while (!toVisit.isEmpty()) {
+            Resource r = toVisit.removeFirst();
+            if (visited.add(r)) {
+                int rid = index.getId(r);
+                if (rid == -1) {
+                    Integer cid = containerIds.get(r);
+                    if (cid == null) {
+                        cid = index.size() + containerIds.size();
+                        containerIds.put(r, cid);
+                    }
+                    rid = cid;
+                }
+                result.add(rid);
+                ResIterator containers = model.listSubjectsWithProperty(contains, r);
+                while (containers.hasNext()) {
+                    toVisit.add(containers.nextResource());
+                }
+            }
+        }
+        int[] closure = new int[result.size()];
+        for (int i = 0; i < closure.length; ++i) {
+            closure[i] = result.get(i);
+        }
+        Arrays.sort(closure);
+        return closure;
+    }
+
+    /**
+     * Union of the sets of a node and all the nodes below it
+     */
+    private class NodeTask extends RecursiveTask<int[]> {
+
+        private static final long serialVersionUID = 1L;
+        private final int _node;
+        private final AtomicReferenceArray<NodeTask> _tasks;
+
+        NodeTask(int node, AtomicReferenceArray<NodeTask> tasks) {
+            _node = node;
+            _tasks = tasks;
+        }
+
+        @Override
+        protected int[] compute() {
+            int[] children = _hierarchy.getChildNodes(_node);
+            List<NodeTask> subtasks = new ArrayList<>(children.length);
+            for (int child : children) {
+                subtasks.add(task(child, _tasks));
+            }
+            int[] result = _nodeSets[_node] == null ? EMPTY : _nodeSets[_node];
+            for (NodeTask subtask : subtasks) {
+                result = FigureIndex.or(result, subtask.join());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return the task of the node, which is created and forked by the first
+     * caller
+     */
+    private NodeTask task(int node, AtomicReferenceArray<NodeTask> tasks) {
+        NodeTask task = tasks.get(node);
+        if (task == null) {
+            NodeTask created = new NodeTask(node, tasks);
+            if (tasks.compareAndSet(node, null, created)) {
+                created.fork();
+                return created;
+            }
+            task = tasks.get(node);
+        }
+        return task;
+    }
+
+    /**
+     * Computes the counts of the given notions
+     *
+     * @return the counts in the order of the notions
+     */
+    public List<NotionRecall> evaluate(Collection<Resource> notions) {
+        final List<Resource> ordered = new ArrayList<>(notions);
+        final NotionRecall[] result = new NotionRecall[ordered.size()];
+        final AtomicReferenceArray<NodeTask> tasks = new AtomicReferenceArray<>(_nodeSets.length);
+        ForkJoinPool pool = new ForkJoinPool(_parallelism);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    NodeTask[] notionTasks = new NodeTask[ordered.size()];
+                    for (int i = 0; i < ordered.size(); ++i) {
+                        int node = _hierarchy.getNode(ordered.get(i).getURI());
+                        if (node != -1) {
+                            notionTasks[i] = task(node, tasks);
+                        }
+                    }
+                    for (int i = 0; i < ordered.size(); ++i) {
+                        Resource notion = ordered.get(i);
+                        int[] exact = _exact.get(notion);
+                        int[] hierarchical = notionTasks[i] != null ? notionTasks[i].join() : _expanded.get(notion);
+                        result[i] = new NotionRecall(notion, exact == null ? 0 : exact.length, hierarchical == null ? 0 : hierarchical.length);
+                    }
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * @return the average recall of the notions for which something has been
+     * found through the hierarchy, 0 if there is none
+     */
+    public static double averageRecall(List<NotionRecall> recalls) {
+        double sum = 0;
+        int num = 0;
+        for (NotionRecall recall : recalls) {
+            if (recall.hierarchical > 0) {
+                sum += recall.getRecall();
+                num++;
+            }
+        }
+        return num == 0 ? 0 : sum / num;
+    }
+
+    /**
+     * Writes one line per notion: its URI, the exact count, the hierarchical
+     * count and the recall, separated by tabulators
+     */
+    public static void writeReport(List<NotionRecall> recalls, Writer out) throws IOException {
+        out.write("notion\texact\thierarchical\trecall\n");
+        for (NotionRecall recall : recalls) {
+            out.write(recall.notion.getURI() + "\t" + recall.exact + "\t" + recall.hierarchical + "\t"
+                    + String.format(Locale.ROOT, "%.4f", recall.getRecall()) + "\n");
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,239 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of the results of the searches, keyed by the name
+ * of the search and its parameters.
+ *
+ * The cache is registered as a listener of the model: every added or removed
+ * statement starts a new write epoch. A result is stored with the epoch
+ * read before it was computed and returned only while the epoch has not
+ * changed, so a search never sees a result older than the last modification.
+ * The results of the previous epochs are dropped at once.
+ *
+ * The cache is bounded by the number of entries and by their total weight,
+ * which is the number of elements of the results. The hits, misses, evictions
+ * and the current size are published as the metrics "cache.*"; the size is
+ * the sum over all the caches which have not been garbage collected.
+ *
+ * @author piotr
+ */
+public class ResultCache extends StatementListener {
+
+    private static final AtomicLong HITS = Metrics.counter("cache.hits");
+    private static final AtomicLong MISSES = Metrics.counter("cache.misses");
+    private static final AtomicLong EVICTIONS = Metrics.counter("cache.evictions");
+    private static final AtomicLong INVALIDATIONS = Metrics.counter("cache.invalidations");
+    private static final Set<ResultCache> LIVE_CACHES = Collections.newSetFromMap(new WeakHashMap<ResultCache, Boolean>());
+
+    static {
+        Metrics.gauge("cache.entries", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long entries = 0;
+                for (ResultCache cache : liveCaches()) {
+                    entries += cache.size();
+                }
+                return entries;
+            }
+        });
+        Metrics.gauge("cache.weight", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long weight = 0;
+                for (ResultCache cache : liveCaches()) {
+                    weight += cache.getWeight();
+                }
+                return weight;
+            }
+        });
+    }
+    private final int _maxEntries;
+    private final long _maxWeight;
+    private final AtomicLong _epoch = new AtomicLong();
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true); // in the order of access
+    private long _entriesEpoch; // epoch of all the entries
+    private long _weight;
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    private static class Entry {
+
+        final Object value;
+        final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param maxEntries maximal number of cached results, 0 disables the
+     * cache
+     * @param maxWeight maximal total number of elements of the cached results
+     */
+    public ResultCache(int maxEntries, long maxWeight) {
+        _maxEntries = maxEntries;
+        _maxWeight = maxWeight;
+        synchronized (LIVE_CACHES) {
+            LIVE_CACHES.add(this);
+        }
+    }
+
+    private static List<ResultCache> liveCaches() {
+        synchronized (LIVE_CACHES) {
+            return new ArrayList<>(LIVE_CACHES);
+        }
+    }
+
+    /**
+     * @return the current write epoch, which has to be read before computing
+     * a result passed to put
+     */
+    public long getEpoch() {
+        return _epoch.get();
+    }
+
+    /**
+     * Starts a new write epoch, making all the cached results stale
+     */
+    public void invalidate() {
+        _epoch.incrementAndGet();
+    }
+
+    @Override
+    public void addedStatement(Statement s) {
+        invalidate();
+    }
+
+    @Override
+    public void removedStatement(Statement s) {
+        invalidate();
+    }
+
+    /**
+     * @return the result cached under the key in the current epoch or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(String key) {
+        dropStaleEntries(_epoch.get());
+        Entry entry = _entries.get(key);
+        if (entry == null) {
+            _misses++;
+            MISSES.incrementAndGet();
+            return null;
+        }
+        _hits++;
+        HITS.incrementAndGet();
+        return (T) entry.value;
+    }
+
+    /**
+     * Caches a result, unless the model has been modified since the given
+     * epoch or the result is heavier than the whole cache
+     *
+     * @param epoch the epoch read before computing the result
+     * @param weight number of elements of the result
+     */
+    public synchronized void put(String key, long epoch, Object value, long weight) {
+        dropStaleEntries(_epoch.get());
+        if (epoch != _entriesEpoch || _maxEntries == 0 || weight > _maxWeight) {
+            return;
+        }
+        Entry previous = _entries.put(key, new Entry(value, weight));
+        if (previous != null) {
+            _weight -= previous.weight;
+        }
+        _weight += weight;
+        Iterator<Entry> eldest = _entries.values().iterator();
+        while (_entries.size() > _maxEntries || _weight > _maxWeight) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            _weight -= evicted.weight;
+            _evictions++;
+            EVICTIONS.incrementAndGet();
+        }
+    }
+
+    private void dropStaleEntries(long epoch) {
+        if (epoch != _entriesEpoch) {
+            if (!_entries.isEmpty()) {
+                _entries.clear();
+                _weight = 0;
+                INVALIDATIONS.incrementAndGet();
+            }
+            _entriesEpoch = epoch;
+        }
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return _weight;
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    public synchronized long getEvictions() {
+        return _evictions;
+    }
+
+    /**
+     * @return the ratio of hits among the lookups, 0 before the first lookup
+     */
+    public synchronized double getHitRate() {
+        return _hits + _misses == 0 ? 0 : (double) _hits / (_hits + _misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d results of %d elements, hit rate %.3f, %d evictions", _entries.size(), _weight, getHitRate(), _evictions);
+    }
+
+    /**
+     * @return the key of a search with the given parameters
+     */
+    public static String key(String search, Object... parameters) {
+        StringBuilder key = new StringBuilder(search);
+        for (Object parameter : parameters) {
+            // the separator can not appear in URIs
+            key.append(' ').append(parameter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the number of elements of a result
+     */
+    public static long weight(Object result) {
+        if (result instanceof Collection) {
+            return 1 + ((Collection<?>) result).size();
+        }
+        if (result instanceof Map) {
+            return 1 + ((Map<?, ?>) result).size();
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,315 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.AddDeniedException;
+import com.hp.hpl.jena.shared.DeleteDeniedException;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A set of named models (the ontologies and the instances) with a read-only
+ * union model, which evaluates every triple pattern only against the models
+ * that can contain its predicate. For example, the dc:subject patterns are
+ * answered by the instances alone and the skos:broader patterns by the HEP
+ * ontology alone, while a pattern with a variable predicate visits all the
+ * models.
+ *
+ * The predicates of every model are collected when it is added. The
+ * predicates of the mutable models are also updated by a listener when
+ * statements are added, so the union always reflects the current content and
+ * does not have to be rebuilt. Removed statements are not taken into account:
+ * a predicate stays routed to a model after its last statement is removed,
+ * which costs a useless lookup but never loses results.
+ *
+ * A model added by addLazyModel is loaded by the first pattern routed to it.
+ * Until then its predicates are unknown and every pattern is routed to it.
+ *
+ * The union uses the locks of the underlying models; the callers lock them as
+ * they would do for a query on a single model.
+ *
+ * @author piotr
+ */
+public class RoutedDataset {
+
+    private final List<NamedModel> _models = new CopyOnWriteArrayList<>(); // in the order of addition
+    private final Model _unionModel = ModelFactory.createModelForGraph(new RoutingGraph());
+
+    /**
+     * Source of a model which is loaded only when it is needed
+     */
+    public interface ModelLoader {
+
+        Model load();
+    }
+
+    private static final class NamedModel {
+
+        final String name;
+        final Set<Node> predicates = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>()); // predicates of the statements of the model
+        private final ModelLoader _loader; // null if the model has been given
+        private volatile Model _model; // null until the model is loaded
+
+        NamedModel(String name, Model model) {
+            this.name = name;
+            _loader = null;
+            _model = model;
+        }
+
+        NamedModel(String name, ModelLoader loader) {
+            this.name = name;
+            _loader = loader;
+        }
+
+        boolean isLoaded() {
+            return _model != null;
+        }
+
+        boolean mayContain(Node predicate) {
+            return predicate == null || !predicate.isConcrete() || !isLoaded() || predicates.contains(predicate);
+        }
+
+        /**
+         * @return the model, loading it if necessary
+         */
+        Model getModel() {
+            Model model = _model;
+            if (model == null) {
+                synchronized (this) {
+                    model = _model;
+                    if (model == null) {
+                        model = _loader.load();
+                        collectPredicates(model.getGraph(), predicates);
+                        // published after its predicates
+                        _model = model;
+                    }
+                }
+            }
+            return model;
+        }
+
+        Graph getGraph() {
+            return getModel().getGraph();
+        }
+    }
+
+    /**
+     * Listener keeping the predicates of a mutable model
+     */
+    private static class PredicateListener extends StatementListener {
+
+        private final Set<Node> _predicates;
+
+        PredicateListener(Set<Node> predicates) {
+            _predicates = predicates;
+        }
+
+        @Override
+        public void addedStatement(Statement s) {
+            _predicates.add(s.getPredicate().asNode());
+        }
+    }
+
+    /**
+     * Adds a named model to the dataset
+     *
+     * @param name name of the model
+     * @param model the model
+     * @param mutable true if statements can be added to the model later
+     */
+    public synchronized void addModel(String name, Model model, boolean mutable) {
+        for (NamedModel named : _models) {
+            if (named.name.equals(name)) {
+                throw new IllegalArgumentException("The dataset already contains a model called " + name);
+            }
+        }
+        NamedModel named = new NamedModel(name, model);
+        if (mutable) {
+            model.register(new PredicateListener(named.predicates));
+        }
+        collectPredicates(named.getGraph(), named.predicates);
+        _models.add(named);
+    }
+
+    /**
+     * Adds an immutable named model which is loaded by the first pattern
+     * routed to it
+     *
+     * @param name name of the model
+     * @param loader source of the model
+     */
+    public synchronized void addLazyModel(String name, ModelLoader loader) {
+        for (NamedModel named : _models) {
+            if (named.name.equals(name)) {
+                throw new IllegalArgumentException("The dataset already contains a model called " + name);
+            }
+        }
+        _models.add(new NamedModel(name, loader));
+    }
+
+    private static void collectPredicates(Graph graph, Set<Node> predicates) {
+        ExtendedIterator<Triple> triples = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (triples.hasNext()) {
+                predicates.add(triples.next().getPredicate());
+            }
+        } finally {
+            triples.close();
+        }
+    }
+
+    /**
+     * Collects again the predicates of all the loaded models. This is only
+     * needed after statements have been added to a model registered as
+     * immutable.
+     */
+    public void refresh() {
+        for (NamedModel named : _models) {
+            if (named.isLoaded()) {
+                collectPredicates(named.getGraph(), named.predicates);
+            }
+        }
+    }
+
+    /**
+     * @return true if the model with the given name has been loaded
+     */
+    public boolean isLoaded(String name) {
+        for (NamedModel named : _models) {
+            if (named.name.equals(name)) {
+                return named.isLoaded();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the model with the given name, loaded if necessary, or null
+     */
+    public Model getNamedModel(String name) {
+        for (NamedModel named : _models) {
+            if (named.name.equals(name)) {
+                return named.getModel();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names of the models, in the order of their addition
+     */
+    public List<String> getNames() {
+        List<String> result = new ArrayList<>();
+        for (NamedModel named : _models) {
+            result.add(named.name);
+        }
+        return result;
+    }
+
+    /**
+     * @return the names of the models against which the patterns with the
+     * given predicate are evaluated
+     */
+    public List<String> route(Node predicate) {
+        List<String> result = new ArrayList<>();
+        for (NamedModel named : _models) {
+            if (named.mayContain(predicate)) {
+                result.add(named.name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the read-only union of all the models
+     */
+    public Model getUnionModel() {
+        return _unionModel;
+    }
+
+    /**
+     * The union graph, delegating every find to the graphs which contain the
+     * predicate of the pattern
+     */
+    private class RoutingGraph extends GraphBase {
+
+        private List<Graph> routedGraphs(Node predicate) {
+            List<Graph> result = new ArrayList<>(_models.size());
+            for (NamedModel named : _models) {
+                if (named.mayContain(predicate)) {
+                    result.add(named.getGraph());
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+            List<Graph> graphs = routedGraphs(m.getMatchPredicate());
+            if (graphs.size() == 1) {
+                return graphs.get(0).find(m);
+            }
+            ExtendedIterator<Triple> result = NullIterator.instance();
+            for (int i = 0; i < graphs.size(); ++i) {
+                ExtendedIterator<Triple> found = graphs.get(i).find(m);
+                if (i > 0) {
+                    // the statements present in several models are returned once
+                    final List<Graph> previous = graphs.subList(0, i);
+                    found = found.filterDrop(new Filter<Triple>() {
+                        @Override
+                        public boolean accept(Triple t) {
+                            for (Graph g : previous) {
+                                if (g.contains(t)) {
+                                    return true;
+                                }
+                            }
+                            return false;
+                        }
+                    });
+                }
+                result = result.andThen(found);
+            }
+            return result;
+        }
+
+        @Override
+        protected boolean graphBaseContains(Triple t) {
+            for (Graph g : routedGraphs(t.getPredicate())) {
+                if (g.contains(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            int size = 0;
+            for (Graph g : routedGraphs(null)) {
+                size += g.size();
+            }
+            return size;
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            throw new AddDeniedException("The union of the dataset is read-only", t);
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            throw new DeleteDeniedException("The union of the dataset is read-only", t);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.shared.Lock;
+import com.hp.hpl.jena.tdb.TDB;
+import com.hp.hpl.jena.tdb.TDBFactory;
+import java.io.*;
+import java.util.Properties;
+
+/**
+ * Store keeping the models as named graphs of an on-disk TDB dataset. The
+ * models are not limited by the heap and the ontologies are parsed only when
+ * their files change.
+ *
+ * This version of TDB is not transactional: a crash or a kill while the
+ * indexes are being written, by commit or by the cache of TDB at any other
+ * time, can leave them corrupt. The dataset is therefore only a copy of the
+ * ontology files and of the instances written to the output file and its
+ * triple log, which InspireDatabase requires as the write-ahead log of a
+ * persistent store. The file CLOSED_FILE is present only while the dataset
+ * is closed; a dataset opened without it has not been closed by the previous
+ * process and is deleted, so that the models are loaded again from the files.
+ * The dataset can be opened by only one process at a time.
+ *
+ * @author piotr
+ */
+public class TDBTripleStore implements TripleStore {
+
+    private static final String GRAPH_PREFIX = "urn:inveniosemantics:";
+    private static final String SOURCES_FILE = "sources.properties";
+    static final String CLOSED_FILE = "closed";
+    private final File _directory;
+    private final Dataset _dataset;
+    private final Properties _sources; // model name -> hashes of the files it has been loaded from
+    private final boolean _recovered;
+
+    /**
+     * Opens the dataset stored in the given directory, creating it if
+     * necessary. A dataset which has not been closed is deleted.
+     */
+    public TDBTripleStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the directory " + directory.getPath());
+        }
+        _directory = directory;
+        File closedFile = new File(directory, CLOSED_FILE);
+        File[] files = directory.listFiles();
+        _recovered = files.length > 0 && !closedFile.isFile();
+        if (_recovered) {
+            System.err.println("The TDB dataset " + directory.getPath() + " has not been closed and may be damaged, it is loaded again from the files");
+            for (File file : files) {
+                if (!file.delete()) {
+                    throw new IOException("Could not delete " + file.getPath());
+                }
+            }
+        } else if (closedFile.isFile() && !closedFile.delete()) {
+            throw new IOException("Could not delete " + closedFile.getPath());
+        }
+        // the dataset must not be trusted after a crash from now on
+        TripleLog.syncDirectory(directory);
+        _dataset = TDBFactory.createDataset(directory.getPath());
+        _sources = new Properties();
+        File sourcesFile = new File(directory, SOURCES_FILE);
+        if (sourcesFile.isFile()) {
+            try (InputStream in = new FileInputStream(sourcesFile)) {
+                _sources.load(in);
+            }
+        }
+    }
+
+    /**
+     * @return true if the dataset has been deleted when opened, because it
+     * had not been closed
+     */
+    public boolean isRecovered() {
+        return _recovered;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public Model getModel(String name) {
+        return _dataset.getNamedModel(GRAPH_PREFIX + name);
+    }
+
+    @Override
+    public synchronized Model loadModel(String name, String... fileNames) {
+        StringBuilder signature = new StringBuilder();
+        for (String fileName : fileNames) {
+            try {
+                for (byte b : HEPLabelIndex.hashFile(new File(fileName))) {
+                    signature.append(String.format("%02x", b));
+                }
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("File: " + fileName + " not found", ex);
+            }
+            signature.append(' ');
+        }
+        Model model = getModel(name);
+        if (signature.toString().equals(_sources.getProperty(name))) {
+            return model;
+        }
+        model.enterCriticalSection(Lock.WRITE);
+        try {
+            model.removeAll();
+            for (String fileName : fileNames) {
+                InMemoryTripleStore.readFile(model, fileName);
+            }
+            TDB.sync(_dataset);
+        } finally {
+            model.leaveCriticalSection();
+        }
+        _sources.setProperty(name, signature.toString());
+        File sourcesFile = new File(_directory, SOURCES_FILE);
+        try (OutputStream out = new FileOutputStream(sourcesFile)) {
+            _sources.store(out, "files loaded into the models");
+        } catch (IOException ex) {
+            System.err.println("Could not write " + sourcesFile.getPath() + ": " + ex.getMessage());
+        }
+        return model;
+    }
+
+    /**
+     * Writes the changes to the disk. Not atomic, see the description of the
+     * class.
+     */
+    @Override
+    public void commit() {
+        TDB.sync(_dataset);
+    }
+
+    @Override
+    public void close() {
+        commit();
+        _dataset.close();
+        try {
+            new File(_directory, CLOSED_FILE).createNewFile();
+            TripleLog.syncDirectory(_directory);
+        } catch (IOException ex) {
+            // loaded again at the next start
+            System.err.println("Could not mark the TDB dataset " + _directory.getPath() + " as closed: " + ex.getMessage());
+        }
+    }
+}
@@ -4,7 +4,6 @@
  */
 package org.inveniosoftware.inveniosemantics;
 
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -13,24 +12,18 @@ import java.util.List;
  */
 public class TextUtils {
 
+    /**
+     * @return the words of the string separated by white space
+     */
     static List<String> tokeniseString(String toMatch) {
-        LinkedList<String> results = new LinkedList<>();
-        
-        String[] parts = toMatch.split("\\s+");
-        for (int i=0;i<parts.length;++i){
-            results.add(parts[i]);
-        }
-        return results;
+        return new Tokeniser().tokenise(toMatch).getTokens();
     }
 
+    /**
+     * @return the words of the string separated by white space or colons
+     */
     static List<String> tokeniseString2(String toMatch) {
-        LinkedList<String> results = new LinkedList<>();
-        
-        String[] parts = toMatch.split("(:|\\s)+");
-        for (int i=0;i<parts.length;++i){
-            results.add(parts[i]);
-        }
-        return results;
+        return new Tokeniser().tokenise(toMatch, true).getTokens();
     }
     
 }
@@ -0,0 +1,125 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a text into words separated by white space (and optionally colons)
+ * without copying it: the words are stored as start and end offsets into the
+ * text. The same instance can be reused for many texts, so tokenising a caption
+ * does not allocate anything once the offset arrays are large enough.
+ *
+ * The white space characters are the ones of the \s regular expression class,
+ * so the words are the same as the non-empty parts returned by
+ * String.split("\\s+") or String.split("(\\s|:)+").
+ *
+ * Instances are not thread safe.
+ *
+ * @author piotr
+ */
+public class Tokeniser {
+
+    private CharSequence _text;
+    private int[] _starts = new int[32];
+    private int[] _ends = new int[32];
+    private int _size;
+
+    /**
+     * @return true if the character separates the words of a caption
+     */
+    public static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000b';
+    }
+
+    /**
+     * Splits the text into words separated by white space
+     *
+     * @return this tokeniser
+     */
+    public Tokeniser tokenise(CharSequence text) {
+        return tokenise(text, false);
+    }
+
+    /**
+     * Splits the text into words
+     *
+     * @param text the text, which is not copied and should not be modified
+     * while the words are used
+     * @param colonSeparates if true, colons separate the words as white space
+     * does (the words of the labels of the HEP ontology)
+     * @return this tokeniser
+     */
+    public Tokeniser tokenise(CharSequence text, boolean colonSeparates) {
+        _text = text;
+        _size = 0;
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; ++i) {
+            boolean separator = true;
+            if (i < length) {
+                char c = text.charAt(i);
+                separator = isWhitespace(c) || (colonSeparates && c == ':');
+            }
+            if (!separator && start == -1) {
+                start = i;
+            } else if (separator && start != -1) {
+                if (_size == _starts.length) {
+                    _starts = Arrays.copyOf(_starts, 2 * _size);
+                    _ends = Arrays.copyOf(_ends, 2 * _size);
+                }
+                _starts[_size] = start;
+                _ends[_size] = i;
+                _size++;
+                start = -1;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the last tokenised text
+     */
+    public CharSequence getText() {
+        return _text;
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return the offset of the first character of the i-th word
+     */
+    public int start(int i) {
+        return _starts[i];
+    }
+
+    /**
+     * @return the offset following the last character of the i-th word
+     */
+    public int end(int i) {
+        return _ends[i];
+    }
+
+    /**
+     * @return the i-th word as a new string
+     */
+    public String getToken(int i) {
+        return _text.subSequence(_starts[i], _ends[i]).toString();
+    }
+
+    /**
+     * @return all the words as new strings
+     */
+    public List<String> getTokens() {
+        List<String> result = new ArrayList<>(_size);
+        for (int i = 0; i < _size; ++i) {
+            result.add(getToken(i));
+        }
+        return result;
+    }
+}
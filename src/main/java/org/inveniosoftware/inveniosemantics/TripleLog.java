@@ -0,0 +1,378 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.JenaException;
+import com.hp.hpl.jena.util.FileManager;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of the statements added to a model, written in the
+ * N-Triples format while the statements are created.
+ *
+ * Every run writes its own segment next to the output file:
+ * output.rdf.0001386159852123.nt, output.rdf.0001386159853456.nt, ... The
+ * complete repository is the output file together with all its segments.
+ * Compaction (see CompactTripleLogs) merges the segments into the output file
+ * and removes them.
+ *
+ * Removals of statements are not logged.
+ *
+ * @author piotr
+ */
+public class TripleLog extends StatementListener {
+
+    public static final String SEGMENT_SUFFIX = ".nt";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private final File _file;
+    private final FileOutputStream _stream;
+    private final Writer _out;
+    private final StringBuilder _line = new StringBuilder();
+    private IOException _error; // the first error, reported by flush and close
+    private long _numStatements;
+
+    /**
+     * Opens a segment for appending
+     */
+    public TripleLog(File file) throws IOException {
+        _file = file;
+        _stream = new FileOutputStream(file, true);
+        _out = new BufferedWriter(new OutputStreamWriter(_stream, ASCII), 65536);
+    }
+
+    /**
+     * Creates a new segment of the log of the given output file
+     *
+     * @return the file of the segment, which did not exist before
+     */
+    public static File createSegment(File outputFile) throws IOException {
+        long time = System.currentTimeMillis();
+        while (true) {
+            File segment = new File(String.format("%s.%016d%s", outputFile.getPath(), time, SEGMENT_SUFFIX));
+            if (segment.createNewFile()) {
+                return segment;
+            }
+            time++;
+        }
+    }
+
+    /**
+     * @return the segments of the log of the given output file, from the
+     * oldest to the newest
+     */
+    public static List<File> listSegments(File outputFile) {
+        final String prefix = outputFile.getName() + ".";
+        File dir = outputFile.getAbsoluteFile().getParentFile();
+        File[] segments = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX)
+                        && name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length()).matches("[0-9]+");
+            }
+        });
+        if (segments == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(segments);
+        return new ArrayList<>(Arrays.asList(segments));
+    }
+
+    /**
+     * Reads a segment into the model. A segment whose writing was interrupted
+     * may end with an incomplete line, which is ignored.
+     *
+     * @throws IOException if the segment can not be read or the complete
+     * lines are not valid N-Triples
+     */
+    public static void readSegment(Model model, File segment) throws IOException {
+        long length = completeLength(segment);
+        try (InputStream in = new BufferedInputStream(new LimitedInputStream(new FileInputStream(segment), length))) {
+            model.read(in, null, "N-TRIPLE");
+        } catch (JenaException ex) {
+            throw new IOException("The segment " + segment.getPath() + " is damaged", ex);
+        }
+    }
+
+    /**
+     * @return the length of the segment up to the end of its last complete
+     * line
+     */
+    static long completeLength(File segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            byte[] buffer = new byte[4096];
+            long end = file.length();
+            while (end > 0) {
+                int size = (int) Math.min(buffer.length, end);
+                file.seek(end - size);
+                file.readFully(buffer, 0, size);
+                for (int i = size - 1; i >= 0; --i) {
+                    if (buffer[i] == '\n') {
+                        return end - size + i + 1;
+                    }
+                }
+                end -= size;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Stream returning only the given number of bytes of another stream
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long _remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            _remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_remaining == 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                _remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_remaining == 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, _remaining));
+            if (read > 0) {
+                _remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, _remaining));
+            _remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), _remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Merges all the segments of the log into the output file (written as
+     * RDF/XML) and deletes them. No other process may write to the log at the
+     * same time. Concurrent compactions of the same output file are run one
+     * after another, holding a lock on the file with the suffix ".lock".
+     *
+     * @return the number of merged segments
+     */
+    public static synchronized int compact(File outputFile) throws IOException {
+        outputFile = outputFile.getAbsoluteFile();
+        File lockFile = new File(outputFile.getPath() + LOCK_SUFFIX);
+        try (FileChannel lock = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            lock.lock();
+            return compactLocked(outputFile);
+        }
+    }
+
+    private static int compactLocked(File outputFile) throws IOException {
+        List<File> segments = listSegments(outputFile);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Model model = ModelFactory.createDefaultModel();
+        if (outputFile.exists()) {
+            try (InputStream in = FileManager.get().open(outputFile.getPath())) {
+                model.read(in, "");
+            }
+        }
+        for (File segment : segments) {
+            readSegment(model, segment);
+        }
+        File tmpFile = File.createTempFile(outputFile.getName(), ".tmp", outputFile.getParentFile());
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tmpFile)) {
+                OutputStream out = new BufferedOutputStream(fileOut);
+                model.write(out);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(tmpFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+        // the segments are the only copy of the statements until the new name is stored
+        syncDirectory(outputFile.getAbsoluteFile().getParentFile());
+        for (File segment : segments) {
+            if (!segment.delete()) {
+                throw new IOException("Could not delete the merged segment " + segment.getPath());
+            }
+        }
+        return segments.size();
+    }
+
+    /**
+     * Waits until the entries of the directory are physically stored. Does
+     * nothing on the platforms which can not open a directory.
+     */
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // not supported, as on Windows
+        }
+    }
+
+    /**
+     * @return the file of this segment
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * @return the number of statements written to this segment
+     */
+    public synchronized long getNumStatements() {
+        return _numStatements;
+    }
+
+    @Override
+    public synchronized void addedStatement(Statement s) {
+        if (_error != null) {
+            return;
+        }
+        _line.setLength(0);
+        appendStatement(s, _line);
+        try {
+            _out.append(_line);
+            _numStatements++;
+        } catch (IOException ex) {
+            _error = ex;
+        }
+    }
+
+    /**
+     * Writes the buffered statements to the disk
+     *
+     * @param sync if true, waits until the data is physically stored
+     */
+    public synchronized void flush(boolean sync) throws IOException {
+        if (_error != null) {
+            throw new IOException("Writing the triple log " + _file.getPath() + " failed", _error);
+        }
+        _out.flush();
+        if (sync) {
+            _stream.getFD().sync();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            flush(true);
+        } finally {
+            _out.close();
+        }
+    }
+
+    /**
+     * Appends a statement in the N-Triples format, including the end of line
+     */
+    public static void appendStatement(Statement s, StringBuilder out) {
+        appendNode(s.getSubject(), out);
+        out.append(' ');
+        appendNode(s.getPredicate(), out);
+        out.append(' ');
+        appendNode(s.getObject(), out);
+        out.append(" .\n");
+    }
+
+    private static void appendNode(RDFNode node, StringBuilder out) {
+        if (node.isLiteral()) {
+            Literal literal = (Literal) node;
+            out.append('"');
+            appendEscaped(literal.getLexicalForm(), out);
+            out.append('"');
+            if (literal.getDatatypeURI() != null) {
+                out.append("^^<");
+                appendEscaped(literal.getDatatypeURI(), out);
+                out.append('>');
+            } else if (literal.getLanguage() != null && !literal.getLanguage().isEmpty()) {
+                out.append('@').append(literal.getLanguage());
+            }
+        } else if (((Resource) node).isAnon()) {
+            // blank node labels may contain only letters and digits
+            out.append("_:A");
+            for (char c : ((Resource) node).getId().getLabelString().toCharArray()) {
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                    out.append(c);
+                } else {
+                    out.append('X').append(Integer.toHexString(c)).append('X');
+                }
+            }
+        } else {
+            out.append('<');
+            appendEscaped(((Resource) node).getURI(), out);
+            out.append('>');
+        }
+    }
+
+    /**
+     * Escapes a string as required by N-Triples, which allows only ASCII
+     * characters
+     */
+    private static void appendEscaped(String s, StringBuilder out) {
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        out.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Storage of the models used by the InspireDatabase and the ontology
+ * accessors. The models are identified by names.
+ *
+ * @author piotr
+ */
+public interface TripleStore {
+
+    /**
+     * @return true if the content of the models survives the end of the
+     * process
+     */
+    boolean isPersistent();
+
+    /**
+     * Returns the model with the given name, creating an empty one if it does
+     * not exist
+     */
+    Model getModel(String name);
+
+    /**
+     * Returns the model with the given name containing the statements of the
+     * given RDF/XML files. A persistent store reads the files only if they have
+     * changed since they were loaded the last time.
+     *
+     * @throws IllegalArgumentException if one of the files does not exist
+     */
+    Model loadModel(String name, String... fileNames);
+
+    /**
+     * Makes all the changes of the models durable. The caller must hold the
+     * write lock of the modified models.
+     */
+    void commit();
+
+    /**
+     * Commits the changes and releases the resources of the store
+     */
+    void close();
+}
@@ -9,10 +9,12 @@ import com.hp.hpl.jena.shared.CannotEncodeCharacterException;
 import invenio.pdf.features.FigureCandidate;
 import invenio.pdf.features.XMLDocumentReader;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.parsers.ParserConfigurationException;
@@ -24,20 +26,39 @@ import org.xml.sax.SAXException;
  */
 public class UploadExtractedFigures {
 
+    private static final Metrics.Timer PARSING = Metrics.timer("upload.parse");
+    private static final AtomicLong PARSING_ERRORS = Metrics.counter("upload.parseErrors");
+
     public static void usage() {
         System.out.println("The tool allowing to upload a number of files or directories into the semantic repository");
         System.out.println("Usage: ");
-        System.out.println("   UploadExtractedFigures file1 [file2 [file3 ... ]]");
+        System.out.println("   UploadExtractedFigures [--threads N] [--log] [--tdb DIR] [--resume] [--checkpoint N] [--annotation-cache MB] [--include GLOB] [--exclude GLOB] file1 [file2 [file3 ... ]]");
         System.out.println("");
+        System.out.println("   --threads N   number of threads parsing and annotating the files (by default the number of processors)");
+        System.out.println("   --log         append the new statements to the triple log instead of rewriting the output file (see CompactTripleLogs)");
+        System.out.println("   --tdb DIR     keep the ontologies and the figures in the TDB dataset stored in DIR instead of the memory (implies --log, the dataset is loaded again from the output file and the log after a crash)");
+        System.out.println("   --resume      continue a previous upload: skip the files recorded as unchanged in the manifest of the output file (implies --log)");
+        System.out.println("   --checkpoint N  make the uploaded statements durable and record their files in the manifest every N files (by default 1000)");
+        System.out.println("   --annotation-cache MB  reuse the annotations of the captions annotated by the previous uploads, cached in a file of at most MB megabytes next to the HEP ontology (by default 256, 0 to disable)");
+        System.out.println("   --metrics N   log the summary of the metrics every N seconds (by default 60, 0 to disable); the metrics are also published through JMX as " + Metrics.OBJECT_NAME);
+        System.out.println("   --include GLOB  upload the files of the directories matching the pattern (by default " + FileCrawler.DEFAULT_INCLUDE + "), can be repeated");
+        System.out.println("   --exclude GLOB  skip the files and subdirectories matching the pattern, can be repeated");
+        System.out.println("The patterns containing / are matched against the path relative to the directory, the others against the file name");
         System.out.println("The file must be a path of an XML file or a directory");
         System.out.println("In the case of XML file, the content is transalted into the RDF-annotated data which is uploaded into the semantic storage");
-        System.out.println("Directories are searched for all available XML files (only directly under the directory path, not in subdirectories)");
+        System.out.println("Directories are searched recursively for all the XML files, which are uploaded while the search continues");
+    }
+
+    /**
+     * @return URI of the publication from which the figures of the given file
+     * have been extracted
+     */
+    public static String getPublicationURI(File inputFile) {
+        return "http://inspirehep.net/" + inputFile.getName().split("_")[0];
     }
 
     public static void uploadFigure(InspireDatabase db, FigureCandidate figure, File inputFile) {
-        System.out.println("uploadng figure");
-        String pubname = "http://inspirehep.net/" + inputFile.getName().split("_")[0];
-        String pubURI = pubname;
+        String pubURI = getPublicationURI(inputFile);
         Resource pubResource = db.createPublication(pubURI);
 
         db.createFigure(db, pubResource, figure);
@@ -45,11 +66,23 @@ public class UploadExtractedFigures {
     }
 
     public static void processFile(InspireDatabase db, File input) {
+        List<FigureCandidate> figures = readFigures(input);
+        if (figures != null) {
+            db.createFigures(getPublicationURI(input), figures);
+        }
+    }
+
+    /**
+     * Reads the figures described in an XML file
+     *
+     * @return the figures or null if the file could not be read
+     */
+    public static List<FigureCandidate> readFigures(File input) {
+        long start = System.nanoTime();
         try {
             List<FigureCandidate> figures = XMLDocumentReader.readDocument(input);
-            for (FigureCandidate fig : figures) {
-                uploadFigure(db, fig, input);
-            }
+            PARSING.recordSince(start);
+            return figures;
         } catch (ParserConfigurationException ex) {
             System.err.println("XML parsing exception (ParserConfiguration) when processing" + input.getAbsolutePath());
 
@@ -63,10 +96,53 @@ public class UploadExtractedFigures {
 
             Logger.getLogger(UploadExtractedFigures.class.getName()).log(Level.SEVERE, null, ex);
         }
-
+        PARSING_ERRORS.incrementAndGet();
+        return null;
     }
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean tripleLog = false;
+        boolean resume = false;
+        int checkpointInterval = 1000;
+        int metricsPeriod = 60;
+        long annotationCacheSize = 256;
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        TripleStore store = null;
+        while (args.length >= 1 && args[0].startsWith("--")) {
+            if (args.length >= 2 && args[0].equals("--threads")) {
+                threads = Integer.parseInt(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args.length >= 2 && args[0].equals("--tdb")) {
+                store = new TDBTripleStore(new File(args[1]));
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args.length >= 2 && args[0].equals("--checkpoint")) {
+                checkpointInterval = Integer.parseInt(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args.length >= 2 && args[0].equals("--annotation-cache")) {
+                annotationCacheSize = Long.parseLong(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args.length >= 2 && args[0].equals("--metrics")) {
+                metricsPeriod = Integer.parseInt(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args.length >= 2 && args[0].equals("--include")) {
+                includes.add(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args.length >= 2 && args[0].equals("--exclude")) {
+                excludes.add(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("--resume")) {
+                resume = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args[0].equals("--log")) {
+                tripleLog = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else {
+                usage();
+                return;
+            }
+        }
         if (args.length < 1) {
             usage();
             //return;
@@ -77,32 +153,50 @@ public class UploadExtractedFigures {
         }
 
         System.out.println("Starting");
+        Metrics.registerMBean();
+        if (metricsPeriod > 0) {
+            Metrics.startReporter(metricsPeriod);
+        }
 
-        InspireDatabase db = new InspireDatabase("/home/piotr/Dropbox/PhdThesis/Ontology/inspire/files", false);
-
+        if (store == null) {
+            store = new InMemoryTripleStore();
+        }
+        InspireDatabase db = new InspireDatabase("/home/piotr/Dropbox/PhdThesis/Ontology/inspire/files", resume, store);
+        if (tripleLog || resume || store.isPersistent()) {
+            db.openTripleLog();
+        }
+        if (annotationCacheSize > 0) {
+            try {
+                db.openAnnotationCache(annotationCacheSize << 20);
+            } catch (IOException ex) {
+                System.err.println("Could not open the annotation cache, all the captions are going to be annotated: " + ex.getMessage());
+            }
+        }
+        // without the triple log or a persistent store, every checkpoint would rewrite the whole output
+        boolean incremental = tripleLog || resume || store.isPersistent();
+        UploadManifest manifest = new UploadManifest(new File(db.getOutputFileName()), resume);
+        final FigureIngestionPipeline pipeline = FigureIngestionPipeline.create(db, threads, manifest, incremental ? checkpointInterval : 0);
 
+        FileCrawler crawler = new FileCrawler(includes, excludes);
         for (String fname : args) {
             File input = new File(fname);
             if (!input.exists()) {
                 System.err.println("The file " + fname + " does not exist");
                 continue;
             }
-            if (input.isDirectory()) {
-                File[] files = input.listFiles(new FilenameFilter() {
-                    @Override
-                    public boolean accept(File dir, String name) {
-                        return name.toLowerCase().endsWith(".xml");
-                    }
-                });
-                for (File f : files) {
-                    processFile(db, f);
+            crawler.crawl(input, new FileCrawler.Handler() {
+                @Override
+                public void handle(File file) throws InterruptedException {
+                    pipeline.submit(file);
                 }
-            } else {
-                processFile(db, input);
-            }
+            });
         }
-        //try{
-        db.writeOuput();
+        int uploaded = pipeline.finish();
+        db.closeAnnotationCache();
+        System.out.println("Uploaded figures: " + uploaded);
+        System.out.println("Unchanged files skipped: " + pipeline.getSkippedFiles());
+        System.out.println(Metrics.summary());
+        // the output has been written by the last checkpoint of the pipeline
 
         System.out.println("Executing sample queries: ");
         System.out.println("  Searching for a HEP notion: ");
@@ -111,11 +205,12 @@ public class UploadExtractedFigures {
             System.out.println("    " + res.getURI());
         }
         System.out.println("  Searching for a HEP notion using the hierarchy: ");
-        searchForHEPNotion = db.searchForHEPNotionHierarchy(null);
+        searchForHEPNotion = db.searchForHEPNotionHierarchy(null).keySet();
         for (Resource res : searchForHEPNotion) {
             System.out.println("    " + res.getURI());
         }
 
+        store.close();
         System.out.println("Finished");
     }
 }
@@ -0,0 +1,183 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * List of the uploaded XML files, kept next to the output file
+ * (output.rdf.manifest), which allows an interrupted upload to be resumed
+ * without processing the same files again.
+ *
+ * Every line describes a file: the SHA-1 of its content, its size, its
+ * modification time and its absolute path, separated by tabulators. The later
+ * lines replace the earlier lines of the same path. The files are recorded by
+ * add, but written only by checkpoint, which has to be called after the
+ * statements created from them are durable. A crash therefore loses at most
+ * the files uploaded since the last checkpoint, which are processed again by
+ * the next run.
+ *
+ * The methods can be called from many threads.
+ *
+ * @author piotr
+ */
+public class UploadManifest {
+
+    public static final String SUFFIX = ".manifest";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final File _file;
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<>();
+    private final List<Entry> _pending = new ArrayList<>(); // added since the last checkpoint
+
+    /**
+     * Description of an uploaded file
+     */
+    public static class Entry {
+
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        public final String sha1; // null if not calculated
+
+        public Entry(String path, long size, long lastModified, String sha1) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha1 = sha1;
+        }
+    }
+
+    /**
+     * Opens the manifest of the given output file
+     *
+     * @param resume if true, the files recorded by the previous runs are read,
+     * otherwise the manifest is emptied
+     */
+    public UploadManifest(File outputFile, boolean resume) throws IOException {
+        _file = new File(outputFile.getPath() + SUFFIX);
+        if (!resume || !_file.exists()) {
+            new FileOutputStream(_file).close();
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(_file), UTF8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) {
+                    continue; // a line cut by a crash
+                }
+                try {
+                    _entries.put(fields[3], new Entry(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+                } catch (NumberFormatException ex) {
+                    System.err.println("Ignoring a corrupted line of the manifest " + _file.getPath() + ": " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the file of the manifest
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * @return the number of recorded files
+     */
+    public int size() {
+        return _entries.size();
+    }
+
+    /**
+     * Describes a file without reading its content
+     */
+    public static Entry stat(File file) {
+        File f = file.getAbsoluteFile();
+        return new Entry(f.getPath(), f.length(), f.lastModified(), null);
+    }
+
+    /**
+     * Describes a file including the hash of its content
+     */
+    public static Entry hash(File file) throws IOException {
+        Entry entry = stat(file);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 is not supported", ex);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream in = new FileInputStream(file)) {
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder sha1 = new StringBuilder(40);
+        for (byte b : digest.digest()) {
+            sha1.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return new Entry(entry.path, entry.size, entry.lastModified, sha1.toString());
+    }
+
+    /**
+     * Checks if the file has been uploaded and not modified since. The content
+     * is hashed only if the size or the modification time has changed; a file
+     * whose content is the same is recorded again with its new modification
+     * time.
+     *
+     * @return true if the file does not have to be uploaded again
+     */
+    public boolean isUnchanged(File file) throws IOException {
+        Entry current = stat(file);
+        Entry recorded = _entries.get(current.path);
+        if (recorded == null) {
+            return false;
+        }
+        if (recorded.size == current.size && recorded.lastModified == current.lastModified) {
+            return true;
+        }
+        current = hash(file);
+        if (current.sha1.equals(recorded.sha1)) {
+            add(current);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records an uploaded file, written to the manifest by the next checkpoint
+     */
+    public void add(Entry entry) {
+        _entries.put(entry.path, entry);
+        synchronized (_pending) {
+            _pending.add(entry);
+        }
+    }
+
+    /**
+     * Appends the files recorded since the last checkpoint to the manifest
+     * and waits until they are stored on the disk
+     */
+    public void checkpoint() throws IOException {
+        synchronized (_pending) {
+            if (_pending.isEmpty()) {
+                return;
+            }
+            try (FileOutputStream stream = new FileOutputStream(_file, true)) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(stream, UTF8));
+                for (Entry entry : _pending) {
+                    out.write(entry.sha1 + "\t" + entry.size + "\t" + entry.lastModified + "\t" + entry.path + "\n");
+                }
+                out.flush();
+                stream.getFD().sync();
+            }
+            _pending.clear();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests storing, evicting and reloading the cached annotations of the
+ * captions
+ *
+ * @author piotr
+ */
+public class AnnotationCacheTest extends TestCase {
+
+    private static final long ONE_SET = 4096 + AnnotationCache.WAYS * AnnotationCache.RECORD_SIZE;
+    private File _file;
+    private byte[] _version;
+
+    public AnnotationCacheTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _file = File.createTempFile("hep", ".rdf" + AnnotationCache.EXTENSION);
+        _version = new byte[20];
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        _file.delete();
+        new File(_file.getPath() + ".lock").delete();
+        super.tearDown();
+    }
+
+    private static List<String[]> units(String[]... units) {
+        return Arrays.asList(units);
+    }
+
+    private static void assertUnits(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertTrue(Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+
+    public void testReopen() throws Exception {
+        List<String> concepts = Arrays.asList(HEPOntologyAccessor.NSURI + "quark", "http://example.org/other");
+        List<String[]> units = units(new String[]{null, MUOOntologyAccessor.INSTANCESURI + "meter"},
+                new String[]{MUOOntologyAccessor.INSTANCESURI + "kilo", MUOOntologyAccessor.INSTANCESURI + "electronvolt"});
+        AnnotationCache cache = new AnnotationCache(_file, _version, 1 << 20);
+        assertNull(cache.lookup("mass of the top quark in GeV"));
+        cache.store("mass of the top quark in GeV", concepts, units);
+        cache.store("empty", Collections.<String>emptyList(), Collections.<String[]>emptyList());
+        cache.close();
+
+        cache = new AnnotationCache(_file, _version, 1 << 20);
+        AnnotationCache.Entry entry = cache.lookup("mass of the top quark in GeV");
+        assertEquals(concepts, entry.concepts);
+        assertUnits(units, entry.units);
+        assertTrue(cache.lookup("empty").concepts.isEmpty());
+        assertNull(cache.lookup("mass of the top quark"));
+        cache.close();
+
+        // other ontologies or another size empty the cache
+        _version[0] = 1;
+        cache = new AnnotationCache(_file, _version, 1 << 20);
+        assertNull(cache.lookup("mass of the top quark in GeV"));
+        cache.store("empty", Collections.<String>emptyList(), Collections.<String[]>emptyList());
+        cache.close();
+        cache = new AnnotationCache(_file, _version, 2 << 20);
+        assertNull(cache.lookup("empty"));
+        cache.close();
+    }
+
+    public void testEviction() throws Exception {
+        AnnotationCache cache = new AnnotationCache(_file, _version, ONE_SET);
+        assertEquals(AnnotationCache.WAYS, cache.capacity());
+        assertEquals(ONE_SET, _file.length());
+        for (int i = 0; i < AnnotationCache.WAYS; ++i) {
+            cache.store("caption " + i, Collections.singletonList("http://example.org/" + i), Collections.<String[]>emptyList());
+        }
+        // caption 1 becomes the least recently used
+        assertNotNull(cache.lookup("caption 0"));
+        cache.store("caption " + AnnotationCache.WAYS, Collections.<String>emptyList(), Collections.<String[]>emptyList());
+        assertNull(cache.lookup("caption 1"));
+        assertNotNull(cache.lookup("caption " + AnnotationCache.WAYS));
+        for (int i = 2; i < AnnotationCache.WAYS; ++i) {
+            assertEquals(Collections.singletonList("http://example.org/" + i), cache.lookup("caption " + i).concepts);
+        }
+        // replacing the annotations of a caption does not evict another one
+        cache.store("caption 0", Collections.<String>emptyList(), Collections.<String[]>emptyList());
+        assertTrue(cache.lookup("caption 0").concepts.isEmpty());
+        assertNotNull(cache.lookup("caption 2"));
+        cache.close();
+    }
+
+    public void testTooLarge() throws Exception {
+        AnnotationCache cache = new AnnotationCache(_file, _version, ONE_SET);
+        String[] concepts = new String[100];
+        for (int i = 0; i < concepts.length; ++i) {
+            concepts[i] = HEPOntologyAccessor.NSURI + "concept" + i;
+        }
+        cache.store("long", Arrays.asList(concepts), Collections.<String[]>emptyList());
+        assertNull(cache.lookup("long"));
+        cache.close();
+    }
+
+    public void testReopenWithOtherSizeWhileMapped() throws Exception {
+        AnnotationCache first = new AnnotationCache(_file, _version, 1 << 20);
+        first.store("mass of the top quark", Collections.singletonList("http://example.org/top"), Collections.<String[]>emptyList());
+
+        // another process replaces the file, the mapping of the first one stays valid
+        AnnotationCache second = new AnnotationCache(_file, _version, 2 << 20);
+        assertEquals(2 << 20, _file.length(), AnnotationCache.RECORD_SIZE * AnnotationCache.WAYS);
+        assertNull(second.lookup("mass of the top quark"));
+        for (int i = 0; i < 1000; ++i) {
+            first.store("caption " + i, Collections.<String>emptyList(), Collections.<String[]>emptyList());
+            second.store("caption " + i, Collections.<String>emptyList(), Collections.<String[]>emptyList());
+        }
+        assertEquals(Collections.singletonList("http://example.org/top"), first.lookup("mass of the top quark").concepts);
+        first.flush();
+        first.close();
+        second.close();
+
+        AnnotationCache reopened = new AnnotationCache(_file, _version, 2 << 20);
+        assertNotNull(reopened.lookup("caption 999"));
+        reopened.close();
+    }
+}
@@ -0,0 +1,102 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.util.*;
+import junit.framework.TestCase;
+
+/**
+ * Compares the closure of concept hierarchies with a graph traversal
+ *
+ * @author piotr
+ */
+public class ConceptHierarchyTest extends TestCase {
+
+    public ConceptHierarchyTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the concept and all the concepts reachable through the children
+     */
+    private static Set<String> traverse(String[] concepts, int[] edges, int concept) {
+        HashSet<String> result = new HashSet<>();
+        boolean[] visited = new boolean[concepts.length];
+        LinkedList<Integer> toVisit = new LinkedList<>();
+        toVisit.add(concept);
+        while (!toVisit.isEmpty()) {
+            int c = toVisit.removeFirst();
+            if (!visited[c]) {
+                visited[c] = true;
+                result.add(concepts[c]);
+                for (int i = 0; i < edges.length; i += 2) {
+                    if (edges[i + 1] == c) {
+                        toVisit.add(edges[i]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void assertSameClosure(String[] concepts, int[] edges) {
+        ConceptHierarchy hierarchy = new ConceptHierarchy(concepts, edges);
+        assertEquals(concepts.length, hierarchy.size());
+        for (int a = 0; a < concepts.length; ++a) {
+            Set<String> expected = traverse(concepts, edges, a);
+            List<String> descendants = hierarchy.getDescendants(concepts[a]);
+            assertEquals(expected.size(), descendants.size());
+            assertEquals(expected, new HashSet<>(descendants));
+            for (int d = 0; d < concepts.length; ++d) {
+                assertEquals(expected.contains(concepts[d]), hierarchy.isDescendant(concepts[d], concepts[a]));
+            }
+            boolean onCycle = false;
+            for (int i = 0; i < edges.length; i += 2) {
+                onCycle |= edges[i + 1] == a && traverse(concepts, edges, edges[i]).contains(concepts[a]);
+            }
+            assertEquals(onCycle, hierarchy.isOnCycle(concepts[a]));
+        }
+    }
+
+    private static String[] concepts(int n) {
+        String[] result = new String[n];
+        for (int i = 0; i < n; ++i) {
+            result[i] = HEPOntologyAccessor.NSURI + "concept" + i;
+        }
+        return result;
+    }
+
+    public void testTreeAndDiamond() {
+        // 1 and 2 are below 0, 3 is below 1 and 2, 4 is below 3, 5 is alone
+        assertSameClosure(concepts(6), new int[]{1, 0, 2, 0, 3, 1, 3, 2, 4, 3});
+        ConceptHierarchy hierarchy = new ConceptHierarchy(concepts(6), new int[]{1, 0, 2, 0, 3, 1, 3, 2, 4, 3});
+        assertEquals(Arrays.asList(HEPOntologyAccessor.NSURI + "concept5"), hierarchy.getDescendants(HEPOntologyAccessor.NSURI + "concept5"));
+        assertEquals(Arrays.asList("unknown"), hierarchy.getDescendants("unknown"));
+        assertTrue(hierarchy.isDescendant("unknown", "unknown"));
+    }
+
+    public void testCycles() {
+        // 0 -> 1 -> 2 -> 0 is a cycle below 3, 4 is below 1
+        assertSameClosure(concepts(5), new int[]{0, 1, 1, 2, 2, 0, 0, 3, 4, 1});
+        // 1 is below itself
+        assertSameClosure(concepts(3), new int[]{1, 0, 1, 1, 2, 1});
+    }
+
+    public void testRandomGraphs() {
+        Random random = new Random(4321);
+        for (int graph = 0; graph < 200; ++graph) {
+            int n = 1 + random.nextInt(40);
+            int numEdges = random.nextInt(2 * n);
+            int[] edges = new int[2 * numEdges];
+            for (int i = 0; i < numEdges; ++i) {
+                int child = random.nextInt(n);
+                int parent = random.nextInt(n);
+                if (graph % 2 == 0 && child <= parent) {
+                    // acyclic in half of the graphs
+                    child = parent + 1 < n ? parent + 1 + random.nextInt(n - parent - 1) : parent;
+                }
+                edges[2 * i] = child;
+                edges[2 * i + 1] = parent;
+            }
+            assertSameClosure(concepts(n), edges);
+        }
+    }
+}
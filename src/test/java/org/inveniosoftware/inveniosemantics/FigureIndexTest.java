@@ -0,0 +1,138 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.DC;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.util.*;
+import junit.framework.TestCase;
+
+/**
+ * Compares the searches in the inverted index of figures with a scan of the
+ * model
+ *
+ * @author piotr
+ */
+public class FigureIndexTest extends TestCase {
+
+    private static final int CONCEPTS = 6;
+    private static final String[] TYPES = {InvenioOntologyAccessor.FIGURE, InvenioOntologyAccessor.PLOT};
+
+    public FigureIndexTest(String testName) {
+        super(testName);
+    }
+
+    private static String concept(int i) {
+        return HEPOntologyAccessor.NSURI + "concept" + i;
+    }
+
+    private static Set<Resource> scan(Model model, List<String> allOf, List<String> anyOf, List<String> noneOf, String type) {
+        HashSet<Resource> result = new HashSet<>();
+        for (Resource r : model.listSubjects().toList()) {
+            boolean matches = type == null || model.contains(r, RDF.type, model.createResource(type));
+            for (String c : allOf) {
+                matches &= model.contains(r, DC.subject, model.createResource(c));
+            }
+            if (!anyOf.isEmpty()) {
+                boolean any = false;
+                for (String c : anyOf) {
+                    any |= model.contains(r, DC.subject, model.createResource(c));
+                }
+                matches &= any;
+            }
+            for (String c : noneOf) {
+                matches &= !model.contains(r, DC.subject, model.createResource(c));
+            }
+            if (matches) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    private static void addRandomFigure(Model model, Random random, int number) {
+        Resource figure = model.createResource(InvenioOntologyAccessor.NSURI + "figure" + number);
+        figure.addProperty(RDF.type, model.createResource(TYPES[random.nextInt(TYPES.length)]));
+        for (int c = 0; c < CONCEPTS; ++c) {
+            if (random.nextInt(3) == 0) {
+                figure.addProperty(DC.subject, model.createResource(concept(c)));
+            }
+        }
+    }
+
+    private static List<String> randomConcepts(Random random, int max) {
+        List<String> result = new ArrayList<>();
+        int size = random.nextInt(max + 1);
+        for (int i = 0; i < size; ++i) {
+            result.add(concept(random.nextInt(CONCEPTS)));
+        }
+        return result;
+    }
+
+    public void testSearchesLikeScan() {
+        Random random = new Random(777);
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 100; ++i) {
+            addRandomFigure(model, random, i);
+        }
+        FigureIndex index = new FigureIndex(model);
+        // updates after the index has been built
+        for (int i = 100; i < 300; ++i) {
+            addRandomFigure(model, random, i);
+        }
+        model.remove(model.listStatements(null, DC.subject, model.createResource(concept(0))).toList().subList(0, 10));
+        model.createResource(InvenioOntologyAccessor.NSURI + "figure5").addProperty(DC.subject, model.createResource(concept(5)));
+
+        for (int i = 0; i < 500; ++i) {
+            List<String> allOf = randomConcepts(random, 2);
+            List<String> anyOf = randomConcepts(random, 3);
+            List<String> noneOf = randomConcepts(random, 1);
+            String type = random.nextBoolean() ? TYPES[random.nextInt(TYPES.length)] : null;
+            if (allOf.isEmpty() && anyOf.isEmpty() && type == null) {
+                continue;
+            }
+            int[] ids = index.search(allOf, anyOf, noneOf, type);
+            for (int j = 1; j < ids.length; ++j) {
+                assertTrue(ids[j - 1] < ids[j]);
+            }
+            assertEquals(scan(model, allOf, anyOf, noneOf, type), new HashSet<>(index.getResources(ids)));
+        }
+        assertEquals(new HashSet<>(model.listObjectsOfProperty(DC.subject).toList()), index.getConcepts());
+    }
+
+    public void testSetOperations() {
+        Random random = new Random(99);
+        for (int i = 0; i < 200; ++i) {
+            TreeSet<Integer> a = new TreeSet<>();
+            TreeSet<Integer> b = new TreeSet<>();
+            int sizeA = random.nextInt(10);
+            int sizeB = random.nextInt(i % 2 == 0 ? 10 : 1000);
+            while (a.size() < sizeA) {
+                a.add(random.nextInt(2000));
+            }
+            while (b.size() < sizeB) {
+                b.add(random.nextInt(2000));
+            }
+            TreeSet<Integer> and = new TreeSet<>(a);
+            and.retainAll(b);
+            TreeSet<Integer> or = new TreeSet<>(a);
+            or.addAll(b);
+            TreeSet<Integer> andNot = new TreeSet<>(a);
+            andNot.removeAll(b);
+            assertTrue(Arrays.equals(toArray(and), FigureIndex.and(toArray(a), toArray(b))));
+            assertTrue(Arrays.equals(toArray(and), FigureIndex.and(toArray(b), toArray(a))));
+            assertTrue(Arrays.equals(toArray(or), FigureIndex.or(toArray(a), toArray(b))));
+            assertTrue(Arrays.equals(toArray(andNot), FigureIndex.andNot(toArray(a), toArray(b))));
+        }
+    }
+
+    private static int[] toArray(Collection<Integer> set) {
+        int[] result = new int[set.size()];
+        int i = 0;
+        for (int id : set) {
+            result[i++] = id;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,227 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Uploads files through the stages of the pipeline
+ *
+ * @author piotr
+ */
+public class FigureIngestionPipelineTest extends TestCase {
+
+    /**
+     * Reads one figure per line, its identifier and caption separated by a
+     * tabulator, instead of the XML files of the figure extractor
+     */
+    static final FigureIngestionPipeline.FigureReader LINE_READER = new FigureIngestionPipeline.FigureReader() {
+        @Override
+        public List<String[]> read(File file) {
+            try {
+                List<String[]> result = new ArrayList<>();
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    result.add(line.split("\t", 2));
+                }
+                return result;
+            } catch (IOException ex) {
+                return null;
+            }
+        }
+    };
+    private File _hepFile;
+    private File[] _unitFiles;
+    private File _outputFile;
+    private File _dir;
+    private InspireDatabase _db;
+
+    public FigureIngestionPipelineTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _hepFile = TestOntologies.writeHEPOntology(new String[][]{{"top quark"}, {"lepton"}});
+        _unitFiles = TestOntologies.writeUnits(new String[][]{{"kilo", "k"}}, new String[][]{{"meter", "m"}});
+        _outputFile = File.createTempFile("output", ".rdf");
+        _dir = Files.createTempDirectory("figures").toFile();
+        _db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                _unitFiles[0].getPath(), _unitFiles[1].getPath(), false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestOntologies.delete(_hepFile);
+        _unitFiles[0].delete();
+        _unitFiles[1].delete();
+        _outputFile.delete();
+        for (File f : _dir.listFiles()) {
+            f.delete();
+        }
+        _dir.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Writes a file of the publication with the given number of figures, the
+     * even ones about the top quark and the odd ones about a lepton
+     */
+    File writeFigures(int publication, int numFigures) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < numFigures; ++i) {
+            content.append("figure").append(i).append('\t').append(i % 2 == 0 ? "mass of the top quark in 3 km" : "a lepton").append('\n');
+        }
+        File file = new File(_dir, publication + "_figures.xml");
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    public void testUploadsAllFiles() throws Exception {
+        FigureIngestionPipeline pipeline = new FigureIngestionPipeline(_db, 2, 3, 2, 3, null, 0, LINE_READER);
+        for (int publication = 0; publication < 10; ++publication) {
+            pipeline.submit(writeFigures(publication, 4));
+        }
+        // a file which can not be read is skipped
+        pipeline.submit(new File(_dir, "10_missing.xml"));
+        assertEquals(40, pipeline.finish());
+
+        assertEquals(40, _db.searchFigures(Collections.<String>emptyList(), null, null, InvenioOntologyAccessor.FIGURE).size());
+        assertEquals(20, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0").size());
+        assertEquals(20, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept1").size());
+        assertEquals(10, _db.searchFigures(Collections.<String>emptyList(), null, null, InvenioOntologyAccessor.PUBLICATION).size());
+    }
+
+    /**
+     * @return the result of finish, failing instead of waiting for ever
+     */
+    private static int finish(final FigureIngestionPipeline pipeline) throws Exception {
+        FutureTask<Integer> task = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return pipeline.finish();
+            }
+        });
+        new Thread(task).start();
+        try {
+            return task.get(60, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            throw (Exception) ex.getCause();
+        }
+    }
+
+    public void testFailedCheckpointsAreRepeated() throws Exception {
+        final AtomicInteger checkpoints = new AtomicInteger();
+        InspireDatabase db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                _unitFiles[0].getPath(), _unitFiles[1].getPath(), false) {
+            @Override
+            public void checkpoint() throws IOException {
+                // the first checkpoints fail as a TDB sync could
+                if (checkpoints.incrementAndGet() <= 2) {
+                    throw new IllegalStateException("sync failed");
+                }
+                super.checkpoint();
+            }
+        };
+        UploadManifest manifest = new UploadManifest(_outputFile, false);
+        FigureIngestionPipeline pipeline = new FigureIngestionPipeline(db, 1, 1, 1, 1, manifest, 2, LINE_READER);
+        try {
+            for (int publication = 0; publication < 10; ++publication) {
+                pipeline.submit(writeFigures(publication, 2));
+            }
+            assertEquals(20, finish(pipeline));
+            assertTrue(checkpoints.get() > 2);
+            assertEquals(10, new UploadManifest(_outputFile, true).size());
+        } finally {
+            manifest.getFile().delete();
+        }
+    }
+
+    /**
+     * Uploads the files into a database failing when the writer locks it for
+     * the second time
+     */
+    private void assertWriterFailureIsReported(final Throwable failure) throws Exception {
+        final AtomicInteger batches = new AtomicInteger();
+        InspireDatabase db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                _unitFiles[0].getPath(), _unitFiles[1].getPath(), false) {
+            @Override
+            public void enterCriticalSection(boolean readLockRequested) {
+                if (!readLockRequested && batches.incrementAndGet() == 2) {
+                    if (failure instanceof Error) {
+                        throw (Error) failure;
+                    }
+                    throw (RuntimeException) failure;
+                }
+                super.enterCriticalSection(readLockRequested);
+            }
+        };
+        // the queues are smaller than the input, the annotators would block on a dead writer
+        FigureIngestionPipeline pipeline = new FigureIngestionPipeline(db, 1, 2, 1, 1, null, 0, LINE_READER);
+        for (int publication = 0; publication < 10; ++publication) {
+            pipeline.submit(writeFigures(publication, 2));
+        }
+        try {
+            finish(pipeline);
+            fail();
+        } catch (IOException ex) {
+            assertSame(failure, ex.getCause());
+        }
+    }
+
+    public void testWriterFailureIsReported() throws Exception {
+        assertWriterFailureIsReported(new IllegalStateException("broken lock"));
+    }
+
+    public void testWriterErrorIsReported() throws Exception {
+        assertWriterFailureIsReported(new StackOverflowError("deep lock"));
+    }
+
+    public void testSearchesDuringIngestion() throws Exception {
+        final FigureIngestionPipeline pipeline = new FigureIngestionPipeline(_db, 2, 2, 2, 2, null, 0, LINE_READER);
+        final AtomicBoolean finished = new AtomicBoolean();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Integer> counts = Collections.synchronizedList(new ArrayList<Integer>());
+        Thread searcher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    do {
+                        // the figures about the top quark are only added, never removed
+                        counts.add(_db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0").size());
+                        _db.searchFigures(Collections.singletonList(HEPOntologyAccessor.NSURI + "concept1"), null, null, InvenioOntologyAccessor.FIGURE);
+                    } while (!finished.get());
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            }
+        };
+        searcher.start();
+        try {
+            for (int publication = 0; publication < 20; ++publication) {
+                pipeline.submit(writeFigures(publication, 4));
+            }
+            assertEquals(80, finish(pipeline));
+        } finally {
+            finished.set(true);
+            searcher.join();
+        }
+        assertEquals(Collections.<Throwable>emptyList(), failures);
+        counts.add(_db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0").size());
+        for (int i = 1; i < counts.size(); ++i) {
+            assertTrue(counts.get(i - 1) <= counts.get(i));
+        }
+        assertEquals(40, (int) counts.get(counts.size() - 1));
+    }
+}
@@ -0,0 +1,88 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import junit.framework.TestCase;
+
+/**
+ * Tests selecting the files of a directory tree with the FileCrawler
+ *
+ * @author piotr
+ */
+public class FileCrawlerTest extends TestCase {
+
+    private Path _root;
+
+    public FileCrawlerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _root = Files.createTempDirectory("crawler");
+        for (String name : new String[]{"1_a.xml", "2_b.XML", "notes.txt", "2013/01/3_c.xml", "2013/01/4_d.xml.bak",
+            "2013/tmp/5_e.xml", "2014/6_f.xml", "2014/deep/er/7_g.xml"}) {
+            Path file = _root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.createFile(file);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(_root.toFile());
+        super.tearDown();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private Set<String> crawl(List<String> includes, List<String> excludes) throws IOException, InterruptedException {
+        final Set<String> result = new TreeSet<>();
+        int handled = new FileCrawler(includes, excludes).crawl(_root.toFile(), new FileCrawler.Handler() {
+            @Override
+            public void handle(File file) {
+                result.add(file.getName());
+            }
+        });
+        assertEquals(result.size(), handled);
+        return result;
+    }
+
+    public void testDefaultPatterns() throws Exception {
+        assertEquals(new TreeSet<>(Arrays.asList("1_a.xml", "2_b.XML", "3_c.xml", "5_e.xml", "6_f.xml", "7_g.xml")),
+                crawl(Collections.<String>emptyList(), Collections.<String>emptyList()));
+    }
+
+    public void testIncludeAndExclude() throws Exception {
+        assertEquals(new TreeSet<>(Arrays.asList("3_c.xml", "6_f.xml", "7_g.xml")),
+                crawl(Arrays.asList("*.xml"), Arrays.asList("tmp", "1_*")));
+        assertEquals(new TreeSet<>(Arrays.asList("6_f.xml", "7_g.xml")),
+                crawl(Arrays.asList("2014/**"), Collections.<String>emptyList()));
+        assertEquals(new TreeSet<>(Arrays.asList("1_a.xml", "6_f.xml")),
+                crawl(Arrays.asList("*.xml"), Arrays.asList("2013", "2014/*/**")));
+    }
+
+    public void testSingleFile() throws Exception {
+        final List<File> found = new ArrayList<>();
+        File file = _root.resolve("notes.txt").toFile();
+        new FileCrawler(Collections.<String>emptyList(), Collections.<String>emptyList()).crawl(file, new FileCrawler.Handler() {
+            @Override
+            public void handle(File f) {
+                found.add(f);
+            }
+        });
+        assertEquals(Collections.singletonList(file), found);
+    }
+}
@@ -0,0 +1,122 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * Compares the compiled HEP concept matcher with the window search it replaces
+ *
+ * @author piotr
+ */
+public class HEPConceptMatcherTest extends TestCase {
+
+    private static final String[][] LABELS = {
+        {"top quark", "quark: top"},
+        {"quark"},
+        {"quark: mass"},
+        {"top quark mass"},
+        {"mass"},
+        {"jet"},
+        {"jet: multiplicity", "number of jets"},
+        {"transverse momentum"},
+        {"momentum"},
+        {"monte carlo"},
+        {"higgs particle", "higgs boson"},
+        {"boson"},
+        {"b b"}
+    };
+    private File _ontologyFile;
+    private HEPOntologyAccessor _hep;
+
+    public HEPConceptMatcherTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _ontologyFile = TestOntologies.writeHEPOntology(LABELS, "of");
+        _hep = new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestOntologies.delete(_ontologyFile);
+        super.tearDown();
+    }
+
+    /**
+     * The window search replaced by the matcher: tries all the windows of
+     * words and looks them up with searchResourcesCached. Only the longest
+     * window starting at a given position is taken and windows contained in
+     * an already matched window are skipped.
+     */
+    private Set<Resource> searchResourcesInWindows(List<String> words) {
+        int[] minLengths = new int[words.size()];
+        Set<Resource> matchedConcepts = new HashSet<>();
+        for (int start = 0; start < words.size(); ++start) {
+            for (int end = words.size(); minLengths[start] < (end - start); --end) {
+                Set<Resource> foundRes = _hep.searchResourcesCached(new HashSet<>(words.subList(start, end)));
+                if (!foundRes.isEmpty()) {
+                    matchedConcepts.addAll(foundRes);
+                    for (int j = start; j < end; ++j) {
+                        minLengths[j] = end - j;
+                    }
+                }
+            }
+        }
+        return matchedConcepts;
+    }
+
+    private void assertSameMatches(String caption) {
+        List<String> words = InspireDatabase.tokeniseString(caption);
+        Set<Resource> expected = searchResourcesInWindows(words);
+        Set<Resource> actual = _hep.conceptMatcher.match(words);
+        assertEquals(caption, expected, actual);
+    }
+
+    public void testMatchesLikeWindowSearch() {
+        assertSameMatches("");
+        assertSameMatches("the top quark mass as a function of the jet multiplicity");
+        assertSameMatches("mass of the top quark and the quark mass");
+        assertSameMatches("the mass quark and jets of quark top");
+        assertSameMatches("Monte Carlo and monte carlo, monte carlo");
+        assertSameMatches("transverse momentum momentum transverse");
+        assertSameMatches("b b b and higgs boson boson higgs particle");
+        assertSameMatches("number of jets of top top quark quark");
+        assertSameMatches("   jet   \t jet\njet  ");
+    }
+
+    public void testSkipsNostandaloneConcepts() {
+        List<String> words = InspireDatabase.tokeniseString("of");
+        assertTrue(_hep.conceptMatcher.match(words).isEmpty());
+    }
+
+    public void testMatchesLikeWindowSearchOnRandomCaptions() {
+        List<String> vocabulary = new ArrayList<>();
+        for (String[] labels : LABELS) {
+            for (String label : labels) {
+                vocabulary.addAll(HEPOntologyAccessor.tokeniseLabel(label));
+            }
+        }
+        vocabulary.add("the");
+        vocabulary.add("of");
+        vocabulary.add("Fig.");
+
+        Random random = new Random(12345);
+        for (int i = 0; i < 2000; ++i) {
+            StringBuilder caption = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int j = 0; j < length; ++j) {
+                caption.append(vocabulary.get(random.nextInt(vocabulary.size()))).append(' ');
+            }
+            assertSameMatches(caption.toString());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import invenio.common.PrefixTree;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+/**
+ * Tests the persistent labels index of the HEP ontology
+ *
+ * @author piotr
+ */
+public class HEPLabelIndexTest extends TestCase {
+
+    private File _ontologyFile;
+
+    public HEPLabelIndexTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _ontologyFile = TestOntologies.writeHEPOntology(new String[][]{
+            {"top quark", "quark: top"},
+            {"quark"},
+            {"τ lepton", "tau"}
+        }, "of");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestOntologies.delete(_ontologyFile);
+        super.tearDown();
+    }
+
+    public void testLoadedIndexEqualsCalculatedOne() throws Exception {
+        File indexFile = HEPLabelIndex.getIndexFile(_ontologyFile);
+        assertFalse(indexFile.exists());
+        HEPOntologyAccessor calculated = new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+        assertTrue(indexFile.exists());
+
+        HEPLabelIndex index = HEPLabelIndex.load(indexFile, HEPLabelIndex.hashFile(_ontologyFile));
+        assertNotNull(index);
+        HEPOntologyAccessor loaded = new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+
+        Map<String, List<Resource>> calculatedLabels = calculated.getLabelToResource();
+        Map<String, List<Resource>> loadedLabels = loaded.getLabelToResource();
+        PrefixTree<String> loadedTerms = loaded.getTerms();
+        // created once
+        assertSame(loadedTerms, loaded.getTerms());
+        assertSame(loadedLabels, loaded.getLabelToResource());
+        assertEquals(calculatedLabels.keySet(), loadedLabels.keySet());
+        for (String label : calculatedLabels.keySet()) {
+            assertEquals(new HashSet<>(calculatedLabels.get(label)),
+                    new HashSet<>(loadedLabels.get(label)));
+            for (String word : HEPOntologyAccessor.tokeniseLabel(label)) {
+                List<String> labels = loadedTerms.getStringObjects(word);
+                assertTrue(labels.contains(label));
+            }
+        }
+        List<String> words = InspireDatabase.tokeniseString("the quark top and the τ lepton");
+        assertEquals(calculated.conceptMatcher.match(words), loaded.conceptMatcher.match(words));
+        assertEquals(2, loaded.conceptMatcher.match(words).size());
+    }
+
+    public void testDamagedIndexIsCalculatedAgain() throws Exception {
+        new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+        File indexFile = HEPLabelIndex.getIndexFile(_ontologyFile);
+        byte[] hash = HEPLabelIndex.hashFile(_ontologyFile);
+        byte[] content = Files.readAllBytes(indexFile.toPath());
+        // every truncation and every length overwritten with a huge or a negative value
+        for (int length = 0; length < content.length; ++length) {
+            Files.write(indexFile.toPath(), Arrays.copyOf(content, length));
+            assertNull(HEPLabelIndex.load(indexFile, hash));
+        }
+        for (int position = 0; position + 4 <= content.length; position += 4) {
+            for (int value : new int[]{Integer.MAX_VALUE, -1}) {
+                byte[] damaged = content.clone();
+                ByteBuffer.wrap(damaged).putInt(position, value);
+                Files.write(indexFile.toPath(), damaged);
+                HEPLabelIndex.load(indexFile, hash);
+            }
+        }
+
+        Files.write(indexFile.toPath(), Arrays.copyOf(content, content.length / 2));
+        HEPOntologyAccessor hep = new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+        assertEquals(2, hep.conceptMatcher.match(InspireDatabase.tokeniseString("the quark top and the τ lepton")).size());
+        assertNotNull(HEPLabelIndex.load(indexFile, hash));
+    }
+
+    public void testIndexOfDifferentOntologyIsIgnored() throws Exception {
+        new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+        File indexFile = HEPLabelIndex.getIndexFile(_ontologyFile);
+        byte[] otherHash = new byte[20];
+        assertNull(HEPLabelIndex.load(indexFile, otherHash));
+
+        File otherOntology = TestOntologies.writeHEPOntology(new String[][]{{"gluon"}});
+        try {
+            // pretend that the ontology has changed after the index was written
+            assertTrue(indexFile.renameTo(HEPLabelIndex.getIndexFile(otherOntology)));
+            HEPOntologyAccessor hep = new HEPOntologyAccessor(otherOntology.getAbsolutePath());
+            assertEquals(1, hep.getLabelToResource().size());
+            List<Resource> gluon = hep.getLabelToResource().get("gluon");
+            assertEquals(HEPOntologyAccessor.NSURI + "concept0", gluon.get(0).getURI());
+        } finally {
+            TestOntologies.delete(otherOntology);
+        }
+    }
+
+    public void testConcurrentWriters() throws Exception {
+        new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+        final File indexFile = HEPLabelIndex.getIndexFile(_ontologyFile);
+        final byte[] hash = HEPLabelIndex.hashFile(_ontologyFile);
+        final HEPLabelIndex index = HEPLabelIndex.load(indexFile, hash);
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; ++i) {
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; ++j) {
+                            index.write(indexFile, hash);
+                            assertNotNull(HEPLabelIndex.load(indexFile, hash));
+                        }
+                    } catch (Exception | AssertionFailedError ex) {
+                        failures.add(new Exception(ex));
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(Collections.<Exception>emptyList(), failures);
+        assertEquals(Arrays.asList(indexFile.getName()), Arrays.asList(indexFile.getAbsoluteFile().getParentFile().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(indexFile.getName());
+            }
+        })));
+    }
+}
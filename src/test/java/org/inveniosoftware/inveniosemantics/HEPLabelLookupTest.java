@@ -0,0 +1,91 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import java.io.File;
+import java.util.*;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ * Compares the label lookups with the regular expressions they replace
+ *
+ * @author piotr
+ */
+public class HEPLabelLookupTest extends TestCase {
+
+    public HEPLabelLookupTest(String testName) {
+        super(testName);
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength) {
+        StringBuilder result = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; ++i) {
+            result.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return result.toString();
+    }
+
+    private static List<Resource> scan(Map<String, List<Resource>> labels, String regex) {
+        Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+        TreeMap<String, Resource> result = new TreeMap<>();
+        for (Map.Entry<String, List<Resource>> entry : labels.entrySet()) {
+            if (pattern.matcher(entry.getKey()).find()) {
+                for (Resource r : entry.getValue()) {
+                    result.put(r.getURI(), r);
+                }
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    public void testLookupsLikeRegex() {
+        Random random = new Random(2013);
+        String alphabet = "aAb :";
+        HashMap<String, List<Resource>> labels = new HashMap<>();
+        for (int i = 0; i < 300; ++i) {
+            String label = randomString(random, alphabet, 6);
+            if (!labels.containsKey(label)) {
+                labels.put(label, new ArrayList<Resource>());
+            }
+            labels.get(label).add(ResourceFactory.createResource(HEPOntologyAccessor.NSURI + "concept" + random.nextInt(50)));
+        }
+        HEPLabelLookup lookup = new HEPLabelLookup(labels);
+        for (int i = 0; i < 2000; ++i) {
+            String word = randomString(random, alphabet, 5);
+            assertEquals(scan(labels, "^" + word + "$"), lookup.lookup(word));
+
+            List<String> words = new ArrayList<>();
+            int size = 1 + random.nextInt(3);
+            for (int j = 0; j < size; ++j) {
+                words.add(randomString(random, i % 2 == 0 ? "aAb" : alphabet, 3));
+            }
+            String regex = "^" + HEPOntologyAccessor.joinString("( |:)*", words) + "$";
+            assertEquals(regex, scan(labels, regex), lookup.lookup(words));
+        }
+    }
+
+    public void testSearchResourcesFallsBackToSparql() throws Exception {
+        File ontologyFile = TestOntologies.writeHEPOntology(new String[][]{
+            {"top quark", "quark: top"},
+            {"quark"},
+            {"e+ e-: annihilation"}
+        }, "quark:top:mass");
+        try {
+            HEPOntologyAccessor hep = new HEPOntologyAccessor(ontologyFile.getAbsolutePath());
+            assertEquals(1, hep.searchResources("Quark:Top:Mass").size());
+            assertEquals(1, hep.searchResources(Arrays.asList("quark", "top", "mass")).size());
+            assertEquals(1, hep.searchResources(Arrays.asList("quark", "top")).size());
+            assertTrue(hep.searchResources(Arrays.asList("quark", "to")).isEmpty());
+            // regular expressions are still accepted
+            assertEquals(2, hep.searchResources("(top )?quark").size());
+            assertEquals(1, hep.searchResources(Arrays.asList("e\\+", "e-", "annihilation")).size());
+            // the lookup is also served from the index file
+            hep = new HEPOntologyAccessor(ontologyFile.getAbsolutePath());
+            assertEquals(HEPOntologyAccessor.NSURI + "nostandalone0", hep.searchResources("quark:top:mass").get(0).getURI());
+        } finally {
+            TestOntologies.delete(ontologyFile);
+        }
+    }
+}
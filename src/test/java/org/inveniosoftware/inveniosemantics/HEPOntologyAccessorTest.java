@@ -41,14 +41,14 @@ public class HEPOntologyAccessorTest extends TestCase {
         HEPOntologyAccessor inst = new HEPOntologyAccessor("files/HEPont.rdf");
         // TODO review the generated test code and remove the default call to fail.
         HashMap<Resource, List<String>> allLabels = inst.getAllLabels();
-        List<String> stringObjects = inst.terms.getStringObjects("dupadupadupa"); /// this should certainly fail ! There is no place for dupa in the HEPOntology !
+        List<String> stringObjects = inst.getTerms().getStringObjects("dupadupadupa"); /// this should certainly fail ! There is no place for dupa in the HEPOntology !
         assertEquals(stringObjects.size(), 0);
         
         for (Resource res: allLabels.keySet()){
             for (String lab: allLabels.get(res)){
                 Set<String> words = HEPOntologyAccessor.tokeniseLabel(lab);
                 for (String word: words){
-                    List<String> matching = inst.terms.getStringObjects(word);
+                    List<String> matching = inst.getTerms().getStringObjects(word);
                     assertTrue(matching.size() > 0);
                 }
             }
@@ -0,0 +1,268 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.DC;
+import com.hp.hpl.jena.vocabulary.RDF;
+import invenio.common.Pair;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import junit.framework.TestCase;
+
+/**
+ * Tests writing the annotated figures of publications into the database
+ *
+ * @author piotr
+ */
+public class InspireDatabaseTest extends TestCase {
+
+    private File _hepFile;
+    private File[] _unitFiles;
+    private File _outputFile;
+    private InspireDatabase _db;
+
+    public InspireDatabaseTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _hepFile = TestOntologies.writeHEPOntology(new String[][]{{"top quark"}, {"lepton"}});
+        _unitFiles = TestOntologies.writeUnits(new String[][]{{"kilo", "k"}}, new String[][]{{"meter", "m"}});
+        _outputFile = File.createTempFile("output", ".rdf");
+        _db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                _unitFiles[0].getPath(), _unitFiles[1].getPath(), false);
+        _db.setDebug(false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestOntologies.delete(_hepFile);
+        _unitFiles[0].delete();
+        _unitFiles[1].delete();
+        for (File segment : TripleLog.listSegments(_outputFile)) {
+            segment.delete();
+        }
+        _outputFile.delete();
+        super.tearDown();
+    }
+
+    public void testPairsOfRelatedTerms() throws Exception {
+        // 0 > 1 > 2 > 3, 0 > 4, 3 > 1 closes a cycle and 5 is below itself
+        File hepFile = TestOntologies.writeHEPOntology(new String[][]{{"quark"}, {"top quark"}, {"top mass"}, {"pole mass"}, {"lepton"}, {"boson"}},
+                new int[]{0, 1, 1, 2, 2, 3, 0, 4, 3, 1, 5, 5});
+        try {
+            InspireDatabase db = new InspireDatabase(hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                    _unitFiles[0].getPath(), _unitFiles[1].getPath(), false);
+            String[] captions = {"quark", "top quark", "top mass", "lepton", "boson", "top mass of a lepton", "nothing"};
+            for (int i = 0; i < captions.length; ++i) {
+                String pubURI = "http://inspirehep.net/" + i;
+                db.addFigures(pubURI, Collections.singletonList(annotation(db, pubURI, 0, captions[i])));
+            }
+            PreparedQuery query = QueryRegistry.register("inspireDatabaseTest.relatedTerms",
+                    "SELECT DISTINCT ?notion1 ?notion2 WHERE { ?subject1 dc:subject ?notion1. ?subject2 dc:subject ?notion2. ?notion1 skos:narrower+ ?notion2 } ");
+            Set<Pair<Resource, Resource>> expected = new HashSet<>();
+            com.hp.hpl.jena.query.ResultSet results = query.execSelect(db.getUnionModel());
+            while (results.hasNext()) {
+                com.hp.hpl.jena.query.QuerySolution solution = results.nextSolution();
+                expected.add(new Pair<Resource, Resource>(solution.getResource("notion1"), solution.getResource("notion2")));
+            }
+            assertEquals(8, expected.size());
+            assertEquals(expected, db.getPairsOfRelatedTerms());
+        } finally {
+            TestOntologies.delete(hepFile);
+        }
+    }
+
+    private FigureAnnotation annotation(String pubURI, int i, String caption) {
+        return annotation(_db, pubURI, i, caption);
+    }
+
+    private static FigureAnnotation annotation(InspireDatabase db, String pubURI, int i, String caption) {
+        Set<Resource> concepts = db.annotateStringWithHEPConcepts(caption);
+        return new FigureAnnotation(pubURI + "/figure" + i, pubURI, caption, concepts, new HashSet<Resource>());
+    }
+
+
+    public void testAddFigures() throws Exception {
+        _db.openTripleLog();
+        String pubURI = "http://inspirehep.net/1";
+        List<FigureAnnotation> annotations = new ArrayList<>();
+        annotations.add(annotation(pubURI, 0, "mass of the top quark"));
+        annotations.add(annotation(pubURI, 1, "a lepton and a top quark"));
+        long hits = _db.getResultCache().getHits();
+        assertEquals(0, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept1").size());
+        assertEquals(0, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept1").size());
+        List<Resource> figures = _db.addFigures(pubURI, annotations);
+        assertEquals(2, figures.size());
+        assertEquals(pubURI + "/figure1", figures.get(1).getURI());
+
+        // the cached results follow the modifications
+        assertEquals(2, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0").size());
+        assertEquals(1, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept1").size());
+        assertEquals(1, _db.getResultCache().getHits() - hits);
+
+        // the second document of the same publication does not create it again
+        _db.addFigures(pubURI, Collections.singletonList(annotation(pubURI, 2, "lepton")));
+        _db.createPublication(pubURI);
+
+        Set<Resource> topQuark = _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0");
+        assertEquals(new HashSet<>(figures), topQuark);
+        assertEquals(2, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept1").size());
+        assertEquals(3, _db.searchFigures(Collections.<String>emptyList(), null, null, InvenioOntologyAccessor.FIGURE).size());
+
+        // the type of the publication is logged once
+        _db.writeOuput();
+        int publicationStatements = 0;
+        for (String line : Files.readAllLines(TripleLog.listSegments(_outputFile).get(0).toPath(), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("<" + pubURI + "> ")) {
+                publicationStatements++;
+            }
+        }
+        assertEquals(1, publicationStatements);
+    }
+
+    public void testStartup() throws Exception {
+        String pubURI = "http://inspirehep.net/1";
+        _db.addFigures(pubURI, Collections.singletonList(annotation(pubURI, 0, "mass of the top quark")));
+        _db.writeOuput();
+
+        // the components loaded by the other threads are all available
+        long startups = Metrics.timer("startup.total").getCount();
+        InspireDatabase db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                _unitFiles[0].getPath(), _unitFiles[1].getPath(), true);
+        assertEquals(startups + 1, Metrics.timer("startup.total").getCount());
+        assertEquals(1, db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0").size());
+        assertEquals(1, db.annotateStringWithHEPConcepts("a lepton").size());
+        assertEquals(1, db.searchFigures(Collections.<String>emptyList(), null, null, InvenioOntologyAccessor.PUBLICATION).size());
+
+        // the failure of a loading thread reaches the caller
+        try {
+            new InspireDatabase(_hepFile.getPath(), "files/missing.owl", _outputFile.getPath(),
+                    _unitFiles[0].getPath(), _unitFiles[1].getPath(), true);
+            fail();
+        } catch (RuntimeException ex) {
+            assertFalse(ex.getMessage(), ex instanceof IllegalStateException);
+        }
+    }
+
+    public void testDisabledResultCache() throws Exception {
+        _db.setResultCache(0, 0);
+        String pubURI = "http://inspirehep.net/1";
+        _db.addFigures(pubURI, Collections.singletonList(annotation(pubURI, 0, "mass of the top quark")));
+        assertEquals(1, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0").size());
+        assertEquals(1, _db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0").size());
+        assertEquals(0, _db.getResultCache().getHits());
+        assertEquals(2, _db.getResultCache().getMisses());
+    }
+
+    public void testSearchWithBlankFigures() throws Exception {
+        // figures written by other tools may be blank nodes
+        Model model = ModelFactory.createDefaultModel();
+        Resource concept = model.createResource(HEPOntologyAccessor.NSURI + "concept0");
+        Resource figureType = model.createResource(InvenioOntologyAccessor.FIGURE);
+        model.createResource().addProperty(RDF.type, figureType).addProperty(DC.subject, concept);
+        model.createResource("http://inspirehep.net/2/figure0").addProperty(RDF.type, figureType).addProperty(DC.subject, concept);
+        model.createResource().addProperty(RDF.type, figureType).addProperty(DC.subject, concept);
+        model.createResource("http://inspirehep.net/1/figure0").addProperty(RDF.type, figureType).addProperty(DC.subject, concept);
+        try (OutputStream out = new FileOutputStream(_outputFile)) {
+            model.write(out);
+        }
+        InspireDatabase db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                _unitFiles[0].getPath(), _unitFiles[1].getPath(), true);
+
+        List<Resource> figures = db.search(HEPOntologyAccessor.NSURI + "concept0", InvenioOntologyAccessor.FIGURE);
+        assertEquals(4, figures.size());
+        assertEquals("http://inspirehep.net/1/figure0", figures.get(0).getURI());
+        assertEquals("http://inspirehep.net/2/figure0", figures.get(1).getURI());
+        assertTrue(figures.get(2).isAnon());
+        assertTrue(figures.get(3).isAnon());
+    }
+
+    public void testConcurrentCheckpoints() throws Exception {
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] uploads = new Thread[3];
+        for (int i = 0; i < uploads.length; ++i) {
+            final InspireDatabase db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                    _unitFiles[0].getPath(), _unitFiles[1].getPath(), false);
+            final String pubURI = "http://inspirehep.net/" + i;
+            uploads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10; ++j) {
+                            db.addFigures(pubURI, Collections.singletonList(annotation(db, pubURI, j, "a lepton")));
+                            db.checkpoint();
+                        }
+                    } catch (Exception ex) {
+                        failures.add(ex);
+                    }
+                }
+            };
+        }
+        for (Thread upload : uploads) {
+            upload.start();
+        }
+        for (Thread upload : uploads) {
+            upload.join();
+        }
+        assertEquals(Collections.<Exception>emptyList(), failures);
+        // the last checkpoint is complete and no temporary file is left
+        InspireDatabase db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                _unitFiles[0].getPath(), _unitFiles[1].getPath(), true);
+        assertEquals(10, db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept1").size());
+        final String outputName = _outputFile.getName();
+        assertEquals(1, _outputFile.getParentFile().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(outputName);
+            }
+        }).length);
+    }
+
+    public void testPersistentStoreIsLoadedAgainFromLog() throws Exception {
+        File directory = Files.createTempDirectory("tdb").toFile();
+        try {
+            TDBTripleStore store = new TDBTripleStore(directory);
+            InspireDatabase db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                    _unitFiles[0].getPath(), _unitFiles[1].getPath(), false, store);
+            String pubURI = "http://inspirehep.net/1";
+            db.addFigures(pubURI, Collections.singletonList(annotation(db, pubURI, 0, "mass of the top quark")));
+            // the store is not written without its write-ahead log
+            try {
+                db.checkpoint();
+                fail();
+            } catch (IOException ex) {
+                // expected
+            }
+            db.openTripleLog();
+            db.addFigures(pubURI, Collections.singletonList(annotation(db, pubURI, 1, "a top quark")));
+            db.checkpoint();
+            store.close();
+
+            // killed while the dataset was open
+            assertTrue(new File(directory, TDBTripleStore.CLOSED_FILE).delete());
+            store = new TDBTripleStore(directory);
+            assertTrue(store.isRecovered());
+            db = new InspireDatabase(_hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                    _unitFiles[0].getPath(), _unitFiles[1].getPath(), false, store);
+            Set<Resource> figures = db.searchForHEPNotion(HEPOntologyAccessor.NSURI + "concept0");
+            assertEquals(1, figures.size());
+            assertEquals(pubURI + "/figure1", figures.iterator().next().getURI());
+            store.close();
+        } finally {
+            for (File f : directory.listFiles()) {
+                f.delete();
+            }
+            directory.delete();
+        }
+    }
+}
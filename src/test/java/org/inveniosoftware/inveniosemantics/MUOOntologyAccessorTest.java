@@ -4,7 +4,13 @@
  */
 package org.inveniosoftware.inveniosemantics;
 
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import invenio.common.Pair;
+import java.io.File;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +53,89 @@ public class MUOOntologyAccessorTest extends TestCase {
         assertFalse(MUOOntologyAccessor.isNumber("fds1.43"));
     }
 
+    /**
+     * Tests the numbers in the scientific notation, the signed numbers and the
+     * split between a number and the unit following it
+     */
+    public void testNumberScanning() {
+        assertTrue(MUOOntologyAccessor.isNumber("1.3e-5"));
+        assertTrue(MUOOntologyAccessor.isNumber("2E3"));
+        assertTrue(MUOOntologyAccessor.isNumber("-3"));
+        assertTrue(MUOOntologyAccessor.isNumber("+.5"));
+        assertFalse(MUOOntologyAccessor.isNumber("-"));
+        assertFalse(MUOOntologyAccessor.isNumber("1e"));
+        assertFalse(MUOOntologyAccessor.isNumber(""));
+
+        assertEquals(1, MUOOntologyAccessor.scanNumber("5eV", 0, 3));
+        assertEquals(6, MUOOntologyAccessor.scanNumber("1.3e-5GeV", 0, 9));
+        assertEquals(4, MUOOntologyAccessor.scanNumber("-10.MeV", 0, 7));
+        assertEquals(0, MUOOntologyAccessor.scanNumber(".e5", 0, 3));
+        assertEquals(0, MUOOntologyAccessor.scanNumber("fds1.43", 0, 7));
+
+        HashSet<String> words = new HashSet<>(filterWords(TextUtils.tokeniseString("at 1.3e-5GeV and -2keV or 5 eV")));
+        assertTrue(words.contains("GeV"));
+        assertTrue(words.contains("keV"));
+        assertTrue(words.contains("eV"));
+        assertFalse(words.contains("and"));
+    }
+
+    private static String unit(String name) {
+        return MUOOntologyAccessor.INSTANCESURI + "unit/" + name;
+    }
+
+    private static String prefix(String name) {
+        return MUOOntologyAccessor.INSTANCESURI + "prefix/" + name;
+    }
+
+    private static Set<String> decompositions(MUOOntologyAccessor muo, String word) {
+        HashSet<String> result = new HashSet<>();
+        for (Pair<Resource, Resource> p : muo.annotateWordWithUnits(word)) {
+            result.add((p.first == null ? "" : p.first.getURI() + " ") + p.second.getURI());
+        }
+        return result;
+    }
+
+    /**
+     * Tests if all the decompositions of a word into a prefix and a unit are
+     * found and if the prefixed units get their own resources
+     */
+    public void testPrefixedUnits() throws Exception {
+        File[] files = TestOntologies.writeUnits(new String[][]{{"kilo", "k"}, {"milli", "m"}, {"peta", "P"}},
+                new String[][]{{"meter", "m"}, {"pascal", "Pa"}, {"year", "a"}, {"byte", "B"}});
+        try {
+            MUOOntologyAccessor muo = new MUOOntologyAccessor(files[0].getPath(), files[1].getPath());
+            assertEquals(new HashSet<>(Arrays.asList(unit("meter"))), decompositions(muo, "m"));
+            assertEquals(new HashSet<>(Arrays.asList(prefix("milli") + " " + unit("meter"))), decompositions(muo, "mm"));
+            assertEquals(new HashSet<>(Arrays.asList(unit("pascal"), prefix("peta") + " " + unit("year"))), decompositions(muo, "Pa"));
+            assertTrue(decompositions(muo, "kPm").isEmpty());
+            assertTrue(decompositions(muo, "k").isEmpty());
+
+            Set<Resource> units = muo.annotateStringWithUnits("a file of 5 kB at 3 km");
+            Resource kilometer = ResourceFactory.createResource(unit("kilometer"));
+            assertTrue(units.contains(kilometer));
+            assertTrue(units.contains(ResourceFactory.createResource(unit("kilobyte"))));
+            assertEquals(2, units.size());
+            assertSame(muo.createPrefixedResource(ResourceFactory.createResource(prefix("kilo")), ResourceFactory.createResource(unit("meter"))),
+                    muo.createPrefixedResource(ResourceFactory.createResource(prefix("kilo")), ResourceFactory.createResource(unit("meter"))));
+
+            Resource[] parts = muo.getPrefixedUnitParts(kilometer);
+            assertEquals(prefix("kilo"), parts[0].getURI());
+            assertEquals(unit("meter"), parts[1].getURI());
+            assertNull(muo.getPrefixedUnitParts(ResourceFactory.createResource(unit("meter"))));
+
+            Model model = ModelFactory.createDefaultModel();
+            model.add(muo.describeUnit(kilometer, model));
+            assertTrue(muo.describeUnit(ResourceFactory.createResource(unit("meter")), model).isEmpty());
+            assertTrue(muo.describeUnit(kilometer, model).isEmpty());
+            assertEquals(3, model.size());
+            assertTrue(model.contains(kilometer, model.createProperty(MUOOntologyAccessor.MUOURI, "derivesFrom"), model.createResource(unit("meter"))));
+            assertTrue(model.contains(kilometer, model.createProperty(MUOOntologyAccessor.MUOURI, "modifierPrefix"), model.createResource(prefix("kilo"))));
+        } finally {
+            files[0].delete();
+            files[1].delete();
+        }
+    }
+
     public void testSelectingWords() {
         
         List<String> tokens = TextUtils.tokeniseString2("bleble B kB satan dupa [volt] bancrupcy [V] 10 fdsh 10gEb 10. fd 2 jh zyrafa blah 5. fatamorgana 5.volts <megaelectronovolt>");
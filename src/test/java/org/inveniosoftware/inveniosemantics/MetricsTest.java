@@ -0,0 +1,76 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import junit.framework.TestCase;
+
+/**
+ * Tests the timers and counters of the metrics registry
+ *
+ * @author piotr
+ */
+public class MetricsTest extends TestCase {
+
+    private static final PreparedQuery TYPES = QueryRegistry.register("metricsTest.types", "SELECT ?s WHERE { ?s rdf:type ?t }");
+
+    public MetricsTest(String testName) {
+        super(testName);
+    }
+
+    public void testTimer() {
+        Metrics.Timer timer = Metrics.timer("metricsTest.timer");
+        assertSame(timer, Metrics.timer("metricsTest.timer"));
+        timer.reset();
+        for (int i = 0; i < 99; ++i) {
+            timer.record(1000000); // 1 ms
+        }
+        timer.record(100000000); // 100 ms
+        assertEquals(100, timer.getCount());
+        assertEquals(1.99, timer.getMeanMillis(), 1e-9);
+        assertEquals(100.0, timer.getMaxNanos() / 1e6, 1e-9);
+        // the quantiles are bounded by the powers of two
+        double p50 = timer.getQuantileMillis(0.5);
+        assertTrue(p50 >= 1 && p50 <= 2);
+        assertEquals(100.0, timer.getQuantileMillis(1.0), 1e-9);
+        assertTrue(Metrics.summary().contains("metricsTest.timer"));
+    }
+
+    public void testCounter() {
+        Metrics.counter("metricsTest.counter").addAndGet(5);
+        Metrics.counter("metricsTest.counter").incrementAndGet();
+        assertEquals(Long.valueOf(6), Metrics.getCounters().get("metricsTest.counter"));
+        Metrics.reset();
+        assertEquals(Long.valueOf(0), Metrics.getCounters().get("metricsTest.counter"));
+    }
+
+    public void testQueryTimer() {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 10; ++i) {
+            model.createResource("http://example.org/" + i).addProperty(RDF.type, model.createResource("http://example.org/Type"));
+        }
+        Metrics.Timer timer = Metrics.timer("query.metricsTest.types");
+        long before = timer.getCount();
+        ResultSet results = TYPES.execSelect(model);
+        int rows = 0;
+        while (results.hasNext()) {
+            results.nextSolution();
+            rows++;
+        }
+        assertEquals(10, rows);
+        assertFalse(results.hasNext());
+        assertEquals(before + 1, timer.getCount());
+    }
+
+    public void testMBean() throws Exception {
+        Metrics.registerMBean();
+        Metrics.registerMBean();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        Metrics.timer("metricsTest.mbean").record(1);
+        assertTrue(((String) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Summary")).contains("metricsTest.mbean"));
+    }
+}
@@ -0,0 +1,72 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests the prepared queries with bound variables
+ *
+ * @author piotr
+ */
+public class PreparedQueryTest extends TestCase {
+
+    private File _ontologyFile;
+    private HEPOntologyAccessor _hep;
+
+    public PreparedQueryTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _ontologyFile = TestOntologies.writeHEPOntology(new String[][]{
+            {"top quark", "quark: top"},
+            {"quark"},
+            {"Higgs' boson"}
+        });
+        _hep = new HEPOntologyAccessor(_ontologyFile.getAbsolutePath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestOntologies.delete(_ontologyFile);
+        super.tearDown();
+    }
+
+    public void testSearchesLabelsWithBoundRegex() {
+        List<Resource> quark = _hep.searchResources("QUARK");
+        assertEquals(1, quark.size());
+        assertEquals(HEPOntologyAccessor.NSURI + "concept1", quark.get(0).getURI());
+
+        List<Resource> top = _hep.searchResources(Arrays.asList("quark", "top"));
+        assertEquals(1, top.size());
+        assertEquals(HEPOntologyAccessor.NSURI + "concept0", top.get(0).getURI());
+
+        // a quote used to break the spliced query
+        List<Resource> higgs = _hep.searchResources("higgs' boson");
+        assertEquals(1, higgs.size());
+        assertEquals(HEPOntologyAccessor.NSURI + "concept2", higgs.get(0).getURI());
+    }
+
+    public void testRegistry() {
+        PreparedQuery query = QueryRegistry.register("testQuery", "SELECT ?s WHERE { ?s skos:prefLabel ?label }");
+        assertSame(query, QueryRegistry.get("testQuery"));
+        ResultSet results = query.execSelect(_hep.getModel());
+        int rows = 0;
+        while (results.hasNext()) {
+            results.next();
+            rows++;
+        }
+        assertEquals(3, rows);
+        try {
+            QueryRegistry.register("testQuery", "SELECT ?s WHERE { ?s ?p ?o }");
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
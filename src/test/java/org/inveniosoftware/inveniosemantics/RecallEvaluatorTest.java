@@ -0,0 +1,138 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.DC;
+import java.io.StringWriter;
+import java.util.*;
+import junit.framework.TestCase;
+
+/**
+ * Compares the counts of the RecallEvaluator with a search of every notion
+ * through the hierarchy
+ *
+ * @author piotr
+ */
+public class RecallEvaluatorTest extends TestCase {
+
+    private static final int CONCEPTS = 60;
+    private String[] _concepts;
+    private ConceptHierarchy _hierarchy;
+    private Model _model;
+    private Property _contains;
+
+    public RecallEvaluatorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(3);
+        _concepts = new String[CONCEPTS];
+        for (int i = 0; i < CONCEPTS; ++i) {
+            _concepts[i] = HEPOntologyAccessor.NSURI + "concept" + i;
+        }
+        // a DAG with several parents per concept and one cycle
+        List<Integer> edges = new ArrayList<>();
+        for (int i = 1; i < CONCEPTS; ++i) {
+            int numParents = 1 + random.nextInt(2);
+            for (int j = 0; j < numParents; ++j) {
+                edges.add(i);
+                edges.add(random.nextInt(i));
+            }
+        }
+        // every concept is below concept0, so concept0 below concept59 closes a cycle
+        edges.add(0);
+        edges.add(CONCEPTS - 1);
+        int[] edgeArray = new int[edges.size()];
+        for (int i = 0; i < edgeArray.length; ++i) {
+            edgeArray[i] = edges.get(i);
+        }
+        _hierarchy = new ConceptHierarchy(_concepts, edgeArray);
+
+        _model = ModelFactory.createDefaultModel();
+        _contains = _model.createProperty(InvenioOntologyAccessor.CONTAINS);
+        for (int f = 0; f < 200; ++f) {
+            Resource figure = _model.createResource("http://inspirehep.net/" + (f / 5) + "/figure" + f);
+            int numConcepts = random.nextInt(3);
+            for (int k = 0; k < numConcepts; ++k) {
+                figure.addProperty(DC.subject, _model.createResource(_concepts[random.nextInt(CONCEPTS)]));
+            }
+            // the publications contain some of their figures
+            if (random.nextBoolean()) {
+                _model.createResource("http://inspirehep.net/" + (f / 5)).addProperty(_contains, figure);
+            }
+        }
+        // a concept outside the hierarchy
+        _model.createResource("http://inspirehep.net/0/figure0").addProperty(DC.subject, _model.createResource("http://example.org/other"));
+    }
+
+    /**
+     * @return the number of resources found as by
+     * InspireDatabase.searchForHEPNotionHierarchy
+     */
+    private int searchHierarchy(FigureIndex index, String notion) {
+        HashSet<Resource> result = new HashSet<>();
+        for (String descendant : _hierarchy.getDescendants(notion)) {
+            for (int annotated : index.getConceptIds(descendant)) {
+                LinkedList<Resource> toVisit = new LinkedList<>();
+                toVisit.add(index.getResource(annotated));
+                while (!toVisit.isEmpty()) {
+                    Resource r = toVisit.removeFirst();
+                    if (result.add(r)) {
+                        ResIterator containers = _model.listSubjectsWithProperty(_contains, r);
+                        while (containers.hasNext()) {
+                            toVisit.add(containers.nextResource());
+                        }
+                    }
+                }
+            }
+        }
+        return result.size();
+    }
+
+    public void testCounts() throws Exception {
+        FigureIndex index = new FigureIndex(_model);
+        List<Resource> notions = new ArrayList<>();
+        for (String concept : _concepts) {
+            notions.add(_model.createResource(concept));
+        }
+        notions.add(_model.createResource("http://example.org/other"));
+        notions.add(_model.createResource("http://example.org/unused"));
+
+        for (int parallelism : new int[]{1, 4}) {
+            List<RecallEvaluator.NotionRecall> recalls = new RecallEvaluator(_hierarchy, index, _model, parallelism).evaluate(notions);
+            assertEquals(notions.size(), recalls.size());
+            double sum = 0;
+            int num = 0;
+            for (int i = 0; i < notions.size(); ++i) {
+                RecallEvaluator.NotionRecall recall = recalls.get(i);
+                String uri = notions.get(i).getURI();
+                assertEquals(notions.get(i), recall.notion);
+                assertEquals(uri, index.getConceptIds(uri).length, recall.exact);
+                assertEquals(uri, searchHierarchy(index, uri), recall.hierarchical);
+                if (recall.hierarchical > 0) {
+                    sum += (double) recall.exact / recall.hierarchical;
+                    num++;
+                }
+            }
+            assertEquals(sum / num, RecallEvaluator.averageRecall(recalls), 1e-12);
+
+            StringWriter report = new StringWriter();
+            RecallEvaluator.writeReport(recalls, report);
+            assertEquals(notions.size() + 1, report.toString().split("\n").length);
+        }
+    }
+
+    public void testNothingFound() {
+        FigureIndex index = new FigureIndex(ModelFactory.createDefaultModel());
+        List<RecallEvaluator.NotionRecall> recalls = new RecallEvaluator(_hierarchy, index, _model, 2)
+                .evaluate(Collections.singletonList(_model.createResource(_concepts[0])));
+        assertEquals(0, recalls.get(0).hierarchical);
+        assertEquals(0.0, RecallEvaluator.averageRecall(recalls));
+    }
+}
@@ -0,0 +1,87 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+/**
+ * Tests the eviction and the invalidation of the cached search results
+ *
+ * @author piotr
+ */
+public class ResultCacheTest extends TestCase {
+
+    public ResultCacheTest(String testName) {
+        super(testName);
+    }
+
+    public void testEviction() {
+        ResultCache cache = new ResultCache(3, 10);
+        long epoch = cache.getEpoch();
+        cache.put("a", epoch, "A", 1);
+        cache.put("b", epoch, "B", 1);
+        cache.put("c", epoch, "C", 1);
+        assertEquals("A", cache.<String>get("a"));
+        // b is the least recently used
+        cache.put("d", epoch, "D", 1);
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.size());
+        // the number of entries evicts c and the weight a, a result heavier than the cache is not stored
+        cache.put("e", epoch, "E", 9);
+        assertEquals(Arrays.asList(null, null, "D", "E"), Arrays.asList(cache.get("a"), cache.get("c"), cache.get("d"), cache.get("e")));
+        assertEquals(10, cache.getWeight());
+        cache.put("f", epoch, "F", 11);
+        assertNull(cache.get("f"));
+        assertEquals(3, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(3.0 / 7, cache.getHitRate());
+    }
+
+    public void testInvalidation() {
+        Model model = ModelFactory.createDefaultModel();
+        ResultCache cache = new ResultCache(10, 100);
+        model.register(cache);
+        long epoch = cache.getEpoch();
+        cache.put("types", epoch, Collections.emptyList(), 1);
+        assertNotNull(cache.get("types"));
+
+        model.createResource("http://example.org/a").addProperty(RDF.type, RDF.Property);
+        assertNull(cache.get("types"));
+        assertEquals(0, cache.size());
+        // a result computed before the modification is not stored
+        cache.put("types", epoch, Collections.emptyList(), 1);
+        assertNull(cache.get("types"));
+        cache.put("types", cache.getEpoch(), Collections.singletonList("a"), 2);
+        assertEquals(Collections.singletonList("a"), cache.get("types"));
+    }
+
+    public void testDisabled() {
+        ResultCache cache = new ResultCache(0, 100);
+        cache.put("a", cache.getEpoch(), "A", 1);
+        assertNull(cache.get("a"));
+    }
+
+    public void testSizeMetrics() {
+        // other caches may be alive, only the differences are checked
+        long entries = Metrics.getCounters().get("cache.entries");
+        long weight = Metrics.getCounters().get("cache.weight");
+        ResultCache first = new ResultCache(10, 100);
+        ResultCache second = new ResultCache(10, 100);
+        first.put("a", first.getEpoch(), "A", 2);
+        second.put("a", second.getEpoch(), "A", 3);
+        second.put("b", second.getEpoch(), "B", 4);
+        assertEquals(entries + 3, (long) Metrics.getCounters().get("cache.entries"));
+        assertEquals(weight + 9, (long) Metrics.getCounters().get("cache.weight"));
+        // the sizes are not counters, a reset does not change them
+        Metrics.reset();
+        assertEquals(entries + 3, (long) Metrics.getCounters().get("cache.entries"));
+        second.invalidate();
+        second.get("a");
+        assertEquals(entries + 1, (long) Metrics.getCounters().get("cache.entries"));
+        assertEquals(weight + 2, (long) Metrics.getCounters().get("cache.weight"));
+    }
+}
@@ -0,0 +1,129 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.DC;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.util.*;
+import junit.framework.TestCase;
+
+/**
+ * Compares the routed union of a dataset with the union of Jena
+ *
+ * @author piotr
+ */
+public class RoutedDatasetTest extends TestCase {
+
+    private static final PreparedQuery[] QUERIES = {
+        QueryRegistry.register("routedDatasetTest.general", "SELECT ?notion WHERE { ?subject dc:subject ?notion. ?notion1 skos:broader ?notion}"),
+        QueryRegistry.register("routedDatasetTest.all", "SELECT ?s ?p ?o WHERE { ?s ?p ?o }"),
+        QueryRegistry.register("routedDatasetTest.types", "SELECT ?s ?t WHERE { ?s rdf:type ?t }"),
+        QueryRegistry.register("routedDatasetTest.related", "SELECT DISTINCT ?n1 ?n2 WHERE { ?f1 dc:subject ?n1. ?f2 dc:subject ?n2. ?n2 skos:broader+ ?n1 }")};
+    private Model _hep;
+    private Model _instances;
+    private RoutedDataset _dataset;
+    private Property _broader;
+
+    public RoutedDatasetTest(String testName) {
+        super(testName);
+    }
+
+    private static Resource concept(Model model, int i) {
+        return model.createResource(HEPOntologyAccessor.NSURI + "concept" + i);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _hep = ModelFactory.createDefaultModel();
+        _broader = _hep.createProperty(TestOntologies.SKOS, "broader");
+        Resource conceptClass = _hep.createResource(TestOntologies.SKOS + "Concept");
+        for (int i = 0; i < 20; ++i) {
+            concept(_hep, i).addProperty(RDF.type, conceptClass);
+            if (i > 0) {
+                concept(_hep, i).addProperty(_broader, concept(_hep, i / 2));
+            }
+        }
+        _instances = ModelFactory.createDefaultModel();
+        _dataset = new RoutedDataset();
+        _dataset.addModel("hep", _hep, false);
+        _dataset.addModel("instances", _instances, true);
+    }
+
+    private void addFigures(Random random, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            Resource figure = _instances.createResource(InvenioOntologyAccessor.NSURI + "figure" + i);
+            figure.addProperty(RDF.type, _instances.createResource(InvenioOntologyAccessor.FIGURE));
+            figure.addProperty(DC.subject, concept(_instances, random.nextInt(20)));
+        }
+    }
+
+    private static Set<String> query(PreparedQuery query, Model model) {
+        Set<String> result = new HashSet<>();
+        com.hp.hpl.jena.query.ResultSet results = query.execSelect(model);
+        List<String> variables = results.getResultVars();
+        while (results.hasNext()) {
+            com.hp.hpl.jena.query.QuerySolution solution = results.nextSolution();
+            StringBuilder row = new StringBuilder();
+            for (String v : variables) {
+                row.append(solution.get(v)).append(' ');
+            }
+            result.add(row.toString());
+        }
+        return result;
+    }
+
+    public void testRouting() {
+        addFigures(new Random(1), 0, 5);
+        assertEquals(Arrays.asList("instances"), _dataset.route(DC.subject.asNode()));
+        assertEquals(Arrays.asList("hep"), _dataset.route(_broader.asNode()));
+        assertEquals(Arrays.asList("hep", "instances"), _dataset.route(RDF.type.asNode()));
+        assertEquals(Arrays.asList("hep", "instances"), _dataset.route(com.hp.hpl.jena.graph.Node.ANY));
+        assertTrue(_dataset.route(DC.title.asNode()).isEmpty());
+    }
+
+    public void testLazyModel() {
+        final int[] loads = new int[1];
+        RoutedDataset dataset = new RoutedDataset();
+        dataset.addModel("instances", _instances, true);
+        dataset.addLazyModel("hep", new RoutedDataset.ModelLoader() {
+            @Override
+            public Model load() {
+                loads[0]++;
+                return _hep;
+            }
+        });
+        addFigures(new Random(3), 0, 5);
+        assertEquals(Arrays.asList("instances", "hep"), dataset.route(DC.subject.asNode()));
+        assertEquals(0, loads[0]);
+        assertFalse(dataset.isLoaded("hep"));
+
+        // the first pattern routed to the model loads it
+        assertEquals(19, dataset.getUnionModel().listStatements(null, _broader, (com.hp.hpl.jena.rdf.model.RDFNode) null).toList().size());
+        assertTrue(dataset.isLoaded("hep"));
+        assertEquals(Arrays.asList("instances"), dataset.route(DC.subject.asNode()));
+        assertEquals(Arrays.asList("hep"), dataset.route(_broader.asNode()));
+        for (PreparedQuery q : QUERIES) {
+            assertEquals(q.getName(), query(q, _hep.union(_instances)), query(q, dataset.getUnionModel()));
+        }
+        assertSame(_hep, dataset.getNamedModel("hep"));
+        assertEquals(1, loads[0]);
+    }
+
+    public void testQueriesFollowTheInstances() {
+        Random random = new Random(2);
+        for (int step = 0; step < 3; ++step) {
+            addFigures(random, 10 * step, 10 * step + 10);
+            Model union = _hep.union(_instances);
+            for (PreparedQuery q : QUERIES) {
+                assertEquals(q.getName(), query(q, union), query(q, _dataset.getUnionModel()));
+            }
+            assertEquals(union.size(), _dataset.getUnionModel().size());
+        }
+        // a statement present in both models is returned once
+        _instances.add(concept(_instances, 3), RDF.type, _instances.createResource(TestOntologies.SKOS + "Concept"));
+        assertEquals(20, _dataset.getUnionModel().listSubjectsWithProperty(RDF.type, _hep.createResource(TestOntologies.SKOS + "Concept")).toList().size());
+    }
+}
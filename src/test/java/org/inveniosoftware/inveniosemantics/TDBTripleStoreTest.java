@@ -0,0 +1,98 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.io.File;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+
+/**
+ * Tests the persistence of the models kept in a TDB dataset
+ *
+ * @author piotr
+ */
+public class TDBTripleStoreTest extends TestCase {
+
+    private File _directory;
+    private File _ontologyFile;
+
+    public TDBTripleStoreTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _directory = Files.createTempDirectory("tdb").toFile();
+        _ontologyFile = TestOntologies.writeHEPOntology(new String[][]{{"top quark"}, {"quark"}});
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : _directory.listFiles()) {
+            f.delete();
+        }
+        _directory.delete();
+        TestOntologies.delete(_ontologyFile);
+        super.tearDown();
+    }
+
+    public void testKeepsModelsBetweenRuns() throws Exception {
+        TDBTripleStore store = new TDBTripleStore(_directory);
+        assertTrue(store.isPersistent());
+        Model hep = store.loadModel("hep", _ontologyFile.getPath());
+        long size = hep.size();
+        assertTrue(size > 0);
+        Model instances = store.getModel("instances");
+        assertTrue(instances.isEmpty());
+        Resource figure = instances.createResource(InvenioOntologyAccessor.NSURI + "figure1");
+        Property subject = instances.createProperty("http://purl.org/dc/elements/1.1/subject");
+        figure.addProperty(subject, instances.createResource(HEPOntologyAccessor.NSURI + "concept0"));
+        // marks the ontology model to detect that the file is not parsed again
+        hep.add(figure, subject, figure);
+        store.close();
+
+        store = new TDBTripleStore(_directory);
+        assertEquals(1, store.getModel("instances").size());
+        assertTrue(store.getModel("instances").contains(figure, subject));
+        assertEquals(size + 1, store.loadModel("hep", _ontologyFile.getPath()).size());
+        store.close();
+
+        // a changed file is loaded again
+        TestOntologies.delete(_ontologyFile);
+        _ontologyFile = TestOntologies.writeHEPOntology(new String[][]{{"top quark"}, {"quark"}, {"jet"}});
+        store = new TDBTripleStore(_directory);
+        hep = store.loadModel("hep", _ontologyFile.getPath());
+        assertFalse(hep.contains(figure, subject));
+        assertTrue(hep.size() > size);
+        assertEquals(1, store.getModel("instances").size());
+        store.close();
+    }
+
+    public void testDatasetNotClosedIsDeleted() throws Exception {
+        TDBTripleStore store = new TDBTripleStore(_directory);
+        assertFalse(store.isRecovered());
+        store.loadModel("hep", _ontologyFile.getPath());
+        Model instances = store.getModel("instances");
+        instances.createResource(InvenioOntologyAccessor.NSURI + "figure1").addProperty(RDF.type, instances.createResource(InvenioOntologyAccessor.FIGURE));
+        // the marker is only present while the dataset is closed
+        assertFalse(new File(_directory, TDBTripleStore.CLOSED_FILE).exists());
+        store.close();
+        assertTrue(new File(_directory, TDBTripleStore.CLOSED_FILE).exists());
+
+        store = new TDBTripleStore(_directory);
+        assertFalse(store.isRecovered());
+        assertEquals(1, store.getModel("instances").size());
+        store.close();
+
+        // as if the process had been killed while the dataset was open
+        assertTrue(new File(_directory, TDBTripleStore.CLOSED_FILE).delete());
+        store = new TDBTripleStore(_directory);
+        assertTrue(store.isRecovered());
+        assertTrue(store.getModel("instances").isEmpty());
+        assertTrue(store.loadModel("hep", _ontologyFile.getPath()).size() > 0);
+        store.close();
+    }
+}
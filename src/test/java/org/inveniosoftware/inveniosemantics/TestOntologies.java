@@ -0,0 +1,124 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes small synthetic ontologies, so that the tests do not depend on the
+ * full HEP ontology
+ *
+ * @author piotr
+ */
+public class TestOntologies {
+
+    public static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+
+    /**
+     * Writes a SKOS thesaurus in the HEP namespace to a temporary file. The
+     * concept i is called "concept" + i, the first of its labels is the
+     * preferred label and the others are alternative labels.
+     *
+     * @param labels labels of the concepts
+     * @param nostandalone labels of additional concepts marked as nostandalone
+     * @return the written file
+     */
+    public static File writeHEPOntology(String[][] labels, String... nostandalone) throws IOException {
+        return write(createHEPOntology(labels, nostandalone), "hepont", ".rdf");
+    }
+
+    /**
+     * Writes a SKOS thesaurus as writeHEPOntology, with skos:narrower relations
+     * between its concepts
+     *
+     * @param narrower pairs (broader, narrower) of concept indexes, stored one
+     * after another
+     */
+    public static File writeHEPOntology(String[][] labels, int[] narrower) throws IOException {
+        Model model = createHEPOntology(labels);
+        Property narrowerProperty = model.createProperty(SKOS, "narrower");
+        for (int i = 0; i < narrower.length; i += 2) {
+            model.createResource(HEPOntologyAccessor.NSURI + "concept" + narrower[i])
+                    .addProperty(narrowerProperty, model.createResource(HEPOntologyAccessor.NSURI + "concept" + narrower[i + 1]));
+        }
+        return write(model, "hepont", ".rdf");
+    }
+
+    private static Model createHEPOntology(String[][] labels, String... nostandalone) {
+        Model model = ModelFactory.createDefaultModel();
+        Property prefLabel = model.createProperty(SKOS, "prefLabel");
+        Property altLabel = model.createProperty(SKOS, "altLabel");
+        Property note = model.createProperty(SKOS, "note");
+        Resource conceptClass = model.createResource(SKOS + "Concept");
+        for (int i = 0; i < labels.length; ++i) {
+            Resource concept = model.createResource(HEPOntologyAccessor.NSURI + "concept" + i);
+            concept.addProperty(com.hp.hpl.jena.vocabulary.RDF.type, conceptClass);
+            concept.addProperty(prefLabel, labels[i][0]);
+            for (int j = 1; j < labels[i].length; ++j) {
+                concept.addProperty(altLabel, labels[i][j]);
+            }
+        }
+        for (int i = 0; i < nostandalone.length; ++i) {
+            Resource composite = model.createResource(HEPOntologyAccessor.NSURI + "nostandalone" + i);
+            composite.addProperty(com.hp.hpl.jena.vocabulary.RDF.type, conceptClass);
+            composite.addProperty(prefLabel, nostandalone[i]);
+            composite.addProperty(note, "nostandalone");
+        }
+        return model;
+    }
+
+    /**
+     * Writes the vocabulary and the instances of a units ontology with the
+     * given prefixes and units to temporary files. The prefix or unit called
+     * name has the URI MUOOntologyAccessor.INSTANCESURI + "prefix/" + name or
+     * "unit/" + name.
+     *
+     * @param prefixes pairs of the name and the symbol of a prefix
+     * @param units pairs of the name and the symbol of a unit
+     * @return the vocabulary file and the instances file
+     */
+    public static File[] writeUnits(String[][] prefixes, String[][] units) throws IOException {
+        Model vocabulary = ModelFactory.createDefaultModel();
+        Resource prefixClass = vocabulary.createResource(MUOOntologyAccessor.MUOURI + "Prefix");
+        Resource unitClass = vocabulary.createResource(MUOOntologyAccessor.MUOURI + "UnitOfMeasurement");
+        prefixClass.addProperty(com.hp.hpl.jena.vocabulary.RDF.type, com.hp.hpl.jena.vocabulary.OWL.Class);
+        unitClass.addProperty(com.hp.hpl.jena.vocabulary.RDF.type, com.hp.hpl.jena.vocabulary.OWL.Class);
+
+        Model instances = ModelFactory.createDefaultModel();
+        Property prefSymbol = instances.createProperty(MUOOntologyAccessor.MUOURI, "prefSymbol");
+        for (String[] prefix : prefixes) {
+            instances.createResource(MUOOntologyAccessor.INSTANCESURI + "prefix/" + prefix[0])
+                    .addProperty(com.hp.hpl.jena.vocabulary.RDF.type, prefixClass).addProperty(prefSymbol, prefix[1]);
+        }
+        for (String[] unit : units) {
+            instances.createResource(MUOOntologyAccessor.INSTANCESURI + "unit/" + unit[0])
+                    .addProperty(com.hp.hpl.jena.vocabulary.RDF.type, unitClass).addProperty(prefSymbol, unit[1]);
+        }
+        return new File[]{write(vocabulary, "muo-vocab", ".owl"), write(instances, "ucum-instances", ".owl")};
+    }
+
+    /**
+     * Writes the model as RDF/XML to a temporary file
+     */
+    public static File write(Model model, String prefix, String suffix) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        try (OutputStream out = new FileOutputStream(file)) {
+            model.write(out);
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the ontology file together with the index files written next to
+     * it
+     */
+    public static void delete(File ontologyFile) {
+        HEPLabelIndex.getIndexFile(ontologyFile).delete();
+        ontologyFile.delete();
+    }
+}
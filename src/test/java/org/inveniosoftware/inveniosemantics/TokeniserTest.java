@@ -0,0 +1,63 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Compares the words found by the Tokeniser with the results of String.split
+ *
+ * @author piotr
+ */
+public class TokeniserTest extends TestCase {
+
+    private static final char[] ALPHABET = {'a', 'b', 'Q', '1', '.', ':', '[', ']', ' ', ' ', '\t', '\n', '\r', ' ', 'τ'};
+
+    public TokeniserTest(String testName) {
+        super(testName);
+    }
+
+    private static List<String> split(String s, String regex) {
+        List<String> result = new ArrayList<>();
+        for (String part : s.split(regex)) {
+            if (!part.isEmpty()) {
+                result.add(part);
+            }
+        }
+        return result;
+    }
+
+    public void testRandomStrings() {
+        Random random = new Random(7);
+        Tokeniser tokeniser = new Tokeniser();
+        for (int i = 0; i < 2000; ++i) {
+            StringBuilder s = new StringBuilder();
+            int length = random.nextInt(100);
+            for (int j = 0; j < length; ++j) {
+                s.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+            String text = s.toString();
+            assertEquals(text, split(text, "\\s+"), tokeniser.tokenise(text).getTokens());
+            assertEquals(text, split(text, "(\\s|:)+"), tokeniser.tokenise(text, true).getTokens());
+        }
+    }
+
+    public void testOffsets() {
+        Tokeniser tokens = new Tokeniser().tokenise("  top  quark: mass ");
+        assertEquals(3, tokens.size());
+        assertEquals(2, tokens.start(0));
+        assertEquals(5, tokens.end(0));
+        assertEquals("quark:", tokens.getToken(1));
+        assertEquals(18, tokens.end(2));
+    }
+
+    public void testDictionaryLookup() {
+        IdDictionary dictionary = new IdDictionary(new String[]{"top", "quark", "mass"});
+        Tokeniser tokens = new Tokeniser().tokenise("mass of the top quark", true);
+        assertEquals(2, dictionary.getId(tokens.getText(), tokens.start(0), tokens.end(0)));
+        assertEquals(-1, dictionary.getId(tokens.getText(), tokens.start(1), tokens.end(1)));
+        assertEquals(0, dictionary.getId(tokens.getText(), tokens.start(3), tokens.end(3)));
+        assertEquals(1, dictionary.getId(tokens.getText(), tokens.start(4), tokens.end(4)));
+    }
+}
@@ -0,0 +1,194 @@
+package org.inveniosoftware.inveniosemantics;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Tests writing, reading and compacting the triple log
+ *
+ * @author piotr
+ */
+public class TripleLogTest extends TestCase {
+
+    private File _dir;
+    private File _outputFile;
+
+    public TripleLogTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _dir = Files.createTempDirectory("triplelog").toFile();
+        _outputFile = new File(_dir, "output.rdf");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : _dir.listFiles()) {
+            f.delete();
+        }
+        _dir.delete();
+        super.tearDown();
+    }
+
+    private static void addStatements(Model model, String suffix) {
+        Resource figure = model.createResource(InvenioOntologyAccessor.NSURI + "figure" + suffix);
+        Property caption = model.createProperty(InvenioOntologyAccessor.NSURI, "caption");
+        figure.addProperty(caption, "The \"τ\" lepton\\n mass\n\tin GeV " + suffix);
+        figure.addProperty(caption, "Masse", "fr");
+        figure.addProperty(model.createProperty(InvenioOntologyAccessor.NSURI, "number"), "12", XSDDatatype.XSDint);
+        figure.addProperty(model.createProperty(InvenioOntologyAccessor.NSURI, "about"), model.createResource());
+    }
+
+    public void testLogsAddedStatements() throws Exception {
+        Model model = ModelFactory.createDefaultModel();
+        addStatements(model, "0"); // added before the log is registered
+        TripleLog log = new TripleLog(TripleLog.createSegment(_outputFile));
+        model.register(log);
+        addStatements(model, "1");
+        log.close();
+
+        assertEquals(4, log.getNumStatements());
+        Model read = ModelFactory.createDefaultModel();
+        TripleLog.readSegment(read, log.getFile());
+        Model expected = ModelFactory.createDefaultModel();
+        addStatements(expected, "1");
+        assertTrue(read.isIsomorphicWith(expected));
+    }
+
+    public void testResumesAfterTruncatedSegment() throws Exception {
+        Model model = ModelFactory.createDefaultModel();
+        TripleLog log = new TripleLog(TripleLog.createSegment(_outputFile));
+        model.register(log);
+        addStatements(model, "0");
+        log.close();
+        // a crash in the middle of a flush leaves a part of the last line
+        try (FileOutputStream out = new FileOutputStream(log.getFile(), true)) {
+            out.write("<http://example.org/figure1> <http://example.org/caption> \"The ta".getBytes("US-ASCII"));
+        }
+        Model read = ModelFactory.createDefaultModel();
+        TripleLog.readSegment(read, log.getFile());
+        assertTrue(read.isIsomorphicWith(model));
+
+        // the resumed run writes a new segment, both are read and compacted
+        Model expected = ModelFactory.createDefaultModel().add(model);
+        Model resumed = ModelFactory.createDefaultModel();
+        log = new TripleLog(TripleLog.createSegment(_outputFile));
+        resumed.register(log);
+        addStatements(resumed, "1");
+        addStatements(expected, "1");
+        log.close();
+        File hepFile = TestOntologies.writeHEPOntology(new String[][]{{"lepton"}});
+        File[] unitFiles = TestOntologies.writeUnits(new String[][]{{"kilo", "k"}}, new String[][]{{"meter", "m"}});
+        try {
+            InspireDatabase db = new InspireDatabase(hepFile.getPath(), "files/inveniomodel.owl", _outputFile.getPath(),
+                    unitFiles[0].getPath(), unitFiles[1].getPath(), true);
+            Property caption = model.createProperty(InvenioOntologyAccessor.NSURI, "caption");
+            for (String suffix : new String[]{"0", "1"}) {
+                assertTrue(db.getUnionModel().contains(model.createResource(InvenioOntologyAccessor.NSURI + "figure" + suffix), caption));
+            }
+        } finally {
+            TestOntologies.delete(hepFile);
+            unitFiles[0].delete();
+            unitFiles[1].delete();
+        }
+        assertEquals(2, TripleLog.compact(_outputFile));
+        Model compacted = ModelFactory.createDefaultModel();
+        try (InputStream in = new FileInputStream(_outputFile)) {
+            compacted.read(in, "");
+        }
+        assertTrue(compacted.isIsomorphicWith(expected));
+    }
+
+    public void testCompactsSegments() throws Exception {
+        Model expected = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 3; ++i) {
+            Model model = ModelFactory.createDefaultModel();
+            TripleLog log = new TripleLog(TripleLog.createSegment(_outputFile));
+            model.register(log);
+            addStatements(model, Integer.toString(i));
+            addStatements(expected, Integer.toString(i));
+            log.close();
+        }
+        assertEquals(3, TripleLog.listSegments(_outputFile).size());
+
+        assertEquals(3, TripleLog.compact(_outputFile));
+        assertTrue(TripleLog.listSegments(_outputFile).isEmpty());
+        Model compacted = ModelFactory.createDefaultModel();
+        try (InputStream in = new FileInputStream(_outputFile)) {
+            compacted.read(in, "");
+        }
+        assertTrue(compacted.isIsomorphicWith(expected));
+
+        // the next compaction keeps the content of the output file
+        Model model = ModelFactory.createDefaultModel();
+        TripleLog log = new TripleLog(TripleLog.createSegment(_outputFile));
+        model.register(log);
+        addStatements(model, "3");
+        addStatements(expected, "3");
+        log.close();
+        assertEquals(1, TripleLog.compact(_outputFile));
+        compacted = ModelFactory.createDefaultModel();
+        try (InputStream in = new FileInputStream(_outputFile)) {
+            compacted.read(in, "");
+        }
+        assertTrue(compacted.isIsomorphicWith(expected));
+    }
+
+    public void testConcurrentCompactions() throws Exception {
+        Model expected = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 3; ++i) {
+            Model model = ModelFactory.createDefaultModel();
+            TripleLog log = new TripleLog(TripleLog.createSegment(_outputFile));
+            model.register(log);
+            addStatements(model, Integer.toString(i));
+            addStatements(expected, Integer.toString(i));
+            log.close();
+        }
+        final AtomicInteger merged = new AtomicInteger();
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] compactions = new Thread[2];
+        for (int i = 0; i < compactions.length; ++i) {
+            compactions[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        merged.addAndGet(TripleLog.compact(_outputFile));
+                    } catch (Exception ex) {
+                        failures.add(ex);
+                    }
+                }
+            };
+            compactions[i].start();
+        }
+        for (Thread compaction : compactions) {
+            compaction.join();
+        }
+        assertEquals(Collections.<Exception>emptyList(), failures);
+        // the second compaction finds no segments left
+        assertEquals(3, merged.get());
+        Model compacted = ModelFactory.createDefaultModel();
+        try (InputStream in = new FileInputStream(_outputFile)) {
+            compacted.read(in, "");
+        }
+        assertTrue(compacted.isIsomorphicWith(expected));
+        assertEquals(new HashSet<>(Arrays.asList("output.rdf", "output.rdf.lock")), new HashSet<>(Arrays.asList(_dir.list())));
+    }
+}
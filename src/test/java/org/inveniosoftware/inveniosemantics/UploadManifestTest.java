@@ -0,0 +1,77 @@
+package org.inveniosoftware.inveniosemantics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests detecting the unchanged files with the upload manifest
+ *
+ * @author piotr
+ */
+public class UploadManifestTest extends TestCase {
+
+    private File _outputFile;
+    private File _input;
+
+    public UploadManifestTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        _outputFile = File.createTempFile("output", ".rdf");
+        _input = File.createTempFile("1234_figures", ".xml");
+        write(_input, "<document/>");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new File(_outputFile.getPath() + UploadManifest.SUFFIX).delete();
+        _outputFile.delete();
+        _input.delete();
+        super.tearDown();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+    }
+
+    public void testResume() throws Exception {
+        UploadManifest manifest = new UploadManifest(_outputFile, false);
+        assertFalse(manifest.isUnchanged(_input));
+        manifest.add(UploadManifest.hash(_input));
+        assertTrue(manifest.isUnchanged(_input));
+
+        // the files are only written by a checkpoint
+        assertEquals(0, new UploadManifest(_outputFile, true).size());
+        manifest.checkpoint();
+        UploadManifest resumed = new UploadManifest(_outputFile, true);
+        assertEquals(1, resumed.size());
+        assertTrue(resumed.isUnchanged(_input));
+
+        // touched, but with the same content
+        assertTrue(_input.setLastModified(_input.lastModified() - 10000));
+        assertTrue(resumed.isUnchanged(_input));
+        resumed.checkpoint();
+        // the new modification time is recorded, so the file is not hashed again
+        List<String> lines = Files.readAllLines(resumed.getFile().toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).contains("\t" + _input.lastModified() + "\t"));
+
+        // modified
+        write(_input, "<document><figure/></document>");
+        assertFalse(resumed.isUnchanged(_input));
+        assertFalse(new UploadManifest(_outputFile, true).isUnchanged(_input));
+
+        // a new upload forgets the previous files
+        assertEquals(0, new UploadManifest(_outputFile, false).size());
+    }
+}